@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package x.java.io;
+
+/**
+ * A bandwidth budget shared by any number of streams (see
+ * {@link LimitedBandwidthInputStream#LimitedBandwidthInputStream(java.io.InputStream, BandwidthLimiter[], int)}
+ * and {@link LimitedBandwidthOutputStream}). Implemented as a token bucket:
+ * the bytes unused when idle are saved up to the burst size only.
+ *
+ * @note The bytes are reserved in the order asked for, so the streams sharing
+ * a limiter get their turns fairly.
+ */
+public class BandwidthLimiter
+{
+    /**
+     * @param bytesPerMilli 0 for unlimited
+     * @param maxBurstBytes how many bytes may be saved up when idle
+     */
+    public BandwidthLimiter(long bytesPerMilli, int maxBurstBytes)
+    {
+        setBandwidth(bytesPerMilli, maxBurstBytes);
+
+        tokens = burstSize;
+        lastTimeMillis = System.currentTimeMillis();
+        totalBytes = 0;
+    }
+
+
+    public synchronized long getBandwidth()
+    {
+        return bandwidth;
+    }
+
+    public synchronized int getBurstSize()
+    {
+        return burstSize;
+    }
+
+    public synchronized long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    /**
+     * Changes the budget (for the bytes asked for from now on).
+     */
+    public synchronized void setBandwidth
+            (long bytesPerMilli, int maxBurstBytes)
+    {
+        if (bytesPerMilli < 0)
+            throw new IllegalArgumentException
+                ("Bandwidth is negative (" + bytesPerMilli + ")!");
+
+        if (maxBurstBytes <= 0)
+            throw new IllegalArgumentException
+                ("Maximum burst size is negative or zero ("+maxBurstBytes+")!");
+
+        bandwidth = bytesPerMilli;
+        burstSize = maxBurstBytes;
+    }
+
+    /**
+     * Waits until the bytes fit in the budget.
+     */
+    public void acquire(int bytes)
+    {
+        assert bytes > 0;
+
+        long waitMillis = reserve(bytes);
+
+        if (waitMillis > 0)
+            try {
+                Thread.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                // Going on, but leaving it for the caller to see
+                Thread.currentThread().interrupt();
+            }
+    }
+
+
+    /**
+     * Takes the bytes from the bucket (going into debt if needed).
+     *
+     * @return how long to wait for the debt to be paid
+     */
+    protected synchronized long reserve(int bytes)
+    {
+        totalBytes += bytes;
+
+        if (bandwidth == 0)
+            return 0;
+
+        long now = System.currentTimeMillis();
+
+        tokens = Math.min(burstSize, tokens + (now-lastTimeMillis)*bandwidth);
+        lastTimeMillis = now;
+        tokens -= bytes;
+
+        return (tokens >= 0) ? 0 : (-tokens + bandwidth - 1) / bandwidth;
+    }
+
+
+    protected long bandwidth;
+    protected int burstSize;
+    protected long tokens;
+    protected long lastTimeMillis;
+    protected long totalBytes;
+}
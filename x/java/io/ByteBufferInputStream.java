@@ -0,0 +1,100 @@
+/**
+ *
+ */
+package x.java.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream reading the remaining bytes of a {@link ByteBuffer}.
+ * The buffer is duplicated, so many streams may share the same (e.g. mapped)
+ * buffer without affecting each other or the buffer itself.
+ *
+ * @note Just like with any other stream, the concurrent work with a stream
+ * has to be synchronized externally.
+ */
+public class ByteBufferInputStream extends InputStream
+{
+    public ByteBufferInputStream(ByteBuffer _buffer)
+    {
+        buffer = _buffer.duplicate();
+        buffer.mark();
+    }
+
+
+    /**
+     * @see java.io.InputStream#read()
+     */
+    @Override
+    public int read()
+    {
+        return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+    }
+
+    /**
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+        assert b != null && off >= 0 && len >= 0;
+
+        if (len == 0)
+            return 0;
+
+        if (!buffer.hasRemaining())
+            return -1;
+
+        int bytes = Math.min(len, buffer.remaining());
+        buffer.get(b, off, bytes);
+
+        return bytes;
+    }
+
+    /**
+     * @see java.io.InputStream#skip(long)
+     */
+    @Override
+    public long skip(long n)
+    {
+        if (n <= 0)
+            return 0;
+
+        int bytes = (int)Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + bytes);
+
+        return bytes;
+    }
+
+    /**
+     * @see java.io.InputStream#available()
+     */
+    @Override
+    public int available()
+    {
+        return buffer.remaining();
+    }
+
+
+    @Override
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public void mark(int readlimit)
+    {
+        buffer.mark();
+    }
+
+    @Override
+    public void reset()
+    {
+        buffer.reset();
+    }
+
+
+    protected final ByteBuffer buffer;
+}
@@ -0,0 +1,210 @@
+/**
+ *
+ */
+package x.java.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A strong content hash that can be computed both in a streaming way (see
+ * {@link #update(byte[], int, int)}) and in parallel (see
+ * {@link #of(File, ExecutorService)}) with the same result: a SHA-256 of the
+ * SHA-256s of the content's fixed size chunks and of its length.
+ *
+ * @note It's not a SHA-256 of the content, so it's not comparable to the
+ * hashes computed by other tools.
+ */
+public class ContentHash
+{
+    public static final String ALGORITHM = "SHA-256";
+
+    public static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+
+    /**
+     * Computes the hash of the file in parallel on the common pool.
+     */
+    public static String of(File file) throws IOException
+    {
+        return of(file, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Computes the hash of the file in parallel (a chunk per task).
+     */
+    public static String of(File file, ExecutorService executor)
+            throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            List<Future<byte[]>> chunks = new ArrayList<Future<byte[]>>();
+
+            for (long pos = 0; pos < length; pos += CHUNK_SIZE) {
+                final long position = pos;
+                final int size = (int)Math.min(CHUNK_SIZE, length - pos);
+
+                chunks.add(executor.submit(new Callable<byte[]>() {
+                    public byte[] call() throws IOException {
+                        return digest(channel, position, size);
+                    }
+                }));
+            }
+
+            MessageDigest total = newDigest();
+            for (Future<byte[]> chunk : chunks)
+                total.update(get(chunk));
+            total.update(ByteBuffer.allocate(8).putLong(0, length));
+
+            return toHex(total.digest());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Computes the hash of the stream (in a streaming way) and closes it.
+     */
+    public static String of(InputStream in) throws IOException
+    {
+        try {
+            ContentHash hash = new ContentHash();
+            byte[] buffer = new byte[64 * 1024];
+
+            for (int bytes = in.read(buffer); bytes != -1;
+                 bytes = in.read(buffer))
+                hash.update(buffer, 0, bytes);
+
+            return hash.digest();
+        } finally {
+            in.close();
+        }
+    }
+
+
+    public ContentHash()
+    {
+        chunks = newDigest();
+        chunk = newDigest();
+        chunkBytes = 0;
+        length = 0;
+    }
+
+
+    public void update(byte[] b, int off, int len)
+    {
+        while (len > 0) {
+            int bytes = Math.min(len, CHUNK_SIZE - chunkBytes);
+            chunk.update(b, off, bytes);
+            chunkBytes += bytes;
+            length += bytes;
+            off += bytes;
+            len -= bytes;
+
+            if (chunkBytes == CHUNK_SIZE) {
+                chunks.update(chunk.digest());
+                chunkBytes = 0;
+            }
+        }
+    }
+
+    /**
+     * Completes the hash (the object may not be updated afterwards).
+     *
+     * @return the hash in hex
+     */
+    public String digest()
+    {
+        if (chunkBytes > 0)
+            chunks.update(chunk.digest());
+
+        chunks.update(ByteBuffer.allocate(8).putLong(0, length));
+
+        return toHex(chunks.digest());
+    }
+
+    public long getLength()
+    {
+        return length;
+    }
+
+
+    protected static byte[] digest
+            (FileChannel channel, long position, int size) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(size, 64 * 1024));
+
+        for (int togo = size; togo > 0; ) {
+            buffer.clear();
+            buffer.limit(Math.min(togo, buffer.capacity()));
+
+            int bytes = channel.read(buffer, position);
+            if (bytes == -1)
+                throw new IOException("File is truncated while hashing");
+
+            digest.update(buffer.array(), 0, bytes);
+            position += bytes;
+            togo -= bytes;
+        }
+
+        return digest.digest();
+    }
+
+    protected static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to have it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    protected static byte[] get(Future<byte[]> future) throws IOException
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted hashing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            throw new IOException("Hashing failed", e.getCause());
+        }
+    }
+
+    protected static String toHex(byte[] bytes)
+    {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes)
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+              .append(Character.forDigit(b & 0xf, 16));
+
+        return sb.toString();
+    }
+
+
+    protected final MessageDigest chunks;
+    protected final MessageDigest chunk;
+    protected int chunkBytes;
+    protected long length;
+}
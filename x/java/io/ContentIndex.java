@@ -0,0 +1,306 @@
+/**
+ *
+ */
+package x.java.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An index of files by their {@link ContentHash}es, kept in a local store
+ * file incrementally (every change is appended to it as a line, the store is
+ * compacted upon opening).
+ *
+ * An entry is valid as long as the file's length and modification time are
+ * the ones it was hashed with: the stale ones are dropped when found.
+ *
+ * @note A file modified within the file system's time granularity, with its
+ * length kept, may go unnoticed. Those who modify the files should
+ * {@link #remove(File)} them.
+ */
+public class ContentIndex implements Closeable
+{
+    /**
+     * An indexed file
+     */
+    protected static class Entry
+    {
+        public Entry( String _hash, long _length, long _lastModified
+                    , String _path)
+        {
+            hash = _hash;
+            length = _length;
+            lastModified = _lastModified;
+            path = _path;
+        }
+
+
+        public boolean isValid()
+        {
+            File file = new File(path);
+
+            return file.length() == length
+                   && file.lastModified() == lastModified;
+        }
+
+        public String toString()
+        {
+            return "+ " + hash + ' ' + length + ' ' + lastModified + ' ' + path;
+        }
+
+
+        public final String hash;
+        public final long length;
+        public final long lastModified;
+        public final String path;
+    }
+
+
+    /**
+     * Opens (or creates) the index kept in the store file.
+     */
+    public ContentIndex(File _store) throws IOException
+    {
+        store = _store;
+        byPath = new HashMap<String, Entry>();
+        byHash = new HashMap<String, Set<String>>();
+
+        if (store.exists())
+            load();
+
+        // Compact the store
+        File tmp_ = new File(store.getPath() + ".tmp");
+        writer = open(tmp_, false);
+        for (Entry entry : byPath.values())
+            append(entry.toString());
+        writer.close();
+
+        if (!tmp_.renameTo(store)
+            && !(store.delete() && tmp_.renameTo(store)))
+            throw new IOException("Cannot replace " + store);
+
+        writer = open(store, true);
+
+        indexer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ContentIndex " + store);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+
+    /**
+     * Finds a file of the content.
+     *
+     * @return <code>null</code> if there is none
+     */
+    public synchronized File find(String hash, long length)
+            throws IOException
+    {
+        List<File> files = findAll(hash, length);
+
+        return files.isEmpty() ? null : files.get(0);
+    }
+
+    /**
+     * Finds all of the files of the content (e.g. for those who may take
+     * some of them only).
+     */
+    public synchronized List<File> findAll(String hash, long length)
+            throws IOException
+    {
+        List<File> files = new ArrayList<File>();
+        Set<String> paths = byHash.get(hash);
+
+        if (paths == null)
+            return files;
+
+        for (String path : paths.toArray(new String[paths.size()])) {
+            Entry entry = byPath.get(path);
+
+            if (!entry.isValid())
+                remove(new File(path));
+            else if (entry.length == length)
+                files.add(new File(path));
+        }
+
+        return files;
+    }
+
+    /**
+     * Hashes the file and indexes it.
+     *
+     * @return the hash
+     */
+    public String add(File file) throws IOException
+    {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String hash = ContentHash.of(file);
+
+        put(hash, file, length, lastModified);
+
+        return hash;
+    }
+
+    /**
+     * Hashes the file and indexes it in the background.
+     */
+    public void addLater(final File file)
+    {
+        indexer.execute(new Runnable() {
+            public void run() {
+                try {
+                    add(file);
+                } catch (IOException e) {
+                    // Just not indexed (it may be gone already)
+                }
+            }
+        });
+    }
+
+    /**
+     * Indexes the file of the (known) hash.
+     */
+    public void put(String hash, File file) throws IOException
+    {
+        put(hash, file, file.length(), file.lastModified());
+    }
+
+    /**
+     * Drops the file from the index.
+     */
+    public synchronized void remove(File file) throws IOException
+    {
+        String path = file.getAbsolutePath();
+        Entry entry = byPath.remove(path);
+
+        if (entry == null)
+            return;
+
+        Set<String> paths = byHash.get(entry.hash);
+        paths.remove(path);
+        if (paths.isEmpty())
+            byHash.remove(entry.hash);
+
+        append("- " + path);
+    }
+
+    public synchronized int size()
+    {
+        return byPath.size();
+    }
+
+    public synchronized void close() throws IOException
+    {
+        indexer.shutdownNow();
+        writer.close();
+    }
+
+
+    protected synchronized void put
+            (String hash, File file, long length, long lastModified)
+        throws IOException
+    {
+        // Modified while being hashed?
+        if (file.length() != length || file.lastModified() != lastModified)
+            return;
+
+        remove(file);
+
+        Entry entry = new Entry
+            (hash, length, lastModified, file.getAbsolutePath());
+        index(entry);
+        append(entry.toString());
+    }
+
+    protected void index(Entry entry)
+    {
+        byPath.put(entry.path, entry);
+
+        Set<String> paths = byHash.get(entry.hash);
+        if (paths == null) {
+            paths = new LinkedHashSet<String>();
+            byHash.put(entry.hash, paths);
+        }
+        paths.add(entry.path);
+    }
+
+    protected void load() throws IOException
+    {
+        BufferedReader reader = new BufferedReader
+            (new InputStreamReader(new FileInputStream(store), "UTF-8"));
+        try {
+            for (String line = reader.readLine(); line != null;
+                 line = reader.readLine())
+                if (line.startsWith("- ")) {
+                    Entry entry = byPath.remove(line.substring(2));
+                    if (entry != null)
+                        byHash.get(entry.hash).remove(entry.path);
+                } else if (line.startsWith("+ ")) {
+                    String[] fields = line.split(" ", 5);
+                    if (fields.length < 5)
+                        continue; // A torn last line
+                    try {
+                        Entry entry = new Entry
+                            ( fields[1], Long.parseLong(fields[2])
+                            , Long.parseLong(fields[3]), fields[4]);
+                        Entry old = byPath.get(entry.path);
+                        if (old != null)
+                            byHash.get(old.hash).remove(old.path);
+                        index(entry);
+                    } catch (NumberFormatException e) {
+                        // A torn last line again
+                    }
+                }
+        } finally {
+            reader.close();
+        }
+
+        for (Iterator<Set<String>> i = byHash.values().iterator();
+             i.hasNext(); )
+            if (i.next().isEmpty())
+                i.remove();
+    }
+
+    protected static Writer open(File file, boolean append)
+            throws IOException
+    {
+        return new BufferedWriter(new OutputStreamWriter
+            (new FileOutputStream(file, append), "UTF-8"));
+    }
+
+    protected void append(String line) throws IOException
+    {
+        writer.write(line);
+        writer.write('\n');
+        writer.flush();
+    }
+
+
+    protected final File store;
+    protected final Map<String, Entry> byPath;
+    protected final Map<String, Set<String>> byHash;
+    protected Writer writer;
+    protected final ExecutorService indexer;
+}
@@ -0,0 +1,290 @@
+/**
+ *
+ */
+package x.java.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of file contents for serving the same (hot) files many times.
+ * Small files are kept on the heap, large ones are memory-mapped (and the
+ * mappings are shared by all of the streams reading them), the ones larger
+ * than that (or than {@link Integer#MAX_VALUE} bytes, the most a buffer can
+ * map) are not cached at all.
+ *
+ * Both kinds of entries are evicted in the LRU order once their byte budget
+ * is exceeded. An entry is dropped as soon as the file's modification time or
+ * length is found changed upon {@link #open(File)}.
+ *
+ * @note An evicted mapping is not unmapped until it is garbage collected
+ * (there is no standard way to do that explicitly), so the mapped budget is
+ * about the address space kept by the cache rather than a hard limit.
+ * @note A file modified within the file system's time granularity, with its
+ * length kept, may go unnoticed. Those who modify the files (see
+ * {@link x.java.net.io.RemoteFileServer}) should {@link #invalidate(File)}.
+ * @warn A mapped file must not be truncated or rewritten in place while it
+ * is mapped (the streams reading the mapping would fail or see the new
+ * content): its new content should be written to another file replacing it.
+ */
+public class FileCache
+{
+    /**
+     * A cached file content
+     */
+    protected static class Entry
+    {
+        public Entry(long _lastModified, long _length, ByteBuffer _content)
+        {
+            lastModified = _lastModified;
+            length = _length;
+            content = _content;
+        }
+
+
+        public boolean isMapped()
+        {
+            return !content.hasArray();
+        }
+
+
+        public final long lastModified;
+        public final long length;
+        public final ByteBuffer content;
+    }
+
+
+    /**
+     * Creates a cache of the specified budgets.
+     *
+     * @param maxHeapFileSize the files up to this size are kept on the heap
+     * @param maxHeapBytes the heap budget
+     * @param maxMappedBytes the mapping budget (files larger than it are not
+     * cached), 0 for no mapping at all
+     */
+    public FileCache
+            (int maxHeapFileSize, long maxHeapBytes, long maxMappedBytes)
+    {
+        if (maxHeapFileSize < 0 || maxHeapBytes < 0 || maxMappedBytes < 0)
+            throw new IllegalArgumentException("Negative cache budget!");
+
+        heapFileSize = maxHeapFileSize;
+        heapBudget = maxHeapBytes;
+        mappedBudget = maxMappedBytes;
+
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        heapBytes = mappedBytes = 0;
+
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        evictions = new AtomicLong();
+        invalidations = new AtomicLong();
+    }
+
+
+    /**
+     * Opens the file for reading, from the cache if possible.
+     *
+     * @throws IOException just like {@link FileInputStream} does
+     */
+    public InputStream open(File file) throws IOException
+    {
+        String key = file.getCanonicalPath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+
+            if (entry != null) {
+                if (entry.lastModified == lastModified
+                    && entry.length == length) {
+                    hits.incrementAndGet();
+                    return new ByteBufferInputStream(entry.content);
+                }
+
+                remove(key);
+                invalidations.incrementAndGet();
+            }
+        }
+
+        misses.incrementAndGet();
+
+        if ((length > heapFileSize || length > heapBudget)
+            && (length > mappedBudget || length > Integer.MAX_VALUE))
+            return new FileInputStream(file);
+
+        Entry entry = load(file, lastModified, length);
+
+        synchronized (this) {
+            Entry old = entries.get(key);
+
+            // Someone else may have loaded it meanwhile
+            if (old != null && old.lastModified == entry.lastModified
+                && old.length == entry.length)
+                entry = old;
+            else {
+                if (old != null)
+                    remove(key);
+                put(key, entry);
+            }
+        }
+
+        return new ByteBufferInputStream(entry.content);
+    }
+
+    /**
+     * Drops the file from the cache (if it is there).
+     */
+    public void invalidate(File file) throws IOException
+    {
+        String key = file.getCanonicalPath();
+
+        synchronized (this) {
+            if (remove(key) != null)
+                invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops all of the cached files.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        heapBytes = mappedBytes = 0;
+    }
+
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    public long getInvalidations()
+    {
+        return invalidations.get();
+    }
+
+    public synchronized int getSize()
+    {
+        return entries.size();
+    }
+
+    public synchronized long getHeapBytes()
+    {
+        return heapBytes;
+    }
+
+    public synchronized long getMappedBytes()
+    {
+        return mappedBytes;
+    }
+
+
+    /**
+     * Reads (or maps) the file content.
+     *
+     * @note The length of the entry is the one actually read: the file may be
+     * changing right now (and then the entry is dropped upon the next open).
+     */
+    protected Entry load(File file, long lastModified, long length)
+            throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer content;
+
+            if (length <= heapFileSize && length <= heapBudget) {
+                content = ByteBuffer.allocate((int)length);
+                while (content.hasRemaining()
+                       && channel.read(content) >= 0);
+                content.flip();
+            } else
+                content = channel.map( FileChannel.MapMode.READ_ONLY
+                                     , 0, Math.min(length, channel.size()));
+
+            return new Entry(lastModified, content.remaining(), content);
+        } finally {
+            raf.close();
+        }
+    }
+
+    protected void put(String key, Entry entry)
+    {
+        entries.put(key, entry);
+
+        if (entry.isMapped())
+            mappedBytes += entry.length;
+        else
+            heapBytes += entry.length;
+
+        Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+        while ((heapBytes > heapBudget || mappedBytes > mappedBudget)
+               && i.hasNext()) {
+            Entry eldest = i.next().getValue();
+
+            if (eldest == entry)
+                continue;
+
+            if (eldest.isMapped() ? mappedBytes > mappedBudget
+                                  : heapBytes > heapBudget) {
+                i.remove();
+                forget(eldest);
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    protected Entry remove(String key)
+    {
+        Entry entry = entries.remove(key);
+
+        if (entry != null)
+            forget(entry);
+
+        return entry;
+    }
+
+    protected void forget(Entry entry)
+    {
+        if (entry.isMapped())
+            mappedBytes -= entry.length;
+        else
+            heapBytes -= entry.length;
+    }
+
+
+    protected final int heapFileSize;
+    protected final long heapBudget;
+    protected final long mappedBudget;
+
+    protected final LinkedHashMap<String, Entry> entries;
+    protected long heapBytes;
+    protected long mappedBytes;
+
+    protected final AtomicLong hits;
+    protected final AtomicLong misses;
+    protected final AtomicLong evictions;
+    protected final AtomicLong invalidations;
+}
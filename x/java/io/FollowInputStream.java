@@ -0,0 +1,412 @@
+/**
+ *
+ */
+package x.java.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A "tail -f" input stream: it doesn't end at the end of the file, but waits
+ * for the file to grow (as reported by a {@link WatchService} on its
+ * directory) and goes on reading.
+ *
+ * A truncated file is read again from its beginning. So is a rotated one
+ * (i.e. the file is replaced with another one of the same name), once the
+ * rest of the old file is read.
+ *
+ * The stream ends only when it is closed (which may be done from another
+ * thread to wake up a waiting reader).
+ *
+ * @note Reading returns whatever is there (at least one byte, of course) as
+ * soon as it is there, and {@link #available()} is precise, so the buffering
+ * streams around shouldn't make the data wait for their buffers to fill.
+ * @note A truncation is noticed only if the file is found shorter than what
+ * is already read: a file truncated and grown back past that in between two
+ * checks goes on being read from the old position.
+ * @note The watch service may be a polling one on some platforms, so the
+ * file is checked at least every {@link #pollMillis} anyway.
+ * @note All of the streams share a single watch service (see
+ * {@link Watcher}): the watch services are a scarce resource, e.g. an inotify
+ * instance each on Linux (128 per user by default).
+ */
+public class FollowInputStream extends InputStream
+{
+    public static final long DEFAULT_POLL_MILLIS = 500;
+
+
+    /**
+     * A directory watched for the streams following the files in it
+     */
+    protected static class Directory
+    {
+        public Directory(WatchKey _key)
+        {
+            key = _key;
+            users = 0;
+            changes = 0;
+        }
+
+
+        public synchronized long getChanges()
+        {
+            return changes;
+        }
+
+        /**
+         * Waits for the directory to change since the number of the changes
+         * was got (or the time to pass).
+         */
+        public synchronized void await(long _changes, long millis)
+                throws InterruptedException
+        {
+            if (changes == _changes)
+                wait(millis);
+        }
+
+        /**
+         * Wakes the waiting streams up.
+         */
+        public synchronized void changed()
+        {
+            changes++;
+            notifyAll();
+        }
+
+
+        protected final WatchKey key;
+        /**
+         * The number of the streams following the files in the directory
+         * (guarded by the {@link Watcher})
+         */
+        protected int users;
+        protected long changes;
+    }
+
+
+    /**
+     * The watch service of the streams with a daemon thread of its own
+     * dispatching the events to the directories' streams.
+     */
+    protected static class Watcher implements Runnable
+    {
+        public Watcher() throws IOException
+        {
+            service = FileSystems.getDefault().newWatchService();
+            directories = new HashMap<WatchKey, Directory>();
+
+            Thread thread = new Thread(this, "FollowInputStream watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+
+        /**
+         * Starts watching the directory for a stream (unless watched
+         * already).
+         */
+        public synchronized Directory watch(Path dir) throws IOException
+        {
+            // The same key for the same directory (by whatever path)
+            WatchKey key = dir.register( service
+                                       , StandardWatchEventKinds.ENTRY_CREATE
+                                       , StandardWatchEventKinds.ENTRY_MODIFY
+                                       , StandardWatchEventKinds.ENTRY_DELETE);
+            Directory directory = directories.get(key);
+
+            if (directory == null) {
+                directory = new Directory(key);
+                directories.put(key, directory);
+            }
+            directory.users++;
+
+            return directory;
+        }
+
+        /**
+         * Stops watching the directory for a stream (once there are no
+         * other streams there).
+         */
+        public synchronized void unwatch(Directory directory)
+        {
+            if (--directory.users > 0)
+                return;
+
+            if (directories.get(directory.key) == directory) {
+                directories.remove(directory.key);
+                directory.key.cancel();
+            }
+        }
+
+        public void run()
+        {
+            for (;;) {
+                WatchKey key;
+                try {
+                    key = service.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+
+                key.pollEvents();
+
+                Directory directory;
+                synchronized (this) {
+                    directory = directories.get(key);
+                    // Gone (e.g. deleted): the streams are left to polling
+                    if (!key.reset())
+                        directories.remove(key);
+                }
+
+                if (directory != null)
+                    directory.changed();
+            }
+        }
+
+
+        protected final WatchService service;
+        protected final Map<WatchKey, Directory> directories;
+    }
+
+
+    /**
+     * Follows the file from its beginning.
+     */
+    public FollowInputStream(File file) throws IOException
+    {
+        this(file, 0, DEFAULT_POLL_MILLIS);
+    }
+
+    /**
+     * Follows the file from the specified position.
+     *
+     * @param offset the position to start with (negative for the current end
+     * of the file; if it is beyond the end, the file is taken as truncated)
+     * @param _pollMillis the maximum delay in noticing changes that are not
+     * reported by the watch service
+     */
+    public FollowInputStream(File file, long offset, long _pollMillis)
+            throws IOException
+    {
+        if (_pollMillis <= 0)
+            throw new IllegalArgumentException
+                ("Poll interval is negative or zero (" + _pollMillis + ")!");
+
+        path = file.getAbsoluteFile().toPath();
+        pollMillis = _pollMillis;
+
+        directory = watcher().watch(path.getParent());
+        try {
+            open();
+        } catch (IOException e) {
+            watcher().unwatch(directory);
+            throw e;
+        }
+
+        position = (offset < 0) ? channel.size() : offset;
+        closed = false;
+    }
+
+
+    /**
+     * @see java.io.InputStream#read()
+     */
+    @Override
+    public int read() throws IOException
+    {
+        byte[] b = new byte[1];
+
+        return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+    }
+
+    /**
+     * Blocks until there is something to read or the stream is closed.
+     *
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        assert b != null && off >= 0 && len >= 0;
+
+        if (len == 0)
+            return 0;
+
+        while (!closed) {
+            // Taken first, for a change while checking not to be missed
+            long changes = directory.getChanges();
+            int bytes;
+            try {
+                bytes = channel.read(ByteBuffer.wrap(b, off, len), position);
+            } catch (IOException e) {
+                if (closed)
+                    break;
+                throw e;
+            }
+
+            if (bytes > 0) {
+                position += bytes;
+                return bytes;
+            }
+
+            if (!reopened())
+                await(changes);
+        }
+
+        return -1;
+    }
+
+    /**
+     * @see java.io.InputStream#available()
+     */
+    @Override
+    public int available() throws IOException
+    {
+        if (closed)
+            return 0;
+
+        long bytes = channel.size() - position;
+
+        return (bytes <= 0) ? 0
+            : (bytes > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int)bytes;
+    }
+
+    /**
+     * Skips within the bytes already there only.
+     *
+     * @see java.io.InputStream#skip(long)
+     */
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long bytes = Math.min(n, available());
+
+        if (bytes <= 0)
+            return 0;
+
+        position += bytes;
+
+        return bytes;
+    }
+
+    /**
+     * @see java.io.InputStream#close()
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            watcher().unwatch(directory);
+            // Wakes up the reader waiting (and the others, needlessly)
+            directory.changed();
+        } finally {
+            channel.close();
+        }
+    }
+
+
+    /**
+     * Returns the position in the file currently followed.
+     */
+    public long getPosition()
+    {
+        return position;
+    }
+
+
+    protected void open() throws IOException
+    {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        fileKey = Files.readAttributes(path, BasicFileAttributes.class)
+                    .fileKey();
+    }
+
+    /**
+     * Checks if the file was truncated or rotated (and starts reading it
+     * from the beginning if so).
+     *
+     * @note Without the file keys (on some platforms) a rotation is noticed
+     * only when the new file is shorter than the old one read so far.
+     */
+    protected boolean reopened() throws IOException
+    {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            // Rotated away and not created yet
+            return false;
+        }
+
+        boolean rotated = fileKey != null
+                          && !fileKey.equals(attrs.fileKey());
+
+        if (!rotated && attrs.size() >= position)
+            return false;
+
+        if (rotated && channel.size() > position)
+            // There is still something left in the old one
+            return true;
+
+        channel.close();
+        open();
+        position = 0;
+
+        return true;
+    }
+
+    /**
+     * Waits for something to happen in the file's directory since the number
+     * of its changes was got (or the poll interval to pass).
+     */
+    protected void await(long changes) throws IOException
+    {
+        try {
+            directory.await(changes, pollMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while following", e);
+        }
+    }
+
+
+    /**
+     * Returns the watcher of the streams (started by the first one).
+     */
+    protected static synchronized Watcher watcher() throws IOException
+    {
+        if (watcher == null)
+            watcher = new Watcher();
+
+        return watcher;
+    }
+
+
+    protected static Watcher watcher;
+
+    protected final Path path;
+    protected final long pollMillis;
+    protected final Directory directory;
+    protected FileChannel channel;
+    protected Object fileKey;
+    protected long position;
+    protected volatile boolean closed;
+}
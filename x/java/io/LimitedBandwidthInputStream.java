@@ -59,6 +59,35 @@ public class LimitedBandwidthInputStream extends FilterInputStream
         initTimeMillis = nextTimeMillis = 0;
         totalBytes = 0;
     }
+    
+    /**
+     * Creates a limited-bandwidth input stream from the given input
+     * stream, sharing the bandwidth budgets with any other streams using the
+     * same limiters (with the specified max burst size)
+     * 
+     * @param in
+     * @param _limiters all of which the bytes must fit in
+     * @param maxBurstBytes
+     */
+    public LimitedBandwidthInputStream( InputStream in
+                                      , BandwidthLimiter[] _limiters
+                                      , int maxBurstBytes)
+    {
+        super(in);
+        
+        assert _limiters != null;
+        
+        if (maxBurstBytes > 0)
+            burstSize = maxBurstBytes;
+        else
+            throw new IllegalArgumentException
+                ("Maximum burst size is negative or zero ("+maxBurstBytes+")!");
+        
+        limiters = _limiters.clone();
+        bandwidth = 0;
+        initTimeMillis = nextTimeMillis = 0;
+        totalBytes = 0;
+    }
 
     
     /** 
@@ -81,6 +110,13 @@ public class LimitedBandwidthInputStream extends FilterInputStream
     @Override
     public int read() throws IOException
     {
+        if (limiters != null) {
+            int ch = in.read();
+            if (ch != -1)
+                charge(1);
+            return ch;
+        }
+        
         delay(1);
         
         return in.read();
@@ -94,6 +130,15 @@ public class LimitedBandwidthInputStream extends FilterInputStream
     {
         assert b != null && off >= 0 && len >= 0;
         
+        if (limiters != null) {
+            // Whatever there is (not waiting for more, e.g. of a followed
+            // file), charged as read
+            int bytes = in.read(b, off, (len > burstSize) ? burstSize : len);
+            if (bytes > 0)
+                charge(bytes);
+            return bytes;
+        }
+        
         int togo = len;
         int lastRead = 1; // to get into the loop
         int totalRead = 0;
@@ -146,10 +191,24 @@ public class LimitedBandwidthInputStream extends FilterInputStream
         nextTimeMillis = initTimeMillis + totalBytes/bandwidth;
     }
 
+    
+    /**
+     * Takes the bytes read from the limiters' budgets (waiting for the debt,
+     * if any, to be paid).
+     */
+    protected void charge(int bytes)
+    {
+        assert bytes > 0;
+        
+        for (BandwidthLimiter limiter : limiters)
+            limiter.acquire(bytes);
+    }
+
 
     protected long bandwidth;
     protected int burstSize;
     protected long initTimeMillis;
     protected long nextTimeMillis;
     protected long totalBytes;
+    protected BandwidthLimiter[] limiters;
 }
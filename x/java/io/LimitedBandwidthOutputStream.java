@@ -61,6 +61,35 @@ public class LimitedBandwidthOutputStream extends FilterOutputStream
         initTimeMillis = nextTimeMillis = 0;
         totalBytes = 0;
     }
+    
+    /**
+     * Creates a limited-bandwidth output stream from the given output
+     * stream, sharing the bandwidth budgets with any other streams using the
+     * same limiters (with the specified max burst size)
+     * 
+     * @param out
+     * @param _limiters all of which the bytes must fit in
+     * @param maxBurstBytes
+     */
+    public LimitedBandwidthOutputStream( OutputStream out
+                                       , BandwidthLimiter[] _limiters
+                                       , int maxBurstBytes)
+    {
+        super(out);
+        
+        assert _limiters != null;
+        
+        if (maxBurstBytes > 0)
+            burstSize = maxBurstBytes;
+        else
+            throw new IllegalArgumentException
+                ("Maximum burst size is negative or zero ("+maxBurstBytes+")!");
+        
+        limiters = _limiters.clone();
+        bandwidth = 0;
+        initTimeMillis = nextTimeMillis = 0;
+        totalBytes = 0;
+    }
 
     
 
@@ -112,6 +141,12 @@ public class LimitedBandwidthOutputStream extends FilterOutputStream
     {
         assert bytes > 0;
         
+        if (limiters != null) {
+            for (BandwidthLimiter limiter : limiters)
+                limiter.acquire(bytes);
+            return;
+        }
+        
         if (System.currentTimeMillis() < nextTimeMillis)
             try {
                 Thread.sleep(nextTimeMillis - System.currentTimeMillis());
@@ -133,4 +168,5 @@ public class LimitedBandwidthOutputStream extends FilterOutputStream
     protected long initTimeMillis;
     protected long nextTimeMillis;
     protected long totalBytes;
+    protected BandwidthLimiter[] limiters;
 }
@@ -0,0 +1,181 @@
+/**
+ *
+ */
+package x.java.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * A file Output Stream leaving holes instead of the all-zero blocks: the
+ * zero blocks (aligned to the file offsets) are skipped over by seeking, and
+ * the file is extended to its full length upon {@link #close()}. On a file
+ * system supporting sparse files they take no disk space then.
+ *
+ * @note The file is truncated upon opening (just like a
+ * {@link java.io.FileOutputStream}).
+ */
+public class SparseOutputStream extends OutputStream
+{
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+
+    public SparseOutputStream(File file) throws IOException
+    {
+        this(file, DEFAULT_BLOCK_SIZE);
+    }
+
+    public SparseOutputStream(File file, int _blockSize) throws IOException
+    {
+        if (_blockSize <= 0)
+            throw new IllegalArgumentException
+                ("Block size is negative or zero (" + _blockSize + ")!");
+
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+
+        blockSize = _blockSize;
+        block = new byte[blockSize];
+        count = 0;
+        position = 0;
+        holeBytes = 0;
+    }
+
+
+    /**
+     * Skips the bytes leaving a hole (as if zeros were written).
+     */
+    public void skip(long bytes) throws IOException
+    {
+        assert bytes >= 0;
+
+        check();
+
+        // Complete the current block with zeros first
+        while (bytes > 0 && count > 0) {
+            block[count++] = 0;
+            bytes--;
+            if (count == blockSize)
+                writeBlock();
+        }
+
+        long blocks = bytes / blockSize;
+        position += blocks * blockSize;
+        holeBytes += blocks * blockSize;
+
+        for (bytes %= blockSize; bytes > 0; bytes--)
+            block[count++] = 0;
+    }
+
+    /**
+     * The number of bytes left as holes so far.
+     */
+    public long getHoleBytes()
+    {
+        return holeBytes;
+    }
+
+    /**
+     * @see java.io.OutputStream#write(int)
+     */
+    @Override
+    public void write(int b) throws IOException
+    {
+        check();
+
+        block[count++] = (byte)b;
+        if (count == blockSize)
+            writeBlock();
+    }
+
+    /**
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        assert b != null && off >= 0 && len >= 0;
+
+        check();
+
+        while (len > 0) {
+            int bytes = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, block, count, bytes);
+            count += bytes;
+            off += bytes;
+            len -= bytes;
+
+            if (count == blockSize)
+                writeBlock();
+        }
+    }
+
+    /**
+     * Writes out the last (partial) block and extends the file to its full
+     * length.
+     *
+     * @see java.io.OutputStream#close()
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (raf == null)
+            return;
+
+        try {
+            if (count > 0) {
+                raf.seek(position);
+                raf.write(block, 0, count);
+                position += count;
+                count = 0;
+            }
+            raf.setLength(position);
+        } finally {
+            raf.close();
+            raf = null;
+        }
+    }
+
+
+    /**
+     * Tells whether the bytes are all zeros.
+     */
+    public static boolean isZero(byte[] b, int off, int len)
+    {
+        for (int end = off + len; off < end; off++)
+            if (b[off] != 0)
+                return false;
+
+        return true;
+    }
+
+
+    protected void check() throws IOException
+    {
+        if (raf == null)
+            throw new IOException("Stream is closed");
+    }
+
+    protected void writeBlock() throws IOException
+    {
+        if (isZero(block, 0, blockSize))
+            holeBytes += blockSize;
+        else {
+            raf.seek(position);
+            raf.write(block, 0, blockSize);
+        }
+
+        position += blockSize;
+        count = 0;
+    }
+
+
+    protected RandomAccessFile raf;
+    protected final int blockSize;
+    protected final byte[] block;
+    protected int count;
+    protected long position;
+    protected long holeBytes;
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package x.java.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream writing everything to several output streams, in the
+ * order given.
+ *
+ * @note A failure of any of the streams fails the whole write (the streams
+ * after it don't get the bytes). Closing closes all of them anyway.
+ */
+public class TeeOutputStream extends OutputStream
+{
+    public TeeOutputStream(OutputStream ... _outs)
+    {
+        assert _outs != null;
+
+        outs = _outs.clone();
+    }
+
+
+    /**
+     * @see java.io.OutputStream#write(int)
+     */
+    @Override
+    public void write(int b) throws IOException
+    {
+        for (OutputStream out : outs)
+            out.write(b);
+    }
+
+    /**
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        for (OutputStream out : outs)
+            out.write(b, off, len);
+    }
+
+    /**
+     * @see java.io.OutputStream#flush()
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        for (OutputStream out : outs)
+            out.flush();
+    }
+
+    /**
+     * Closes all of the streams, throwing the first failure (if any).
+     *
+     * @see java.io.OutputStream#close()
+     */
+    @Override
+    public void close() throws IOException
+    {
+        IOException failure = null;
+
+        for (OutputStream out : outs)
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+
+        if (failure != null)
+            throw failure;
+    }
+
+
+    protected final OutputStream[] outs;
+}
@@ -0,0 +1,290 @@
+/**
+ *
+ */
+package x.java.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A write-behind Filter Output Stream: the bytes written are collected into
+ * buffers (of a bounded pool, reused over and over) and written out by a
+ * sender thread, so the writer waits only when all of the buffers are in
+ * flight.
+ *
+ * A failure of the underlying stream (of any kind, e.g. a runtime exception
+ * of a remote stream's) is reported (as the cause of an {@link IOException})
+ * upon the next {@link #write(int)}, {@link #flush()} or {@link #close()};
+ * the bytes after it are dropped.
+ *
+ * @note The {@link #flush()} waits for everything written so far to be
+ * written out and flushed: that's what a flush is for, after all.
+ * @note It doesn't seem to be mentioned elsewhere explicitly, but any
+ * concurrent work with any stream has to be synchronized externally.
+ */
+public class WriteBehindOutputStream extends FilterOutputStream
+{
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+
+    /**
+     * A piece of work for the sender: some bytes or a flush/close marker
+     */
+    protected static class Chunk
+    {
+        public Chunk(byte[] _data, int _length)
+        {
+            data = _data;
+            length = _length;
+            close = false;
+            done = null;
+        }
+
+        public Chunk(boolean _close)
+        {
+            data = null;
+            length = 0;
+            close = _close;
+            done = new CountDownLatch(1);
+        }
+
+
+        public final byte[] data;
+        public final int length;
+        public final boolean close;
+        public final CountDownLatch done;
+    }
+
+
+    /**
+     * Creates a write-behind stream with the default buffer size.
+     *
+     * @param buffers the number of buffers (i.e. how many of them may be in
+     * flight while another one is being filled)
+     */
+    public WriteBehindOutputStream(OutputStream out, int buffers)
+    {
+        this(out, DEFAULT_BUFFER_SIZE, buffers);
+    }
+
+    public WriteBehindOutputStream
+            (OutputStream out, int bufferSize, int buffers)
+    {
+        super(out);
+
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException
+                ("Buffer size is negative or zero (" + bufferSize + ")!");
+        if (buffers <= 0)
+            throw new IllegalArgumentException
+                ("Buffer count is negative or zero (" + buffers + ")!");
+
+        free = new ArrayBlockingQueue<byte[]>(buffers);
+        for (int i = 0; i < buffers; i++)
+            free.add(new byte[bufferSize]);
+
+        queue = new LinkedBlockingQueue<Chunk>();
+        buffer = null;
+        count = 0;
+        failure = null;
+        closed = false;
+
+        sender = new Thread("WriteBehindOutputStream sender") {
+            @Override public void run() {
+                send();
+            }
+        };
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+
+    /**
+     * @see java.io.FilterOutputStream#write(int)
+     */
+    @Override
+    public void write(int b) throws IOException
+    {
+        check();
+
+        if (buffer == null)
+            buffer = take();
+
+        buffer[count++] = (byte)b;
+
+        if (count == buffer.length)
+            enqueue();
+    }
+
+    /**
+     * @see java.io.FilterOutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        assert b != null && off >= 0 && len >= 0;
+
+        check();
+
+        while (len > 0) {
+            if (buffer == null)
+                buffer = take();
+
+            int bytes = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, bytes);
+            count += bytes;
+            off += bytes;
+            len -= bytes;
+
+            if (count == buffer.length)
+                enqueue();
+        }
+    }
+
+    /**
+     * @see java.io.FilterOutputStream#write(byte[])
+     */
+    @Override
+    public void write(byte[] b) throws IOException
+    {
+        assert b != null;
+
+        write(b, 0, b.length);
+    }
+
+    /**
+     * Waits for everything written so far to be written out and flushed.
+     *
+     * @see java.io.FilterOutputStream#flush()
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        check();
+
+        if (count > 0)
+            enqueue();
+
+        await(new Chunk(false));
+        check();
+    }
+
+    /**
+     * Waits for everything written so far to be written out and closes the
+     * underlying stream.
+     *
+     * @see java.io.FilterOutputStream#close()
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+            return;
+        closed = true;
+
+        if (count > 0)
+            enqueue();
+
+        await(new Chunk(true));
+        checkFailure();
+    }
+
+
+    protected void check() throws IOException
+    {
+        checkFailure();
+
+        if (closed)
+            throw new IOException("Stream is closed");
+    }
+
+    protected void checkFailure() throws IOException
+    {
+        Throwable failure_ = failure;
+
+        if (failure_ != null)
+            throw new IOException("Write-behind failed", failure_);
+    }
+
+    protected byte[] take() throws IOException
+    {
+        try {
+            return free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing");
+        }
+    }
+
+    protected void enqueue()
+    {
+        queue.add(new Chunk(buffer, count));
+        buffer = null;
+        count = 0;
+    }
+
+    protected void await(Chunk marker) throws IOException
+    {
+        queue.add(marker);
+
+        try {
+            marker.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing");
+        }
+    }
+
+    /**
+     * The sender thread's loop: going on after a failure (just dropping the
+     * bytes) for the buffers to be released and the markers counted down
+     * until the stream is closed.
+     */
+    protected void send()
+    {
+        while (true) {
+            Chunk chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                if (chunk.data != null) {
+                    if (failure == null)
+                        out.write(chunk.data, 0, chunk.length);
+                } else if (chunk.close)
+                    out.close();
+                else if (failure == null)
+                    out.flush();
+            } catch (Throwable e) {
+                if (failure == null)
+                    failure = e;
+            } finally {
+                if (chunk.data != null)
+                    free.add(chunk.data);
+                if (chunk.done != null)
+                    chunk.done.countDown();
+            }
+
+            if (chunk.close)
+                return;
+        }
+    }
+
+
+    protected final BlockingQueue<byte[]> free;
+    protected final BlockingQueue<Chunk> queue;
+    protected final Thread sender;
+    protected byte[] buffer;
+    protected int count;
+    protected volatile Throwable failure;
+    protected boolean closed;
+}
@@ -0,0 +1,167 @@
+/**
+ *
+ */
+package x.java.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A Filter Input Stream decoding the underlying stream encoded by
+ * {@link ZeroBlockEncodingInputStream}. The zero bytes are either read as
+ * such or (better) copied as holes to a {@link SparseOutputStream} (see
+ * {@link #copyTo(SparseOutputStream)}).
+ */
+public class ZeroBlockDecodingInputStream extends FilterInputStream
+{
+    public ZeroBlockDecodingInputStream(InputStream in)
+    {
+        super(new DataInputStream(in));
+
+        zeros = 0;
+        length = 0;
+    }
+
+
+    /**
+     * Copies the rest of the stream to the sparse stream (the zeros as
+     * holes).
+     *
+     * @return the number of bytes copied (holes included)
+     */
+    public long copyTo(SparseOutputStream out) throws IOException
+    {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+
+        while (zeros > 0 || length > 0 || next()) {
+            if (zeros > 0) {
+                out.skip(zeros);
+                total += zeros;
+                zeros = 0;
+            } else {
+                int bytes = read(buffer, 0, buffer.length);
+                out.write(buffer, 0, bytes);
+                total += bytes;
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * @see java.io.FilterInputStream#read()
+     */
+    @Override
+    public int read() throws IOException
+    {
+        byte[] b = new byte[1];
+
+        return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+    }
+
+    /**
+     * @see java.io.FilterInputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        assert b != null && off >= 0 && len >= 0;
+
+        if (len == 0)
+            return 0;
+        if (zeros == 0 && length == 0 && !next())
+            return -1;
+
+        if (zeros > 0) {
+            int bytes = (int)Math.min(len, zeros);
+            Arrays.fill(b, off, off + bytes, (byte)0);
+            zeros -= bytes;
+            return bytes;
+        }
+
+        int bytes = in.read(b, off, Math.min(len, length));
+        if (bytes == -1)
+            throw new EOFException("Zero-block encoded stream is truncated");
+        length -= bytes;
+
+        return bytes;
+    }
+
+    /**
+     * @see java.io.FilterInputStream#skip(long)
+     */
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long skipped = 0;
+
+        while (skipped < n && (zeros > 0 || length > 0 || next())) {
+            long bytes = Math.min(n - skipped, (zeros > 0) ? zeros : length);
+
+            if (zeros > 0)
+                zeros -= bytes;
+            else {
+                bytes = in.skip(bytes);
+                if (bytes <= 0)
+                    throw new EOFException
+                        ("Zero-block encoded stream is truncated");
+                length -= bytes;
+            }
+            skipped += bytes;
+        }
+
+        return skipped;
+    }
+
+    /**
+     * @see java.io.FilterInputStream#available()
+     */
+    @Override
+    public int available() throws IOException
+    {
+        return (int)Math.min(Integer.MAX_VALUE, zeros + length);
+    }
+
+    /**
+     * @see java.io.FilterInputStream#markSupported()
+     */
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+
+    /**
+     * Reads the next record's header in.
+     *
+     * @return false at the end
+     */
+    protected boolean next() throws IOException
+    {
+        int first = in.read();
+        if (first == -1)
+            return false;
+
+        DataInputStream dis = (DataInputStream)in;
+        long zeros_ = first;
+        for (int i = 1; i < 8; i++)
+            zeros_ = (zeros_ << 8) | dis.readUnsignedByte();
+        zeros = zeros_;
+        length = dis.readInt();
+
+        if (zeros < 0 || length < 0)
+            throw new IOException("Zero-block encoded stream is corrupt");
+
+        return true;
+    }
+
+
+    protected long zeros;
+    protected int length;
+}
@@ -0,0 +1,207 @@
+/**
+ *
+ */
+package x.java.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A Filter Input Stream encoding the all-zero blocks (aligned to the
+ * underlying stream's offsets) of the underlying stream compactly: it reads
+ * as a sequence of records, each one being a number of zero bytes (a long)
+ * and a number of the data bytes (an int) followed by the data bytes.
+ * {@link ZeroBlockDecodingInputStream} decodes it.
+ *
+ * The holes of a sparse file read as zeros, so they are encoded this way as
+ * well (there is no portable way to find them out directly).
+ */
+public class ZeroBlockEncodingInputStream extends FilterInputStream
+{
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    /**
+     * The size of a record header
+     */
+    public static final int HEADER_SIZE = 8 + 4;
+
+
+    public ZeroBlockEncodingInputStream(InputStream in)
+    {
+        this(in, DEFAULT_BLOCK_SIZE, 16);
+    }
+
+    /**
+     * @param maxBlocks the maximum number of data blocks in a record
+     */
+    public ZeroBlockEncodingInputStream
+            (InputStream in, int _blockSize, int maxBlocks)
+    {
+        super(in);
+
+        if (_blockSize <= 0)
+            throw new IllegalArgumentException
+                ("Block size is negative or zero (" + _blockSize + ")!");
+        if (maxBlocks <= 0)
+            throw new IllegalArgumentException
+                ("Block count is negative or zero (" + maxBlocks + ")!");
+
+        blockSize = _blockSize;
+        record = new byte[HEADER_SIZE + blockSize * maxBlocks];
+        pos = 0;
+        limit = 0;
+        carriedZeros = 0;
+        eof = false;
+        zeroBytes = 0;
+    }
+
+
+    /**
+     * The number of zero bytes encoded compactly so far.
+     */
+    public long getZeroBytes()
+    {
+        return zeroBytes;
+    }
+
+    /**
+     * @see java.io.FilterInputStream#read()
+     */
+    @Override
+    public int read() throws IOException
+    {
+        if (pos == limit && !fill())
+            return -1;
+
+        return record[pos++] & 0xff;
+    }
+
+    /**
+     * @see java.io.FilterInputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        assert b != null && off >= 0 && len >= 0;
+
+        if (len == 0)
+            return 0;
+        if (pos == limit && !fill())
+            return -1;
+
+        int bytes = Math.min(len, limit - pos);
+        System.arraycopy(record, pos, b, off, bytes);
+        pos += bytes;
+
+        return bytes;
+    }
+
+    /**
+     * @see java.io.FilterInputStream#skip(long)
+     */
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long skipped = 0;
+
+        while (skipped < n && (pos < limit || fill())) {
+            int bytes = (int)Math.min(n - skipped, limit - pos);
+            pos += bytes;
+            skipped += bytes;
+        }
+
+        return skipped;
+    }
+
+    /**
+     * @see java.io.FilterInputStream#available()
+     */
+    @Override
+    public int available() throws IOException
+    {
+        return limit - pos;
+    }
+
+    /**
+     * @see java.io.FilterInputStream#markSupported()
+     */
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+
+    /**
+     * Reads the next record in.
+     *
+     * @return false at the end
+     */
+    protected boolean fill() throws IOException
+    {
+        long zeros = carriedZeros;
+        int length = 0;
+
+        carriedZeros = 0;
+
+        while (!eof && HEADER_SIZE + length < record.length) {
+            int bytes = readBlock(HEADER_SIZE + length);
+
+            if (bytes == 0)
+                eof = true;
+            else if (!SparseOutputStream.isZero
+                        (record, HEADER_SIZE + length, bytes))
+                length += bytes;
+            else if (length == 0)
+                zeros += bytes;
+            else {
+                // Ends the data; the zeros go with the next record
+                carriedZeros = bytes;
+                break;
+            }
+        }
+
+        if (zeros == 0 && length == 0)
+            return false;
+
+        for (int i = 0; i < 8; i++)
+            record[i] = (byte)(zeros >>> (56 - 8*i));
+        for (int i = 0; i < 4; i++)
+            record[8 + i] = (byte)(length >>> (24 - 8*i));
+
+        zeroBytes += zeros;
+        pos = 0;
+        limit = HEADER_SIZE + length;
+
+        return true;
+    }
+
+    /**
+     * Reads a whole block in (unless at the end).
+     *
+     * @return the number of bytes read, 0 at the end
+     */
+    protected int readBlock(int off) throws IOException
+    {
+        int count = 0;
+
+        while (count < blockSize) {
+            int bytes = in.read(record, off + count, blockSize - count);
+            if (bytes == -1)
+                break;
+            count += bytes;
+        }
+
+        return count;
+    }
+
+
+    protected final int blockSize;
+    protected final byte[] record;
+    protected int pos;
+    protected int limit;
+    protected long carriedZeros;
+    protected boolean eof;
+    protected long zeroBytes;
+}
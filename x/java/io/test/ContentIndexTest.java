@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package x.java.io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+import x.java.io.ContentHash;
+import x.java.io.ContentIndex;
+
+/**
+ *
+ */
+public class ContentIndexTest
+{
+    @Test
+    public void testParallelHash() throws IOException
+    {
+        byte[] data = new byte[3 * ContentHash.CHUNK_SIZE + 12345];
+        new Random(1).nextBytes(data);
+        File file = createFile(data);
+
+        assertEquals( ContentHash.of(file)
+                    , ContentHash.of(new ByteArrayInputStream(data)));
+
+        data[data.length - 1]++;
+        assertFalse(ContentHash.of(file).equals
+                        (ContentHash.of(new ByteArrayInputStream(data))));
+    }
+
+    @Test
+    public void testFindAndReload() throws IOException
+    {
+        File store = File.createTempFile("index", ".txt");
+        store.deleteOnExit();
+        File a = createFile("some content".getBytes());
+        File b = createFile("some content".getBytes());
+
+        ContentIndex index = new ContentIndex(store);
+        String hash = index.add(a);
+        index.add(b);
+        assertEquals(index.find(hash, 12), a);
+        index.remove(a);
+        assertEquals(index.find(hash, 12), b);
+        assertNull(index.find(hash, 13));
+        index.close();
+
+        index = new ContentIndex(store);
+        assertEquals(index.size(), 1);
+        assertEquals(index.find(hash, 12), b);
+
+        // Stale entries are dropped
+        writeFile(b, "other content".getBytes());
+        assertNull(index.find(hash, 12));
+        assertEquals(index.size(), 0);
+        index.close();
+    }
+
+
+    protected static File createFile(byte[] data) throws IOException
+    {
+        File file = File.createTempFile("content", ".bin");
+        file.deleteOnExit();
+        writeFile(file, data);
+
+        return file.getAbsoluteFile();
+    }
+
+    protected static void writeFile(File file, byte[] data) throws IOException
+    {
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(data);
+        fos.close();
+    }
+}
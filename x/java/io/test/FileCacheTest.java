@@ -0,0 +1,134 @@
+/**
+ *
+ */
+package x.java.io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+import x.java.io.FileCache;
+
+/**
+ *
+ */
+public class FileCacheTest
+{
+    @Test
+    public void testHitsAndInvalidation() throws IOException
+    {
+        FileCache cache = new FileCache(1024, 4096, 1 << 20);
+        File small = createFile(100, 'a');
+        File large = createFile(10000, 'b');
+
+        assertContent(cache.open(small), 100, 'a');
+        assertContent(cache.open(small), 100, 'a');
+        assertContent(cache.open(large), 10000, 'b');
+        assertContent(cache.open(large), 10000, 'b');
+
+        assertEquals(cache.getMisses(), 2);
+        assertEquals(cache.getHits(), 2);
+        assertEquals(cache.getHeapBytes(), 100);
+        assertEquals(cache.getMappedBytes(), 10000);
+
+        writeFile(small, 200, 'c');
+        assertContent(cache.open(small), 200, 'c');
+        assertEquals(cache.getInvalidations(), 1);
+        assertEquals(cache.getHeapBytes(), 200);
+
+        cache.invalidate(large);
+        assertEquals(cache.getInvalidations(), 2);
+        assertEquals(cache.getMappedBytes(), 0);
+
+        small.delete();
+        large.delete();
+    }
+
+    @Test
+    public void testEviction() throws IOException
+    {
+        FileCache cache = new FileCache(1024, 2048, 0);
+        File[] files = new File[3];
+
+        for (int i = 0; i < files.length; i++) {
+            files[i] = createFile(1000, (char)('a' + i));
+            assertContent(cache.open(files[i]), 1000, (char)('a' + i));
+        }
+
+        assertEquals(cache.getSize(), 2);
+        assertEquals(cache.getEvictions(), 1);
+        assertEquals(cache.getHeapBytes(), 2000);
+
+        // The first one is evicted, the last two are still there
+        assertContent(cache.open(files[2]), 1000, 'c');
+        assertContent(cache.open(files[1]), 1000, 'b');
+        assertEquals(cache.getHits(), 2);
+
+        // Too large to be cached at all
+        File large = createFile(5000, 'z');
+        assertContent(cache.open(large), 5000, 'z');
+        assertEquals(cache.getSize(), 2);
+
+        for (File file : files)
+            file.delete();
+        large.delete();
+    }
+
+    @Test
+    public void testNotMappable() throws IOException
+    {
+        FileCache cache = new FileCache(0, 0, Long.MAX_VALUE);
+        File huge = File.createTempFile("cache", ".bin");
+
+        // Sparse, so it takes no disk space (where supported)
+        RandomAccessFile raf = new RandomAccessFile(huge, "rw");
+        raf.setLength(Integer.MAX_VALUE + 4096L);
+        raf.close();
+
+        InputStream is = cache.open(huge);
+        assertEquals(is.read(), 0);
+        is.close();
+        assertEquals(cache.getSize(), 0);
+        assertEquals(cache.getMappedBytes(), 0);
+
+        huge.delete();
+    }
+
+
+    protected static File createFile(int size, char ch) throws IOException
+    {
+        File file = File.createTempFile("cache", ".bin");
+        writeFile(file, size, ch);
+
+        return file;
+    }
+
+    protected static void writeFile(File file, int size, char ch)
+            throws IOException
+    {
+        FileOutputStream fos = new FileOutputStream(file);
+        for (int i = 0; i < size; i++)
+            fos.write(ch);
+        fos.close();
+    }
+
+    protected static void assertContent(InputStream is, int size, char ch)
+            throws IOException
+    {
+        int counter = 0;
+        int b = is.read();
+        while (b != -1) {
+            assertEquals(b, ch);
+            counter++;
+            b = is.read();
+        }
+        is.close();
+        assertEquals(counter, size);
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ *
+ */
+package x.java.io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import x.java.io.FollowInputStream;
+
+/**
+ *
+ */
+public class FollowInputStreamTest
+{
+    @Test
+    public void testGrowth() throws IOException
+    {
+        File file = File.createTempFile("follow", ".log");
+        append(file, "first\n", false);
+
+        FollowInputStream fis = new FollowInputStream(file);
+        assertEquals(readLine(fis), "first");
+
+        appendLater(file, "second\n", true, 200);
+        long start = System.currentTimeMillis();
+        assertEquals(readLine(fis), "second");
+
+        long time = System.currentTimeMillis() - start;
+        if (time > 1000)
+            fail("Time is " + time + "ms, should be ~200");
+
+        fis.close();
+        file.delete();
+    }
+
+    @Test
+    public void testTruncationAndRotation() throws IOException
+    {
+        File file = File.createTempFile("follow", ".log");
+        append(file, "some long first line\n", false);
+
+        FollowInputStream fis = new FollowInputStream(file, -1, 100);
+        assertEquals(fis.getPosition(), file.length());
+
+        // Truncated
+        appendLater(file, "short\n", false, 100);
+        assertEquals(readLine(fis), "short");
+
+        // Rotated (with the rest of the old one written just before)
+        append(file, "old\n", true);
+        File rotated = new File(file.getPath() + ".1");
+        assertTrue(file.renameTo(rotated));
+        appendLater(file, "new\n", false, 100);
+
+        assertEquals(readLine(fis), "old");
+        assertEquals(readLine(fis), "new");
+
+        fis.close();
+        rotated.delete();
+        file.delete();
+    }
+
+    @Test
+    public void testClose() throws Exception
+    {
+        File file = File.createTempFile("follow", ".log");
+        final FollowInputStream fis = new FollowInputStream(file);
+
+        new Thread() {
+            @Override public void run() {
+                try {
+                    Thread.sleep(200);
+                    fis.close();
+                } catch (Exception e) {
+                    // The read below will hang then
+                }
+            }
+        }.start();
+
+        assertEquals(fis.read(), -1);
+        file.delete();
+    }
+
+    @Test
+    public void testMany() throws IOException
+    {
+        // More than the inotify instances allowed per user by default
+        FollowInputStream[] fis = new FollowInputStream[200];
+        File[] files = new File[fis.length];
+
+        for (int i = 0; i < fis.length; i++) {
+            files[i] = File.createTempFile("follow", ".log");
+            fis[i] = new FollowInputStream(files[i], 0, 5000);
+        }
+
+        appendLater(files[fis.length - 1], "last\n", true, 100);
+        long start = System.currentTimeMillis();
+        assertEquals(readLine(fis[fis.length - 1]), "last");
+
+        long time = System.currentTimeMillis() - start;
+        if (time > 2000)
+            fail("Time is " + time + "ms, should be ~100");
+
+        for (int i = 0; i < fis.length; i++) {
+            fis[i].close();
+            files[i].delete();
+        }
+    }
+
+
+    protected static void append(File file, String s, boolean append)
+            throws IOException
+    {
+        FileOutputStream fos = new FileOutputStream(file, append);
+        fos.write(s.getBytes("8859_1"));
+        fos.close();
+    }
+
+    protected static void appendLater
+        (final File file, final String s, final boolean append, final long ms)
+    {
+        new Thread() {
+            @Override public void run() {
+                try {
+                    Thread.sleep(ms);
+                    append(file, s, append);
+                } catch (Exception e) {
+                    // The test will hang then
+                }
+            }
+        }.start();
+    }
+
+    protected static String readLine(FollowInputStream fis) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for (int ch = fis.read(); ch != '\n'; ch = fis.read())
+            sb.append((char)ch);
+
+        return sb.toString();
+    }
+}
@@ -11,6 +11,7 @@ import java.io.OutputStream;
 
 import org.junit.Test;
 
+import x.java.io.BandwidthLimiter;
 import x.java.io.LimitedBandwidthInputStream;
 import x.java.io.LimitedBandwidthOutputStream;
 
@@ -75,4 +76,84 @@ public class LimitedBandwidthStreamTest
         if (time < 9000 || time > 11000)
             fail("Time is " + time + "ms, should be ~10000");
     }
+    
+    @Test
+    public void testSharedLimiter() throws Exception
+    {
+        final BandwidthLimiter limiter = new BandwidthLimiter(100, 1000);
+        Thread[] threads = new Thread[2];
+        
+        long start = System.currentTimeMillis();
+        
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override public void run() {
+                    try {
+                        LimitedBandwidthOutputStream lbos
+                            = new LimitedBandwidthOutputStream
+                                ( new OutputStream() {
+                                    @Override public void write(int b) {
+                                    }
+                                  }
+                                , new BandwidthLimiter[] { limiter }, 1000);
+                        for (int counter = 0; counter < 100000; counter++)
+                            lbos.write(counter);
+                        lbos.close();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        
+        long time = System.currentTimeMillis() - start;
+        
+        assertEquals(limiter.getTotalBytes(), 200000);
+        if (time < 1800 || time > 2200)
+            fail("Time is " + time + "ms, should be ~2000");
+    }
+    
+    @Test
+    public void testShortReads() throws IOException
+    {
+        BandwidthLimiter limiter = new BandwidthLimiter(1, 1000);
+        LimitedBandwidthInputStream lbis
+            = new LimitedBandwidthInputStream
+                ( new InputStream() {
+                    @Override public int read() throws IOException {
+                        return (counter < 2000) ? counter++ & 0xff : -1;
+                    }
+                    @Override public int read(byte[] b, int off, int len)
+                            throws IOException {
+                        // A byte at a time, whatever is asked for
+                        int ch = read();
+                        if (ch == -1)
+                            return -1;
+                        b[off] = (byte)ch;
+                        return 1;
+                    }
+                    int counter = 0;
+                  }
+                , new BandwidthLimiter[] { limiter }, 1000);
+        
+        long start = System.currentTimeMillis();
+        byte[] b = new byte[4096];
+        int total = 0;
+        for (int bytes = lbis.read(b); bytes != -1; bytes = lbis.read(b)) {
+            assertEquals(bytes, 1);
+            total += bytes;
+        }
+        lbis.close();
+        
+        long time = System.currentTimeMillis() - start;
+        
+        // Just the bytes read are charged (the first 1000 of the burst)
+        assertEquals(total, 2000);
+        assertEquals(limiter.getTotalBytes(), 2000);
+        if (time < 800 || time > 1500)
+            fail("Time is " + time + "ms, should be ~1000");
+    }
 }
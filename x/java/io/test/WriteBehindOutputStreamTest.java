@@ -0,0 +1,134 @@
+/**
+ * 
+ */
+package x.java.io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+import x.java.io.WriteBehindOutputStream;
+
+/**
+ *
+ */
+public class WriteBehindOutputStreamTest
+{
+    @Test
+    public void testWriteBehind() throws IOException
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        WriteBehindOutputStream wbos
+            = new WriteBehindOutputStream
+                (new OutputStream() {
+                    @Override public void write(int b) {
+                        baos.write(b);
+                    }
+                    @Override public void write(byte[] b, int off, int len) {
+                        try {
+                            Thread.sleep(50);
+                        } catch (InterruptedException e) {
+                            // Just faster then
+                        }
+                        baos.write(b, off, len);
+                    }
+                }
+                , 1000, 4);
+
+        long start = System.currentTimeMillis();
+
+        for (int counter = 0; counter < 3500; counter++)
+            wbos.write('0' + counter % 10);
+
+        // Three buffers are in flight, the fourth one is being filled
+        long time = System.currentTimeMillis() - start;
+        if (time > 100)
+            fail("Time is " + time + "ms, should be ~0 (not ~150)");
+
+        wbos.flush();
+        assertEquals(baos.size(), 3500);
+
+        byte[] b = new byte[2500];
+        for (int counter = 0; counter < b.length; counter++)
+            b[counter] = (byte)('0' + (3500 + counter) % 10);
+        wbos.write(b);
+        wbos.close();
+
+        byte[] written = baos.toByteArray();
+        assertEquals(written.length, 6000);
+        for (int counter = 0; counter < written.length; counter++)
+            assertEquals(written[counter], '0' + counter % 10);
+    }
+
+    @Test
+    public void testFailure() throws IOException
+    {
+        WriteBehindOutputStream wbos
+            = new WriteBehindOutputStream
+                (new OutputStream() {
+                    @Override public void write(int b) throws IOException {
+                        throw new IOException("Disk is full");
+                    }
+                }
+                , 100, 2);
+
+        wbos.write(new byte[100]);
+
+        try {
+            wbos.flush();
+            fail("The failure is not reported");
+        } catch (IOException e) {
+            assertEquals(e.getCause().getMessage(), "Disk is full");
+        }
+
+        try {
+            wbos.write(1);
+            fail("The failure is not reported");
+        } catch (IOException e) {
+            assertEquals(e.getCause().getMessage(), "Disk is full");
+        }
+    }
+
+    @Test
+    public void testRuntimeFailure() throws IOException
+    {
+        WriteBehindOutputStream wbos
+            = new WriteBehindOutputStream
+                (new OutputStream() {
+                    @Override public void write(int b) {
+                        throw new IllegalStateException("Not exported");
+                    }
+                    @Override public void close() {
+                        throw new IllegalStateException("Not exported");
+                    }
+                }
+                , 100, 2);
+
+        // Way more than the buffers: the sender goes on releasing them
+        wbos.write(new byte[100]);
+        try {
+            for (int counter = 0; counter < 10; counter++)
+                wbos.write(new byte[100]);
+        } catch (IOException e) {
+            assertEquals(e.getCause().getMessage(), "Not exported");
+        }
+
+        try {
+            wbos.flush();
+            fail("The failure is not reported");
+        } catch (IOException e) {
+            assertEquals(e.getCause().getMessage(), "Not exported");
+        }
+
+        try {
+            wbos.close();
+            fail("The failure is not reported");
+        } catch (IOException e) {
+            assertEquals(e.getCause().getMessage(), "Not exported");
+        }
+    }
+}
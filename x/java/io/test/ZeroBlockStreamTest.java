@@ -0,0 +1,124 @@
+/**
+ *
+ */
+package x.java.io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import x.java.io.SparseOutputStream;
+import x.java.io.ZeroBlockDecodingInputStream;
+import x.java.io.ZeroBlockEncodingInputStream;
+
+/**
+ *
+ */
+public class ZeroBlockStreamTest
+{
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        byte[] data = createData();
+
+        ZeroBlockEncodingInputStream encoder
+            = new ZeroBlockEncodingInputStream(new ByteArrayInputStream(data));
+        byte[] encoded = readAll(encoder);
+
+        assertEquals(encoder.getZeroBytes(), 1024 * 1024 + 4096);
+        assertTrue(encoded.length < 20000);
+
+        byte[] decoded = readAll(new ZeroBlockDecodingInputStream
+                                    (new ByteArrayInputStream(encoded)));
+
+        assertTrue(Arrays.equals(decoded, data));
+    }
+
+    @Test
+    public void testEmpty() throws IOException
+    {
+        byte[] encoded = readAll(new ZeroBlockEncodingInputStream
+                                    (new ByteArrayInputStream(new byte[0])));
+
+        assertEquals(encoded.length, 0);
+        assertEquals(readAll(new ZeroBlockDecodingInputStream
+                        (new ByteArrayInputStream(encoded))).length, 0);
+    }
+
+    @Test
+    public void testSparseCopy() throws IOException
+    {
+        byte[] data = createData();
+        File file = File.createTempFile("sparse", ".bin");
+        file.deleteOnExit();
+
+        SparseOutputStream out = new SparseOutputStream(file);
+        long length = new ZeroBlockDecodingInputStream
+                        (new ZeroBlockEncodingInputStream
+                            (new ByteArrayInputStream(data))).copyTo(out);
+        out.close();
+
+        assertEquals(length, data.length);
+        assertEquals(out.getHoleBytes(), 1024 * 1024 + 4096);
+        assertEquals(file.length(), data.length);
+        assertTrue(Arrays.equals(readAll(new FileInputStream(file)), data));
+    }
+
+    @Test
+    public void testTrailingHole() throws IOException
+    {
+        File file = File.createTempFile("sparse", ".bin");
+        file.deleteOnExit();
+
+        SparseOutputStream out = new SparseOutputStream(file, 4096);
+        out.write(1);
+        out.skip(100000);
+        out.close();
+
+        byte[] data = readAll(new FileInputStream(file));
+        assertEquals(data.length, 100001);
+        assertEquals(data[0], 1);
+        assertEquals(data[100000], 0);
+    }
+
+
+    /**
+     * Some data, a large hole, a partial zero block, more data, a zero block
+     * and a partial data block at the end
+     */
+    protected static byte[] createData()
+    {
+        byte[] data = new byte[8192 + 1024 * 1024 + 4096 + 100 + 4096 + 77];
+        Random random = new Random(1);
+        byte[] chunk = new byte[8192];
+
+        random.nextBytes(chunk);
+        System.arraycopy(chunk, 0, data, 0, 8192);
+        random.nextBytes(chunk);
+        System.arraycopy(chunk, 0, data, 8192 + 1024 * 1024 + 4096, 100);
+        System.arraycopy(chunk, 100, data, data.length - 77, 77);
+
+        return data;
+    }
+
+    protected static byte[] readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[5000];
+
+        for (int bytes = in.read(buffer); bytes != -1; bytes = in.read(buffer))
+            baos.write(buffer, 0, bytes);
+        in.close();
+
+        return baos.toByteArray();
+    }
+}
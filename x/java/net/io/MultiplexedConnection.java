@@ -0,0 +1,688 @@
+/**
+ *
+ */
+package x.java.net.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadPendingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single socket connection carrying many logical streams (channels) as
+ * frames. Every channel is a bidirectional pair of streams, flow-controlled
+ * with its own credit window in each direction: a sender never sends more
+ * than the receiver has room for, so the frames of one stalled channel never
+ * get in the way of the others.
+ *
+ * Channels are opened by one side only (the one without a {@link Handler}),
+ * with an opaque request that the other side's {@link Handler} gets.
+ *
+ * A frame is: type (byte), channel id (int), payload length (int), payload.
+ *
+ * @note Closing a channel's output stream half-closes it (the other side's
+ * input ends), {@link Channel#reset(String)} aborts both directions and makes
+ * the other side's streams throw an {@link IOException} with the message.
+ * A channel is forgotten once both directions are closed or it is reset.
+ * @note A channel whose other side sends more than its window allows is
+ * reset (the frames are not buffered beyond the window).
+ */
+public class MultiplexedConnection implements Closeable
+{
+    /**
+     * Gets the channels opened by the other side.
+     */
+    public interface Handler
+    {
+        /**
+         * Called on the connection's reading thread: must not block.
+         */
+        void opened(Channel channel, byte[] request);
+    }
+
+
+    public static final int DEFAULT_WINDOW = 64 * 1024;
+    public static final int MAX_FRAME = 16 * 1024;
+
+    protected static final byte OPEN = 1;
+    protected static final byte DATA = 2;
+    protected static final byte CREDIT = 3;
+    protected static final byte CLOSE = 4;
+    protected static final byte RESET = 5;
+
+
+    /**
+     * A logical stream pair within the connection
+     */
+    public class Channel
+    {
+        protected Channel(int _id)
+        {
+            id = _id;
+            inbound = new LinkedList<byte[]>();
+            headOffset = 0;
+            consumed = 0;
+            credit = window;
+            room = window;
+            inClosed = outClosed = false;
+            failure = null;
+            pending = null;
+            pendingDst = null;
+            pendingExecutor = null;
+
+            input = new InputStream() {
+                @Override public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+                }
+                @Override public int read(byte[] b, int off, int len)
+                        throws IOException {
+                    return Channel.this.read(b, off, len);
+                }
+                @Override public int available() {
+                    return Channel.this.available();
+                }
+                @Override public void close() throws IOException {
+                    closeInput();
+                }
+            };
+
+            output = new OutputStream() {
+                @Override public void write(int b) throws IOException {
+                    write(new byte[] { (byte)b }, 0, 1);
+                }
+                @Override public void write(byte[] b, int off, int len)
+                        throws IOException {
+                    Channel.this.write(b, off, len);
+                }
+                @Override public void close() throws IOException {
+                    closeOutput();
+                }
+            };
+        }
+
+
+        public int getId()
+        {
+            return id;
+        }
+
+        public MultiplexedConnection getConnection()
+        {
+            return MultiplexedConnection.this;
+        }
+
+        public InputStream getInputStream()
+        {
+            return input;
+        }
+
+        public OutputStream getOutputStream()
+        {
+            return output;
+        }
+
+        /**
+         * Aborts the channel (in both directions).
+         */
+        public void reset(String message)
+        {
+            synchronized (this) {
+                if (failure != null || (inClosed && outClosed))
+                    return;
+                failure = message;
+                notifyAll();
+            }
+
+            forget(this);
+            completePending();
+
+            try {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                new DataOutputStream(baos).writeUTF(message);
+                byte[] payload = baos.toByteArray();
+                send(RESET, id, payload, 0, payload.length);
+            } catch (IOException e) {
+                // The connection is failing anyway
+            }
+        }
+
+
+        protected synchronized int available()
+        {
+            int bytes = 0;
+
+            for (byte[] chunk : inbound)
+                bytes += chunk.length;
+
+            return bytes - headOffset;
+        }
+
+        protected int read(byte[] b, int off, int len) throws IOException
+        {
+            assert b != null && off >= 0 && len >= 0;
+
+            return read(ByteBuffer.wrap(b, off, len), true);
+        }
+
+        /**
+         * Reads what is there into the buffer.
+         *
+         * @param block whether to wait for something to read (without
+         * waiting, 0 is returned if there is nothing yet)
+         */
+        protected int read(ByteBuffer dst, boolean block) throws IOException
+        {
+            if (!dst.hasRemaining())
+                return 0;
+
+            int bytes = 0;
+            int grant = 0;
+
+            synchronized (this) {
+                try {
+                    while (block && inbound.isEmpty() && !inClosed
+                           && failure == null)
+                        wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading", e);
+                }
+
+                if (failure != null)
+                    throw new IOException(failure);
+
+                while (dst.hasRemaining() && !inbound.isEmpty()) {
+                    byte[] head = inbound.getFirst();
+                    int n = Math.min( dst.remaining()
+                                    , head.length - headOffset);
+
+                    dst.put(head, headOffset, n);
+                    bytes += n;
+                    headOffset += n;
+
+                    if (headOffset == head.length) {
+                        inbound.removeFirst();
+                        headOffset = 0;
+                    }
+                }
+
+                if (bytes == 0)
+                    return inClosed ? -1 : 0;
+
+                consumed += bytes;
+                if (consumed >= window / 2 && !inClosed) {
+                    grant = consumed;
+                    consumed = 0;
+                    room += grant;
+                }
+            }
+
+            if (grant > 0) {
+                byte[] payload = new byte[] { (byte)(grant >>> 24)
+                                            , (byte)(grant >>> 16)
+                                            , (byte)(grant >>> 8)
+                                            , (byte)grant };
+                send(CREDIT, id, payload, 0, payload.length);
+            }
+
+            return bytes;
+        }
+
+        /**
+         * Reads into the buffer as soon as there is something to read,
+         * without blocking any thread meanwhile. Only one such read may be
+         * pending at a time (and it must not be mixed with the blocking
+         * reads of the input stream).
+         *
+         * @param executor where the read is completed (never on the
+         * connection's reading thread)
+         * @return the future number of bytes read, or -1 at the end
+         * @throws ReadPendingException
+         */
+        public CompletableFuture<Integer> readAsync
+                (ByteBuffer dst, Executor executor)
+        {
+            CompletableFuture<Integer> future
+                = new CompletableFuture<Integer>();
+
+            synchronized (this) {
+                if (pending != null)
+                    throw new ReadPendingException();
+
+                if (inbound.isEmpty() && !inClosed && failure == null) {
+                    pending = future;
+                    pendingDst = dst;
+                    pendingExecutor = executor;
+                    return future;
+                }
+            }
+
+            complete(future, dst, executor);
+
+            return future;
+        }
+
+        protected void write(byte[] b, int off, int len) throws IOException
+        {
+            assert b != null && off >= 0 && len >= 0;
+
+            while (len > 0) {
+                int bytes;
+
+                synchronized (this) {
+                    try {
+                        while (credit == 0 && failure == null && !outClosed)
+                            wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while writing", e);
+                    }
+
+                    if (failure != null)
+                        throw new IOException(failure);
+                    if (outClosed)
+                        throw new IOException("Channel output is closed");
+
+                    bytes = Math.min(Math.min(len, credit), MAX_FRAME);
+                    credit -= bytes;
+                }
+
+                send(DATA, id, b, off, bytes);
+
+                off += bytes;
+                len -= bytes;
+            }
+        }
+
+        /**
+         * Closing the input before its end aborts the channel.
+         */
+        protected void closeInput()
+        {
+            boolean atEnd;
+
+            synchronized (this) {
+                atEnd = inClosed && inbound.isEmpty();
+            }
+
+            if (!atEnd)
+                reset("Channel input is closed by the other side");
+        }
+
+        protected void closeOutput() throws IOException
+        {
+            boolean done;
+
+            synchronized (this) {
+                if (outClosed || failure != null)
+                    return;
+                outClosed = true;
+                done = inClosed;
+                notifyAll();
+            }
+
+            send(CLOSE, id, null, 0, 0);
+
+            if (done)
+                forget(this);
+        }
+
+
+        protected void received(byte[] data)
+        {
+            boolean exceeded;
+
+            synchronized (this) {
+                if (failure != null || inClosed)
+                    return;
+
+                exceeded = data.length > room;
+                if (!exceeded) {
+                    room -= data.length;
+                    inbound.add(data);
+                    notifyAll();
+                }
+            }
+
+            if (exceeded)
+                reset("Channel window is exceeded by the other side");
+            else
+                completePending();
+        }
+
+        protected void receivedClose()
+        {
+            boolean done;
+
+            synchronized (this) {
+                inClosed = true;
+                done = outClosed;
+                notifyAll();
+            }
+
+            completePending();
+
+            if (done)
+                forget(this);
+        }
+
+        protected void receivedReset(String message)
+        {
+            synchronized (this) {
+                if (failure == null)
+                    failure = message;
+                notifyAll();
+            }
+
+            completePending();
+        }
+
+        protected void completePending()
+        {
+            CompletableFuture<Integer> future;
+            ByteBuffer dst;
+            Executor executor;
+
+            synchronized (this) {
+                if (pending == null)
+                    return;
+
+                future = pending;
+                dst = pendingDst;
+                executor = pendingExecutor;
+                pending = null;
+                pendingDst = null;
+                pendingExecutor = null;
+            }
+
+            complete(future, dst, executor);
+        }
+
+        protected void complete( final CompletableFuture<Integer> future
+                               , final ByteBuffer dst, Executor executor)
+        {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            future.complete(read(dst, false));
+                        } catch (IOException e) {
+                            future.completeExceptionally(e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        protected synchronized void granted(int bytes)
+        {
+            credit += bytes;
+            notifyAll();
+        }
+
+
+        protected final int id;
+        protected final InputStream input;
+        protected final OutputStream output;
+
+        protected final LinkedList<byte[]> inbound;
+        protected int headOffset;
+        protected int consumed;
+        protected int credit;
+        /**
+         * The bytes the other side may still send (the credit granted it)
+         */
+        protected int room;
+        protected boolean inClosed;
+        protected boolean outClosed;
+        protected String failure;
+
+        protected CompletableFuture<Integer> pending;
+        protected ByteBuffer pendingDst;
+        protected Executor pendingExecutor;
+    }
+
+
+    /**
+     * Creates the connection over the (connected) socket and starts reading
+     * it.
+     *
+     * @param _handler the handler of the channels opened by the other side
+     * (<code>null</code> if this is the side opening them)
+     * @param _window the size of each channel's credit window (must be the
+     * same on both sides)
+     */
+    public MultiplexedConnection(Socket _socket, Handler _handler, int _window)
+            throws IOException
+    {
+        if (_window <= 0)
+            throw new IllegalArgumentException
+                ("Window is negative or zero (" + _window + ")!");
+
+        socket = _socket;
+        socket.setTcpNoDelay(true);
+        handler = _handler;
+        window = _window;
+
+        in = new DataInputStream
+                (new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream
+                (new BufferedOutputStream(socket.getOutputStream()));
+
+        channels = new HashMap<Integer, Channel>();
+        nextId = new AtomicInteger();
+        closed = false;
+
+        reader = new Thread("MultiplexedConnection to "
+                            + socket.getRemoteSocketAddress()) {
+            @Override public void run() {
+                receive();
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+
+    /**
+     * Opens a new channel, sending the request to the other side's
+     * {@link Handler}. It doesn't wait for any response: the failures are
+     * reported through the channel's streams.
+     */
+    public Channel open(byte[] request) throws IOException
+    {
+        Channel channel = new Channel(nextId.incrementAndGet());
+
+        synchronized (channels) {
+            if (closed)
+                throw new IOException("Connection is closed");
+            channels.put(channel.id, channel);
+        }
+
+        send(OPEN, channel.id, request, 0, request.length);
+
+        return channel;
+    }
+
+    /**
+     * The address of the other side's host.
+     */
+    public String getRemoteHost()
+    {
+        return socket.getInetAddress().getHostAddress();
+    }
+
+    public boolean isOpen()
+    {
+        synchronized (channels) {
+            return !closed;
+        }
+    }
+
+    public int getChannelCount()
+    {
+        synchronized (channels) {
+            return channels.size();
+        }
+    }
+
+    /**
+     * Closes the connection, resetting all of its channels.
+     */
+    public void close() throws IOException
+    {
+        fail("Connection is closed");
+    }
+
+
+    protected void send(byte type, int id, byte[] b, int off, int len)
+            throws IOException
+    {
+        try {
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(id);
+                out.writeInt(len);
+                if (len > 0)
+                    out.write(b, off, len);
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail("Connection is lost: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    protected void receive()
+    {
+        try {
+            while (true) {
+                byte type = in.readByte();
+                int id = in.readInt();
+                int len = in.readInt();
+
+                if (len < 0 || len > MAX_FRAME)
+                    throw new IOException("Illegal frame length " + len);
+
+                byte[] payload = new byte[len];
+                in.readFully(payload);
+
+                dispatch(type, id, payload);
+            }
+        } catch (EOFException e) {
+            fail("Connection is closed by the other side");
+        } catch (IOException e) {
+            fail("Connection is lost: " + e.getMessage());
+        }
+    }
+
+    protected void dispatch(byte type, int id, byte[] payload)
+            throws IOException
+    {
+        Channel channel;
+
+        synchronized (channels) {
+            channel = channels.get(id);
+
+            if (type == OPEN && channel == null && handler != null) {
+                channel = new Channel(id);
+                channels.put(id, channel);
+            }
+        }
+
+        if (channel == null)
+            // Forgotten (i.e. reset) here already
+            return;
+
+        switch (type) {
+        case OPEN:
+            if (handler != null)
+                handler.opened(channel, payload);
+            else
+                channel.reset("Channels are not accepted here");
+            break;
+        case DATA:
+            channel.received(payload);
+            break;
+        case CREDIT:
+            if (payload.length != 4)
+                throw new IOException("Illegal credit frame");
+            channel.granted( (payload[0] & 0xff) << 24
+                           | (payload[1] & 0xff) << 16
+                           | (payload[2] & 0xff) << 8
+                           | (payload[3] & 0xff));
+            break;
+        case CLOSE:
+            channel.receivedClose();
+            break;
+        case RESET:
+            forget(channel);
+            channel.receivedReset(new DataInputStream
+                (new ByteArrayInputStream(payload)).readUTF());
+            break;
+        default:
+            throw new IOException("Illegal frame type " + type);
+        }
+    }
+
+    protected void forget(Channel channel)
+    {
+        synchronized (channels) {
+            channels.remove(channel.id);
+        }
+    }
+
+    protected void fail(String message)
+    {
+        ArrayList<Channel> channels_;
+
+        synchronized (channels) {
+            if (closed)
+                return;
+            closed = true;
+            channels_ = new ArrayList<Channel>(channels.values());
+            channels.clear();
+        }
+
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Failing anyway
+        }
+
+        for (Channel channel : channels_)
+            channel.receivedReset(message);
+    }
+
+
+    protected final Socket socket;
+    protected final Handler handler;
+    protected final int window;
+    protected final DataInputStream in;
+    protected final DataOutputStream out;
+    protected final Map<Integer, Channel> channels;
+    protected final AtomicInteger nextId;
+    protected final Thread reader;
+    protected boolean closed;
+}
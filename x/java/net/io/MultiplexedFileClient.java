@@ -0,0 +1,318 @@
+/**
+ *
+ */
+package x.java.net.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+import x.java.io.ContentHash;
+import x.java.io.ContentIndex;
+import x.java.io.SparseOutputStream;
+import x.java.io.ZeroBlockDecodingInputStream;
+import x.java.io.ZeroBlockEncodingInputStream;
+
+/**
+ * The client side of the multiplexed file streaming (see
+ * {@link RemoteFileServer#serveMultiplexed(int)}): one long-lived
+ * {@link MultiplexedConnection} per server carrying all of the file streams
+ * to and from it.
+ *
+ * @note Opening a stream doesn't wait for the server: if the file cannot be
+ * opened there, the first read (or write, or the close) says so.
+ */
+public class MultiplexedFileClient
+{
+    protected static final byte READ = 0;
+    protected static final byte WRITE = 1;
+    protected static final byte APPEND = 2;
+    protected static final byte READ_SPARSE = 3;
+    protected static final byte WRITE_SPARSE = 4;
+    protected static final byte LINK = 5;
+    protected static final byte INDEXED = 6;
+
+
+    /**
+     * Returns the (shared) client for the specified server, creating it as
+     * needed.
+     */
+    public static synchronized MultiplexedFileClient getInstance
+            (String host, int port)
+    {
+        String key = host + ':' + port;
+        MultiplexedFileClient client = instances.get(key);
+
+        if (client == null) {
+            client = new MultiplexedFileClient(host, port);
+            instances.put(key, client);
+        }
+
+        return client;
+    }
+
+
+    public MultiplexedFileClient(String _host, int _port)
+    {
+        this(_host, _port, MultiplexedConnection.DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param _window the channels' credit window (must be the server's one)
+     */
+    public MultiplexedFileClient(String _host, int _port, int _window)
+    {
+        host = _host;
+        port = _port;
+        window = _window;
+        connection = null;
+    }
+
+
+    /**
+     * Opens a stream reading the file (of the {@link RemoteFile}, only its
+     * root and path are used: the host is this client's one).
+     */
+    public InputStream openInput(RemoteFile rfile) throws IOException
+    {
+        final MultiplexedConnection.Channel channel = openChannel(rfile);
+
+        return new FilterInputStream(channel.getInputStream()) {
+            @Override public void close() throws IOException {
+                in.close();
+                channel.getOutputStream().close();
+            }
+        };
+    }
+
+    /**
+     * Opens a channel reading the file (for those who need more than just
+     * its input stream, e.g. {@link RemoteFiles}).
+     *
+     * @see #openInput(RemoteFile)
+     */
+    public MultiplexedConnection.Channel openChannel(RemoteFile rfile)
+            throws IOException
+    {
+        return connection().open(request(READ, rfile));
+    }
+
+    /**
+     * Opens a stream writing the file (of the {@link RemoteFile}, only its
+     * root and path are used: the host is this client's one).
+     *
+     * @note The close waits for the server to close the file and fails if the
+     * server does.
+     */
+    public OutputStream openOutput(RemoteFile rfile, boolean append)
+            throws IOException
+    {
+        final MultiplexedConnection.Channel channel
+            = connection().open(request(append ? APPEND : WRITE, rfile));
+
+        return new FilterOutputStream(channel.getOutputStream()) {
+            @Override public void write(byte[] b, int off, int len)
+                    throws IOException {
+                out.write(b, off, len);
+            }
+            @Override public void close() throws IOException {
+                out.close();
+
+                // Wait for the server's acknowledgement
+                InputStream ack = channel.getInputStream();
+                while (ack.read() != -1);
+                ack.close();
+            }
+        };
+    }
+
+    /**
+     * Copies the remote file to the local one, the zero blocks being sent
+     * compactly and written as holes.
+     *
+     * @return the length of the file
+     * @see x.java.io.ZeroBlockEncodingInputStream
+     */
+    public long download(RemoteFile rfile, File file) throws IOException
+    {
+        MultiplexedConnection.Channel channel
+            = connection().open(request(READ_SPARSE, rfile));
+
+        try {
+            SparseOutputStream out = new SparseOutputStream(file);
+            try {
+                return new ZeroBlockDecodingInputStream
+                            (channel.getInputStream()).copyTo(out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            channel.getInputStream().close();
+            channel.getOutputStream().close();
+        }
+    }
+
+    /**
+     * Copies the local file to the remote one, the zero blocks being sent
+     * compactly and written as holes.
+     *
+     * If the server has the same content already (see
+     * {@link RemoteFileServer#setContentIndex(ContentIndex)}), it's just put
+     * in place. The file is hashed for that only if the server has the
+     * contents indexed.
+     *
+     * @return the number of bytes sent (the zero blocks not counted)
+     * @see #download(RemoteFile, File)
+     */
+    public long upload(File file, RemoteFile rfile) throws IOException
+    {
+        if (isIndexed(rfile)
+            && link(rfile, ContentHash.of(file), file.length()))
+            return 0;
+
+        InputStream in
+            = new ZeroBlockEncodingInputStream(new FileInputStream(file));
+        MultiplexedConnection.Channel channel;
+        try {
+            channel = connection().open(request(WRITE_SPARSE, rfile));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        OutputStream out = channel.getOutputStream();
+        long total = 0;
+
+        try {
+            byte[] buffer = new byte[MultiplexedConnection.MAX_FRAME];
+            for (int bytes = in.read(buffer); bytes != -1;
+                 bytes = in.read(buffer)) {
+                out.write(buffer, 0, bytes);
+                total += bytes;
+            }
+        } catch (IOException e) {
+            // Reset rather than left open (the server would wait for the
+            // rest forever) or closed (it would take the file as complete)
+            channel.reset("Upload failed: " + e.getMessage());
+            throw e;
+        } finally {
+            in.close();
+        }
+        out.close();
+
+        // Wait for the server's acknowledgement
+        InputStream ack = channel.getInputStream();
+        while (ack.read() != -1);
+        ack.close();
+
+        return total;
+    }
+
+    /**
+     * Asks the server to put the content of the hash in place of the file
+     * (if it has the content).
+     *
+     * @return whether the content is in place
+     * @see ContentHash
+     */
+    public boolean link(RemoteFile rfile, String hash, long length)
+            throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        dos.write(request(LINK, rfile));
+        dos.writeUTF(hash);
+        dos.writeLong(length);
+        dos.flush();
+
+        MultiplexedConnection.Channel channel
+            = connection().open(baos.toByteArray());
+        channel.getOutputStream().close();
+
+        InputStream in = channel.getInputStream();
+        try {
+            return in.read() == 1;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Tells whether the server has the contents indexed, i.e. whether
+     * {@link #link(RemoteFile, String, long)} is worth the hashing at all
+     * (the file is only used for the root to be checked for writing).
+     *
+     * @see RemoteFileServer#setContentIndex(ContentIndex)
+     */
+    public boolean isIndexed(RemoteFile rfile) throws IOException
+    {
+        MultiplexedConnection.Channel channel
+            = connection().open(request(INDEXED, rfile));
+        channel.getOutputStream().close();
+
+        InputStream in = channel.getInputStream();
+        try {
+            return in.read() == 1;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Closes the connection (if any), aborting all of the streams.
+     */
+    public synchronized void close() throws IOException
+    {
+        if (connection != null)
+            connection.close();
+        connection = null;
+    }
+
+
+    /**
+     * Returns the connection, reconnecting if the last one is lost.
+     */
+    protected synchronized MultiplexedConnection connection()
+            throws IOException
+    {
+        if (connection == null || !connection.isOpen())
+            connection = new MultiplexedConnection
+                            (new Socket(host, port), null, window);
+
+        return connection;
+    }
+
+    protected static byte[] request(byte mode, RemoteFile rfile)
+            throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        dos.writeByte(mode);
+        dos.writeBoolean(rfile.getRoot() != null);
+        if (rfile.getRoot() != null)
+            dos.writeUTF(rfile.getRoot());
+        dos.writeUTF(rfile.getPath());
+        dos.flush();
+
+        return baos.toByteArray();
+    }
+
+
+    protected static final Map<String, MultiplexedFileClient> instances
+        = new HashMap<String, MultiplexedFileClient>();
+
+    protected final String host;
+    protected final int port;
+    protected final int window;
+    protected MultiplexedConnection connection;
+}
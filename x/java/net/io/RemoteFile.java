@@ -4,6 +4,7 @@
 package x.java.net.io;
 
 import java.io.Serializable;
+import java.rmi.registry.Registry;
 
 
 /**
@@ -14,15 +15,27 @@ import java.io.Serializable;
  */
 public class RemoteFile implements Serializable
 {
-    private static final long serialVersionUID = 7977086159165683399L;
+    private static final long serialVersionUID = -2466530470911851327L;
 
 
     /**
-     * 
+     * A file of the unnamed root served on the default registry port
      */
     public RemoteFile(String _host, String pathname)
+    {
+        this(_host, Registry.REGISTRY_PORT, null, pathname);
+    }
+
+    /**
+     * A file of the specified root served on the specified registry port
+     * 
+     * @see RemoteFileServer
+     */
+    public RemoteFile(String _host, int _port, String _root, String pathname)
     {
         host = _host;
+        port = _port;
+        root = _root;
         path = pathname;
     }
     
@@ -32,6 +45,16 @@ public class RemoteFile implements Serializable
         return host;
     }
 
+    public int getPort()
+    {
+        return port;
+    }
+
+    public String getRoot()
+    {
+        return root;
+    }
+
     public String getPath()
     {
         return path;
@@ -39,5 +62,7 @@ public class RemoteFile implements Serializable
     
 
     protected final String host;
+    protected final int port;
+    protected final String root;
     protected final String path;
 }
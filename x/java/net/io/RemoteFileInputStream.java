@@ -16,13 +16,15 @@ import java.rmi.registry.Registry;
 
 import com.healthmarketscience.rmiio.RemoteInputStream;
 import com.healthmarketscience.rmiio.RemoteInputStreamClient;
-import com.healthmarketscience.rmiio.SimpleRemoteInputStream;
+
+import x.java.io.SparseOutputStream;
+import x.java.io.ZeroBlockDecodingInputStream;
 
 /**
  * The remote brother (using {@link com.healthmarketscience.rmiio}) of
  * {@link FileInputStream}. Simple file streaming for the very basic needs.
  * 
- * {@todo 1.0} RMI port should be configurable.
+ * @see RemoteFileServer
  */
 public class RemoteFileInputStream extends InputStream
 {
@@ -35,6 +37,27 @@ public class RemoteFileInputStream extends InputStream
         public static final String regName = Streamer.class.getName();
         
         RemoteInputStream stream(String pathname) throws IOException;
+        
+        /**
+         * Streams the file in the "tail -f" way.
+         * 
+         * @param offset where to start (negative for the current end)
+         * @see x.java.io.FollowInputStream
+         */
+        RemoteInputStream follow(String pathname, long offset)
+            throws IOException;
+        
+        /**
+         * Opens the file zero-block encoded.
+         * 
+         * @see x.java.io.ZeroBlockEncodingInputStream
+         */
+        RemoteInputStream sparse(String pathname) throws IOException;
+        
+        /**
+         * Returns what the calling client gets of the server's bandwidth.
+         */
+        RemoteFileServer.BandwidthShare bandwidth() throws IOException;
     }
     
     
@@ -58,39 +81,21 @@ public class RemoteFileInputStream extends InputStream
      * 
      * @warn This method is making local files available for RMI clients with
      * no restriction. Use extreme caution!
-     * @note The default registry port is used.
+     * @note The default registry port is used (as the unnamed root of its
+     * {@link RemoteFileServer}). Use a {@link RemoteFileServer} directly to
+     * serve several roots or another port.
      * @note If more than just this one RMI server may exist on this machine
      * (with the specified port) it is necessary to create an RMI registry in
      * advance and it will be used instead of creating one of its own.
-     * @note Maybe a TODO: Only one server is permitted and therefore only one
-     * pathname may currently be served.
      * @param local (if null, any accessible file will be available!)
      * @throws RemoteException
      * @throws AlreadyBoundException
      */
-    public static void serve(final File local)
+    public static void serve(File local)
             throws RemoteException, AlreadyBoundException
     {
-        Registry localReg = null;
-        try {
-            localReg = LocateRegistry.getRegistry();
-        } catch (RemoteException e) {
-            localReg = LocateRegistry.createRegistry(Registry.REGISTRY_PORT);
-        }
-        localReg.bind
-            ( Streamer.regName
-            , new Streamer() {
-                public RemoteInputStream stream(String pathname)
-                        throws IOException {
-                    File f = new File(pathname);
-                    
-                    if (local != null && !f.getCanonicalPath()
-                                        .startsWith(local.getCanonicalPath()))
-                        throw new IOException("Acess is denied to " + pathname);
-                    
-                    return new SimpleRemoteInputStream(new FileInputStream(f));
-                }
-             });
+        RemoteFileServer.getInstance(Registry.REGISTRY_PORT)
+            .serve(null, local, RemoteFileServer.Access.READ);
     }
     
     
@@ -100,14 +105,43 @@ public class RemoteFileInputStream extends InputStream
      */
     public RemoteFileInputStream(RemoteFile rfile) throws IOException
     {
-        Registry registry = LocateRegistry.getRegistry(rfile.getHost());
-        try {
-            Streamer fs = (Streamer)registry.lookup(Streamer.regName);
-            RemoteInputStream ris = fs.stream(rfile.getPath());
-            wrapped = RemoteInputStreamClient.wrap(ris);
-        } catch (NotBoundException e) {
-            throw new RemoteException
-                (rfile.getHost() + "'s file stream server is unavailable", e);
+        this(rfile, false, 0);
+    }
+    
+    /**
+     * Calls {@link #RemoteFileInputStream(RemoteFile, boolean, long)} to read
+     * from the beginning of the file.
+     */
+    public RemoteFileInputStream(RemoteFile rfile, boolean follow)
+            throws IOException
+    {
+        this(rfile, follow, 0);
+    }
+    
+    /**
+     * @param follow whether to go on reading as the file grows (the stream
+     * never ends then, until it is closed), surviving its truncation and
+     * rotation as well
+     * @param offset where to start reading from (in the follow mode,
+     * a negative offset means the current end of the file)
+     * @throws IOException 
+     * @see x.java.io.FollowInputStream
+     */
+    public RemoteFileInputStream(RemoteFile rfile, boolean follow, long offset)
+            throws IOException
+    {
+        Streamer fs = lookup(rfile);
+        
+        RemoteInputStream ris = follow
+                                ? fs.follow(rfile.getPath(), offset)
+                                : fs.stream(rfile.getPath());
+        wrapped = RemoteInputStreamClient.wrap(ris);
+        
+        for (long togo = follow ? 0 : offset; togo > 0; ) {
+            long skipped = wrapped.skip(togo);
+            if (skipped <= 0)
+                break;
+            togo -= skipped;
         }
     }
 
@@ -130,6 +164,58 @@ public class RemoteFileInputStream extends InputStream
         return wrapped.available();
     }
 
+    /**
+     * Copies the remote file to the local one, the zero blocks (and holes)
+     * being sent compactly and written as holes.
+     * 
+     * @return the length of the file
+     */
+    public static long download(RemoteFile rfile, File file)
+            throws IOException
+    {
+        RemoteInputStream ris = lookup(rfile).sparse(rfile.getPath());
+        ZeroBlockDecodingInputStream in = new ZeroBlockDecodingInputStream
+            (RemoteInputStreamClient.wrap(ris));
+        try {
+            SparseOutputStream out = new SparseOutputStream(file);
+            try {
+                return in.copyTo(out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Returns what this client gets of the bandwidth of the server of the
+     * file.
+     * 
+     * @see RemoteFileServer#setBandwidth(RemoteFileServer.BandwidthConfiguration)
+     */
+    public static RemoteFileServer.BandwidthShare getBandwidthShare
+            (RemoteFile rfile) throws IOException
+    {
+        return lookup(rfile).bandwidth();
+    }
+    
+    
+    protected static Streamer lookup(RemoteFile rfile) throws IOException
+    {
+        Registry registry
+            = LocateRegistry.getRegistry(rfile.getHost(), rfile.getPort());
+        try {
+            return (Streamer)registry.lookup
+                (RemoteFileServer.bindingName( Streamer.regName
+                                             , rfile.getRoot()));
+        } catch (NotBoundException e) {
+            throw new RemoteException
+                (rfile.getHost() + "'s file stream server is unavailable", e);
+        }
+    }
+    
+    
     /**
      * @see java.io.InputStream#close()
      */
@@ -4,6 +4,7 @@
 package x.java.net.io;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -14,15 +15,20 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 
+import com.healthmarketscience.rmiio.RemoteInputStream;
 import com.healthmarketscience.rmiio.RemoteOutputStream;
 import com.healthmarketscience.rmiio.RemoteOutputStreamClient;
-import com.healthmarketscience.rmiio.SimpleRemoteOutputStream;
+import com.healthmarketscience.rmiio.SimpleRemoteInputStream;
+
+import x.java.io.ContentHash;
+import x.java.io.WriteBehindOutputStream;
+import x.java.io.ZeroBlockEncodingInputStream;
 
 /**
  * The remote brother (using {@link com.healthmarketscience.rmiio}) of
  * {@link FileOutputStream}. Simple file streaming for the very basic needs.
  * 
- * {@todo 1.0} RMI port should be configurable.
+ * @see RemoteFileServer
  */
 public class RemoteFileOutputStream extends OutputStream
 {
@@ -35,6 +41,54 @@ public class RemoteFileOutputStream extends OutputStream
         public static final String regName = Streamer.class.getName();
         
         RemoteOutputStream stream(String pathname) throws IOException;
+        
+        /**
+         * Streams to the file, appending to it if so specified (rather than
+         * replacing it once the stream is closed).
+         */
+        RemoteOutputStream stream(String pathname, boolean append)
+            throws IOException;
+        
+        /**
+         * Streams to the file and forwards everything to the replicas
+         * (the first of which forwards to the rest and so on).
+         * The stream is closed only when all of the replicas are.
+         * 
+         * @param replicas as seen from this server
+         */
+        RemoteOutputStream replicate(String pathname, RemoteFile[] replicas)
+            throws IOException;
+        
+        /**
+         * Writes the file from the zero-block encoded stream, leaving holes
+         * for the zero blocks.
+         * 
+         * @return the length of the file
+         * @see x.java.io.ZeroBlockEncodingInputStream
+         */
+        long sparse(String pathname, RemoteInputStream encoded)
+            throws IOException;
+        
+        /**
+         * Puts the content of the hash in place of the file (if the server
+         * has the content).
+         * 
+         * @return whether the content is in place
+         * @see x.java.io.ContentHash
+         */
+        boolean link(String pathname, String hash, long length)
+            throws IOException;
+        
+        /**
+         * Tells whether the server has the contents indexed (i.e. whether
+         * {@link #link(String, String, long)} is worth the hashing at all).
+         */
+        boolean indexed() throws IOException;
+        
+        /**
+         * Returns what the calling client gets of the server's bandwidth.
+         */
+        RemoteFileServer.BandwidthShare bandwidth() throws IOException;
     }
     
     
@@ -58,39 +112,21 @@ public class RemoteFileOutputStream extends OutputStream
      * 
      * @warn This method is making local files available for RMI clients with
      * no restriction. Use extreme caution!
-     * @note The default registry port is used.
+     * @note The default registry port is used (as the unnamed root of its
+     * {@link RemoteFileServer}). Use a {@link RemoteFileServer} directly to
+     * serve several roots or another port.
      * @note If more than just this one RMI server may exist on this machine
      * (with the specified port) it is necessary to create an RMI registry in
      * advance and it will be used instead of creating one of its own.
-     * @note Maybe a TODO: Only one server is permitted and therefore only one
-     * pathname may currently be served.
      * @param local (if null, any accessible file will be available!)
      * @throws RemoteException
      * @throws AlreadyBoundException
      */
-    public static void serve(final File local)
+    public static void serve(File local)
             throws RemoteException, AlreadyBoundException
     {
-        Registry localReg = null;
-        try {
-            localReg = LocateRegistry.getRegistry();
-        } catch (RemoteException e) {
-            localReg = LocateRegistry.createRegistry(Registry.REGISTRY_PORT);
-        }
-        localReg.bind
-            ( Streamer.regName
-            , new Streamer() {
-                public RemoteOutputStream stream(String pathname)
-                        throws IOException {
-                    File f = new File(pathname);
-                    
-                    if (local != null && !f.getCanonicalPath()
-                                        .startsWith(local.getCanonicalPath()))
-                        throw new IOException("Acess is denied to " + pathname);
-                    
-                    return new SimpleRemoteOutputStream(new FileOutputStream(f));
-                }
-             });
+        RemoteFileServer.getInstance(Registry.REGISTRY_PORT)
+            .serve(null, local, RemoteFileServer.Access.WRITE);
     }
     
     
@@ -100,24 +136,139 @@ public class RemoteFileOutputStream extends OutputStream
     }
     
     /**
+     * @param append whether to append to the file rather than replace it
      * @throws IOException 
-     * 
      */
     public RemoteFileOutputStream(RemoteFile rfile, boolean append)
             throws IOException
     {
-        Registry registry = LocateRegistry.getRegistry(rfile.getHost());
+        this(rfile, append, null, 0);
+    }
+    
+    /**
+     * Creates a write-behind stream: the bytes written are sent by another
+     * thread, with up to the specified number of buffers in flight, so the
+     * writer doesn't wait for the network (unless it is faster than that).
+     * A failure to send is reported upon the next write, flush or close.
+     * 
+     * @param writeBehind the number of buffers (0 for writing through)
+     * @throws IOException
+     * @see WriteBehindOutputStream
+     */
+    public RemoteFileOutputStream
+            (RemoteFile rfile, boolean append, int writeBehind)
+                throws IOException
+    {
+        this(rfile, append, null, writeBehind);
+    }
+    
+    /**
+     * Creates a stream replicated in a chain: the bytes are sent to the
+     * <code>rfile</code> host only, which forwards them to the first of the
+     * replicas, which forwards them to the next one and so on.
+     * The {@link #close()} returns only when all of the replicas are written
+     * and closed (and fails if any of them fails).
+     * 
+     * @param replicas the files to forward to (as seen from the previous
+     * host in the chain, of course)
+     * @throws IOException
+     */
+    public RemoteFileOutputStream(RemoteFile rfile, RemoteFile[] replicas)
+            throws IOException
+    {
+        this(rfile, false, replicas, 0);
+    }
+    
+    /**
+     * Creates a write-behind stream replicated in a chain.
+     * 
+     * @see #RemoteFileOutputStream(RemoteFile, RemoteFile[])
+     * @see #RemoteFileOutputStream(RemoteFile, boolean, int)
+     */
+    public RemoteFileOutputStream
+            (RemoteFile rfile, RemoteFile[] replicas, int writeBehind)
+                throws IOException
+    {
+        this(rfile, false, replicas, writeBehind);
+    }
+    
+    
+    protected RemoteFileOutputStream( RemoteFile rfile, boolean append
+                                    , RemoteFile[] replicas, int writeBehind)
+            throws IOException
+    {
+        if (writeBehind < 0)
+            throw new IllegalArgumentException
+                ("Buffer count is negative (" + writeBehind + ")!");
+        
+        Streamer fs = lookup(rfile);
+        
+        RemoteOutputStream ros
+            = (replicas != null && replicas.length != 0)
+                ? fs.replicate(rfile.getPath(), replicas)
+                : append ? fs.stream(rfile.getPath(), true)
+                         : fs.stream(rfile.getPath());
+        wrapped = (writeBehind == 0)
+            ? RemoteOutputStreamClient.wrap(ros)
+            : new WriteBehindOutputStream
+                (RemoteOutputStreamClient.wrap(ros), writeBehind);
+    }
+
+
+    /**
+     * Copies the local file to the remote one, the zero blocks (and holes)
+     * being sent compactly and written as holes. If the server has the same
+     * content already (see
+     * {@link RemoteFileServer#setContentIndex(x.java.io.ContentIndex)}), it's
+     * just put in place.
+     * 
+     * @return the length of the file
+     */
+    public static long upload(File file, RemoteFile rfile) throws IOException
+    {
+        Streamer fs = lookup(rfile);
+        
+        if (fs.indexed()
+            && fs.link(rfile.getPath(), ContentHash.of(file), file.length()))
+            return file.length();
+        
+        SimpleRemoteInputStream ris = new SimpleRemoteInputStream
+            (new ZeroBlockEncodingInputStream(new FileInputStream(file)));
         try {
-            Streamer fs = (Streamer)registry.lookup(Streamer.regName);
-            RemoteOutputStream ros = fs.stream(rfile.getPath());
-            wrapped = RemoteOutputStreamClient.wrap(ros);
+            return fs.sparse(rfile.getPath(), ris.export());
+        } finally {
+            ris.close();
+        }
+    }
+    
+    /**
+     * Returns what this client gets of the bandwidth of the server of the
+     * file.
+     * 
+     * @see RemoteFileServer#setBandwidth(RemoteFileServer.BandwidthConfiguration)
+     */
+    public static RemoteFileServer.BandwidthShare getBandwidthShare
+            (RemoteFile rfile) throws IOException
+    {
+        return lookup(rfile).bandwidth();
+    }
+    
+    
+    protected static Streamer lookup(RemoteFile rfile) throws IOException
+    {
+        Registry registry
+            = LocateRegistry.getRegistry(rfile.getHost(), rfile.getPort());
+        try {
+            return (Streamer)registry.lookup
+                (RemoteFileServer.bindingName( Streamer.regName
+                                             , rfile.getRoot()));
         } catch (NotBoundException e) {
             throw new RemoteException
                 (rfile.getHost() + "'s file stream server is unavailable", e);
         }
     }
-
-
+    
+    
     /**
      * @see java.io.OutputStream#close()
      */
@@ -127,6 +278,15 @@ public class RemoteFileOutputStream extends OutputStream
         wrapped.close();
     }
 
+    /**
+     * @see java.io.OutputStream#flush()
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        wrapped.flush();
+    }
+
     /**
      * @see java.io.OutputStream#write(byte[], int, int)
      */
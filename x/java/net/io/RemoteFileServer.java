@@ -0,0 +1,1585 @@
+/**
+ *
+ */
+package x.java.net.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.rmi.AlreadyBoundException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RemoteServer;
+import java.rmi.server.ServerNotActiveException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import com.healthmarketscience.rmiio.RemoteInputStream;
+import com.healthmarketscience.rmiio.RemoteInputStreamClient;
+import com.healthmarketscience.rmiio.RemoteOutputStream;
+import com.healthmarketscience.rmiio.SimpleRemoteInputStream;
+import com.healthmarketscience.rmiio.SimpleRemoteOutputStream;
+
+import x.java.io.BandwidthLimiter;
+import x.java.io.ContentIndex;
+import x.java.io.FileCache;
+import x.java.io.FollowInputStream;
+import x.java.io.LimitedBandwidthInputStream;
+import x.java.io.LimitedBandwidthOutputStream;
+import x.java.io.SparseOutputStream;
+import x.java.io.TeeOutputStream;
+import x.java.io.ZeroBlockDecodingInputStream;
+import x.java.io.ZeroBlockEncodingInputStream;
+import x.java.util.Configuration;
+
+/**
+ * A single RMI server for {@link RemoteFileInputStream}s and
+ * {@link RemoteFileOutputStream}s, exporting any number of named roots
+ * on one (configurable) registry port.
+ *
+ * Each root is served by the {@link RemoteFileInputStream.Streamer} and/or
+ * {@link RemoteFileOutputStream.Streamer} bound under
+ * {@link #bindingName(String, String)} and has its own access permissions and
+ * thread pool (used for opening files, so one slow file system doesn't make
+ * the others wait).
+ *
+ * The files read may be served from a {@link FileCache} shared by all of the
+ * roots (see {@link #setCache(FileCache)}); the files written through the
+ * server are dropped from it. The files followed (see
+ * {@link RemoteFileInputStream#RemoteFileInputStream(RemoteFile, boolean)})
+ * are never cached.
+ *
+ * A root's output streamer may also be asked to forward whatever is written
+ * to other servers (see
+ * {@link RemoteFileOutputStream#RemoteFileOutputStream(RemoteFile, RemoteFile[])}),
+ * so that the writer sends the bytes only once for all of the replicas.
+ *
+ * All of the streams may be limited by the per-client-host and total
+ * bandwidth budgets (see {@link #setBandwidth(BandwidthConfiguration)}); the
+ * clients may see their share through the streamers.
+ *
+ * The whole-file transfers skip the zero blocks (see
+ * {@link RemoteFileInputStream#download(RemoteFile, File)}) and, given a
+ * {@link ContentIndex} (see {@link #setContentIndex(ContentIndex)}), the
+ * uploads of the content the server has already.
+ *
+ * The streams and the calls are counted (see {@link #getMetrics()}) as a
+ * whole, per root and per client host, and published as MBeans.
+ *
+ * Besides RMI, the roots may be served over {@link MultiplexedConnection}s
+ * (see {@link #serveMultiplexed(int)} and {@link MultiplexedFileClient}):
+ * one connection per client carrying all of its streams.
+ *
+ * @warn This class is making local files available for RMI clients with
+ * no restriction other than the ones specified per root. Use extreme caution!
+ * @note If more than just this one RMI server may exist on this machine
+ * (with the specified port) it is necessary to create an RMI registry in
+ * advance and it will be used instead of creating one of its own. The
+ * streamers are exported on the registry port only if the registry is this
+ * server's own (on an anonymous or the specified port otherwise, see
+ * {@link #RemoteFileServer(int, int)}).
+ * @note The unnamed (<code>null</code>) root is bound under the plain
+ * <code>Streamer.regName</code>, which is what the pre-server clients
+ * (with {@link RemoteFile#RemoteFile(String, String)}) are looking up.
+ */
+public class RemoteFileServer
+{
+    /**
+     * What the clients of a root are allowed to do
+     */
+    public enum Access
+    {
+        READ(true, false),
+        WRITE(false, true),
+        READ_WRITE(true, true);
+
+
+        Access(boolean _readable, boolean _writable)
+        {
+            readable = _readable;
+            writable = _writable;
+        }
+
+
+        public final boolean readable;
+        public final boolean writable;
+    }
+
+
+    /**
+     * The bandwidth budgets of a server (see
+     * {@link RemoteFileServer#setBandwidth(BandwidthConfiguration)})
+     */
+    @SuppressWarnings("serial")
+    public static class BandwidthConfiguration extends Configuration
+    {
+        public final IntegerProperty clientBytesPerMilli
+            = new IntegerProperty
+                ( "bandwidth.client", 0
+                , "Bytes per millisecond for all of the streams of a client"
+                  + " host together (0 for unlimited)");
+
+        public final IntegerProperty totalBytesPerMilli
+            = new IntegerProperty
+                ( "bandwidth.total", 0
+                , "Bytes per millisecond for all of the streams together"
+                  + " (0 for unlimited)");
+
+        public final IntegerProperty burstBytes
+            = new IntegerProperty
+                ( "bandwidth.burst", 64 * 1024
+                , "Bytes that may be sent at once after being idle");
+    }
+
+
+    /**
+     * What a client gets of a server's bandwidth
+     */
+    public static class BandwidthShare implements Serializable
+    {
+        private static final long serialVersionUID = 4102387522019374181L;
+
+
+        public BandwidthShare( long _clientBytesPerMilli
+                             , long _totalBytesPerMilli
+                             , int _clientStreams, int _clients)
+        {
+            clientBytesPerMilli = _clientBytesPerMilli;
+            totalBytesPerMilli = _totalBytesPerMilli;
+            clientStreams = _clientStreams;
+            clients = _clients;
+        }
+
+
+        /**
+         * The client's own budget (0 if unlimited)
+         */
+        public final long clientBytesPerMilli;
+        /**
+         * The budget shared with all the other clients (0 if unlimited)
+         */
+        public final long totalBytesPerMilli;
+        /**
+         * The client's streams open now
+         */
+        public final int clientStreams;
+        /**
+         * The clients having streams open now (this one included)
+         */
+        public final int clients;
+    }
+
+
+    /**
+     * A client host using the server
+     */
+    protected static class Client
+    {
+        public Client(BandwidthLimiter _limiter)
+        {
+            limiter = _limiter;
+            streams = 0;
+        }
+
+
+        public final BandwidthLimiter limiter;
+        public int streams;
+    }
+
+
+    /**
+     * The access to a file is denied (it's outside of the root or there is no
+     * such root)
+     */
+    @SuppressWarnings("serial")
+    protected static class DeniedException extends IOException
+    {
+        public DeniedException(String pathname)
+        {
+            super("Acess is denied to " + pathname);
+        }
+    }
+
+
+    /**
+     * A served root (a file or a directory with all of its children)
+     */
+    public class Root
+    {
+        protected Root(String _name, File _local, Access _access, int _threads)
+        {
+            assert _access != null && _threads > 0;
+
+            name = _name;
+            local = _local;
+            access = _access;
+            executor = Executors.newFixedThreadPool(_threads);
+            metrics = new StreamMetrics();
+
+            input = !access.readable ? null
+                : new RemoteFileInputStream.Streamer() {
+                    public RemoteInputStream stream(final String pathname)
+                            throws IOException {
+                        final String client = clientHost();
+                        return open(client, new Callable<RemoteInputStream>() {
+                            public RemoteInputStream call() throws IOException {
+                                return new SimpleRemoteInputStream
+                                    (served( client
+                                           , openInput(resolve(pathname))));
+                            }
+                        });
+                    }
+                    public RemoteInputStream follow( final String pathname
+                                                   , final long offset)
+                            throws IOException {
+                        final String client = clientHost();
+                        return open(client, new Callable<RemoteInputStream>() {
+                            public RemoteInputStream call() throws IOException {
+                                return new SimpleRemoteInputStream
+                                    (served( client
+                                           , new FollowInputStream
+                                                 ( resolve(pathname), offset
+                                                 , followPollMillis)));
+                            }
+                        });
+                    }
+                    public RemoteInputStream sparse(final String pathname)
+                            throws IOException {
+                        final String client = clientHost();
+                        return open(client, new Callable<RemoteInputStream>() {
+                            public RemoteInputStream call() throws IOException {
+                                InputStream in
+                                    = openInput(resolve(pathname));
+                                return new SimpleRemoteInputStream
+                                    (served( client
+                                           , new ZeroBlockEncodingInputStream
+                                                 (in)));
+                            }
+                        });
+                    }
+                    public BandwidthShare bandwidth() {
+                        return share(clientHost());
+                    }
+                };
+
+            output = !access.writable ? null
+                : new RemoteFileOutputStream.Streamer() {
+                    public RemoteOutputStream stream(String pathname)
+                            throws IOException {
+                        return stream(pathname, false);
+                    }
+                    public RemoteOutputStream stream
+                            (final String pathname, final boolean append)
+                                throws IOException {
+                        final String client = clientHost();
+                        return open(client, new Callable<RemoteOutputStream>() {
+                            public RemoteOutputStream call()
+                                    throws IOException {
+                                return new SimpleRemoteOutputStream
+                                    (served( client
+                                           , openOutput( resolve(pathname)
+                                                       , append)));
+                            }
+                        });
+                    }
+                    public RemoteOutputStream replicate
+                            ( final String pathname
+                            , final RemoteFile[] replicas)
+                                throws IOException {
+                        final String client = clientHost();
+                        return open(client, new Callable<RemoteOutputStream>() {
+                            public RemoteOutputStream call()
+                                    throws IOException {
+                                return new SimpleRemoteOutputStream
+                                    (served( client
+                                           , openReplicated( resolve(pathname)
+                                                           , replicas)));
+                            }
+                        });
+                    }
+                    public long sparse( final String pathname
+                                      , final RemoteInputStream encoded)
+                            throws IOException {
+                        String client = clientHost();
+                        SparseOutputStream out
+                            = open(client, new Callable<SparseOutputStream>() {
+                                public SparseOutputStream call()
+                                        throws IOException {
+                                    return openSparse(resolve(pathname));
+                                }
+                            });
+                        return receiveSparse
+                            ( received(client, RemoteInputStreamClient.wrap
+                                                   (encoded))
+                            , out);
+                    }
+                    public boolean link( final String pathname
+                                       , final String hash, final long length)
+                            throws IOException {
+                        String client = clientHost();
+                        return open(client, new Callable<Boolean>() {
+                            public Boolean call() throws IOException {
+                                return RemoteFileServer.this.link
+                                    ( Root.this, resolve(pathname), hash
+                                    , length);
+                            }
+                        });
+                    }
+                    public boolean indexed() {
+                        return index != null;
+                    }
+                    public BandwidthShare bandwidth() {
+                        return share(clientHost());
+                    }
+                };
+        }
+
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public File getLocal()
+        {
+            return local;
+        }
+
+        public Access getAccess()
+        {
+            return access;
+        }
+
+        public RemoteFileServer getServer()
+        {
+            return RemoteFileServer.this;
+        }
+
+        public StreamMetrics getMetrics()
+        {
+            return metrics;
+        }
+
+        /**
+         * Stops serving this root (the streams already open are not affected)
+         */
+        public void unserve() throws RemoteException
+        {
+            RemoteFileServer.this.unserve(this);
+        }
+
+
+        /**
+         * Maps a client-specified pathname to a local file under this root:
+         * relative pathnames are resolved against the root, absolute ones are
+         * taken as they are.
+         *
+         * @throws IOException if the file is outside of this root
+         */
+        public File resolve(String _pathname) throws IOException
+        {
+            File f = new File(_pathname);
+
+            if (local == null)
+                return f;
+
+            if (!f.isAbsolute())
+                f = new File(local, _pathname);
+
+            String path_ = f.getCanonicalPath();
+            String root_ = local.getCanonicalPath();
+
+            if (!path_.equals(root_)
+                && !path_.startsWith(root_.endsWith(File.separator)
+                                     ? root_ : root_ + File.separator))
+                throw new DeniedException(_pathname);
+
+            return new File(path_);
+        }
+
+        /**
+         * Tells whether the (local) file is under this root.
+         */
+        public boolean contains(File _file) throws IOException
+        {
+            try {
+                resolve(_file.getAbsolutePath());
+                return true;
+            } catch (DeniedException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Runs the opening task for the client (timing it).
+         */
+        protected <T> T open(String client, Callable<T> _task)
+                throws IOException
+        {
+            StreamMetrics[] metrics_ = metrics(this, client);
+            long start = System.nanoTime();
+
+            try {
+                return open(_task);
+            } catch (IOException e) {
+                for (StreamMetrics m : metrics_)
+                    m.failed(e instanceof DeniedException);
+                throw e;
+            } finally {
+                long nanos = System.nanoTime() - start;
+                for (StreamMetrics m : metrics_)
+                    m.called(nanos);
+            }
+        }
+
+        protected InputStream served(String client, InputStream in)
+        {
+            return RemoteFileServer.this.served(this, client, in, false);
+        }
+
+        /**
+         * @see RemoteFileServer#served(Root, String, InputStream, boolean)
+         */
+        protected InputStream received(String client, InputStream in)
+        {
+            return RemoteFileServer.this.served(this, client, in, true);
+        }
+
+        protected OutputStream served(String client, OutputStream out)
+        {
+            return RemoteFileServer.this.served(this, client, out);
+        }
+
+        /**
+         * Runs the opening task on this root's thread pool.
+         *
+         * @throws IOException if the root is no longer served (as well)
+         */
+        protected <T> T open(Callable<T> _task) throws IOException
+        {
+            try {
+                return executor.submit(_task).get();
+            } catch (RejectedExecutionException e) {
+                throw new IOException("Root is no longer served", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException)e.getCause();
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while opening", e);
+            }
+        }
+
+
+        protected final String name;
+        protected final File local;
+        protected final Access access;
+        protected final ExecutorService executor;
+        protected final StreamMetrics metrics;
+        protected final RemoteFileInputStream.Streamer input;
+        protected final RemoteFileOutputStream.Streamer output;
+    }
+
+
+    /**
+     * The registry name a root's streamer is bound under.
+     *
+     * @param regName the streamer's own registry name
+     * @param root the root name (may be <code>null</code>)
+     */
+    public static String bindingName(String regName, String root)
+    {
+        return (root == null) ? regName : regName + '/' + root;
+    }
+
+    /**
+     * Returns the server for the specified port, creating it as needed.
+     * This is what the <code>serve()</code> methods of
+     * {@link RemoteFileInputStream} and {@link RemoteFileOutputStream} use.
+     */
+    public static synchronized RemoteFileServer getInstance(int port)
+            throws RemoteException
+    {
+        RemoteFileServer server = instances.get(port);
+
+        if (server == null) {
+            server = new RemoteFileServer(port);
+            instances.put(port, server);
+        }
+
+        return server;
+    }
+
+
+    /**
+     * Creates a server using the default registry port.
+     */
+    public RemoteFileServer() throws RemoteException
+    {
+        this(Registry.REGISTRY_PORT);
+    }
+
+    /**
+     * Creates a server using the specified registry port (the registry is
+     * created if there is none). The streamers are exported on the same port
+     * if the registry is created, on an anonymous one otherwise (the port of
+     * a registry of another process is taken).
+     */
+    public RemoteFileServer(int _port) throws RemoteException
+    {
+        this(_port, -1);
+    }
+
+    /**
+     * Creates a server using the specified registry port (the registry is
+     * created if there is none), exporting the streamers on the specified
+     * port (0 for an anonymous one, -1 for the registry port if the registry
+     * is created and an anonymous one otherwise).
+     */
+    public RemoteFileServer(int _port, int _exportPort) throws RemoteException
+    {
+        if (_exportPort < -1)
+            throw new IllegalArgumentException
+                ("Export port is negative (" + _exportPort + ")!");
+
+        Registry reg_ = null;
+        boolean created_ = false;
+        try {
+            reg_ = LocateRegistry.getRegistry(_port);
+            reg_.list();
+        } catch (RemoteException e) {
+            reg_ = LocateRegistry.createRegistry(_port);
+            created_ = true;
+        }
+
+        port = _port;
+        exportPort = (_exportPort != -1) ? _exportPort
+                                         : created_ ? _port : 0;
+        registry = reg_;
+        roots = new ArrayList<Root>();
+        cache = null;
+        index = null;
+        followPollMillis = FollowInputStream.DEFAULT_POLL_MILLIS;
+        bandwidth = null;
+        clients = new HashMap<String, Client>();
+        totalLimiter = new BandwidthLimiter(0, 1);
+        multiplexer = null;
+        pumps = null;
+        connections = new ArrayList<MultiplexedConnection>();
+        metrics = new StreamMetrics();
+        clientMetrics = new ConcurrentHashMap<String, StreamMetrics>();
+
+        register(null, null, metrics);
+    }
+
+
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * @return the port the streamers are exported on (0 for an anonymous
+     * one)
+     */
+    public int getExportPort()
+    {
+        return exportPort;
+    }
+
+    public long getFollowPollMillis()
+    {
+        return followPollMillis;
+    }
+
+    /**
+     * Sets the maximum delay in noticing the changes of the files followed
+     * that are not reported by the file system.
+     *
+     * @see FollowInputStream#FollowInputStream(File, long, long)
+     */
+    public void setFollowPollMillis(long _followPollMillis)
+    {
+        if (_followPollMillis <= 0)
+            throw new IllegalArgumentException
+                ("Poll interval is negative or zero ("+_followPollMillis+")!");
+
+        followPollMillis = _followPollMillis;
+    }
+
+    public BandwidthConfiguration getBandwidth()
+    {
+        return bandwidth;
+    }
+
+    /**
+     * Sets the bandwidth budgets the streams opened from now on are limited
+     * by (<code>null</code> for no limits). The changes of the configuration
+     * apply to the streams open as well (once a stream is opened after them).
+     */
+    public void setBandwidth(BandwidthConfiguration _bandwidth)
+    {
+        bandwidth = _bandwidth;
+    }
+
+    /**
+     * Returns what the specified client gets of this server's bandwidth.
+     */
+    public BandwidthShare share(String client)
+    {
+        BandwidthConfiguration bandwidth_ = bandwidth;
+
+        synchronized (clients) {
+            Client client_ = clients.get(client);
+            int active = 0;
+
+            for (Client c : clients.values())
+                if (c.streams > 0)
+                    active++;
+
+            if (bandwidth_ == null)
+                return new BandwidthShare
+                    (0, 0, (client_ == null) ? 0 : client_.streams, active);
+
+            return new BandwidthShare
+                ( bandwidth_.clientBytesPerMilli.get()
+                , bandwidth_.totalBytesPerMilli.get()
+                , (client_ == null) ? 0 : client_.streams
+                , active);
+        }
+    }
+
+    public FileCache getCache()
+    {
+        return cache;
+    }
+
+    /**
+     * Sets the cache the files read are served from (<code>null</code> for
+     * reading all of them directly).
+     */
+    public void setCache(FileCache _cache)
+    {
+        cache = _cache;
+    }
+
+    /**
+     * Returns the metrics of all of the streams (the ones of a root are
+     * {@link Root#getMetrics() there}). All of them are published as MBeans
+     * as well: <code>x.java.net.io:type=RemoteFileServer,port=</code>...
+     * with no more keys for these ones, with the <code>root</code> or
+     * <code>client</code> key for the others.
+     */
+    public StreamMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics of the client host's streams (<code>null</code> if
+     * it has never been served).
+     */
+    public StreamMetrics getMetrics(String client)
+    {
+        return clientMetrics.get(client);
+    }
+
+    public ContentIndex getContentIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Sets the content index the uploads are deduplicated by
+     * (<code>null</code> for no deduplication). The files written through
+     * this server are (re)indexed as they are closed; the others may be
+     * {@link ContentIndex#add(File) added} explicitly.
+     */
+    public void setContentIndex(ContentIndex _index)
+    {
+        index = _index;
+    }
+
+    public synchronized List<Root> getRoots()
+    {
+        return new ArrayList<Root>(roots);
+    }
+
+    /**
+     * Calls {@link #serve(String, File, Access, int)} with a single-threaded
+     * pool.
+     */
+    public Root serve(String name, File local, Access access)
+            throws RemoteException, AlreadyBoundException
+    {
+        return serve(name, local, access, 1);
+    }
+
+    /**
+     * Makes the specified file (or children of it if it is a directory)
+     * available for remote streaming under the specified root name.
+     *
+     * @param name the root name (<code>null</code> for the unnamed root)
+     * @param local (if null, any accessible file will be available!)
+     * @param access what the clients are allowed to do with the files
+     * @param threads the size of the root's thread pool
+     * @throws AlreadyBoundException if a root with the same name is already
+     * served (for the same kind of streams) on this port
+     */
+    public synchronized Root serve
+            (String name, File local, Access access, int threads)
+                throws RemoteException, AlreadyBoundException
+    {
+        if (threads <= 0)
+            throw new IllegalArgumentException
+                ("Thread count is negative or zero (" + threads + ")!");
+
+        Root root = new Root(name, local, access, threads);
+
+        boolean bound = false;
+        try {
+            if (root.input != null)
+                bind(RemoteFileInputStream.Streamer.regName, name, root.input);
+            try {
+                if (root.output != null)
+                    bind(RemoteFileOutputStream.Streamer.regName
+                        , name, root.output);
+                bound = true;
+            } finally {
+                if (!bound && root.input != null)
+                    unbind(RemoteFileInputStream.Streamer.regName
+                          , name, root.input);
+            }
+        } finally {
+            if (!bound)
+                root.executor.shutdown();
+        }
+
+        roots.add(root);
+        register("root", name, root.metrics);
+
+        return root;
+    }
+
+    /**
+     * Stops serving the specified root.
+     */
+    public synchronized void unserve(Root root) throws RemoteException
+    {
+        if (roots.remove(root)) {
+            close(root);
+            unregister("root", root.name);
+        }
+    }
+
+    /**
+     * Stops serving all of the roots (and forgets the server, should it be
+     * the one {@link #getInstance(int)} returns).
+     */
+    public synchronized void close() throws RemoteException
+    {
+        synchronized (RemoteFileServer.class) {
+            if (instances.get(port) == this)
+                instances.remove(port);
+        }
+
+        for (Root root : roots) {
+            close(root);
+            unregister("root", root.name);
+        }
+
+        roots.clear();
+
+        for (String client : clientMetrics.keySet())
+            unregister("client", client);
+        unregister(null, null);
+
+        if (multiplexer != null) {
+            try {
+                multiplexer.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+            for (MultiplexedConnection connection : connections)
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            connections.clear();
+            pumps.shutdown();
+            multiplexer = null;
+        }
+    }
+
+    /**
+     * Serves the roots over {@link MultiplexedConnection}s too, accepting
+     * them on the specified port.
+     *
+     * @see MultiplexedFileClient
+     */
+    public void serveMultiplexed(int _port) throws IOException
+    {
+        serveMultiplexed(_port, MultiplexedConnection.DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window the channels' credit window (must be the clients' one)
+     */
+    public synchronized void serveMultiplexed(int _port, final int window)
+            throws IOException
+    {
+        if (multiplexer != null)
+            throw new IllegalStateException
+                ("Already serving multiplexed on " + multiplexer);
+
+        final ServerSocket ss = new ServerSocket(_port);
+        final ExecutorService pumps_ = Executors.newCachedThreadPool();
+        final MultiplexedConnection.Handler handler
+            = new MultiplexedConnection.Handler() {
+                public void opened( final MultiplexedConnection.Channel channel
+                                  , final byte[] request) {
+                    try {
+                        pumps_.execute(new Runnable() {
+                            public void run() {
+                                pump(channel, request);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        channel.reset("Server is closed");
+                    }
+                }
+            };
+
+        multiplexer = ss;
+        pumps = pumps_;
+
+        Thread acceptor = new Thread("RemoteFileServer multiplexer on "
+                                     + ss.getLocalPort()) {
+            @Override public void run() {
+                try {
+                    while (true) {
+                        Socket socket = ss.accept();
+                        MultiplexedConnection connection
+                            = new MultiplexedConnection
+                                (socket, handler, window);
+                        accepted(connection);
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public synchronized int getMultiplexedPort()
+    {
+        return (multiplexer == null) ? -1 : multiplexer.getLocalPort();
+    }
+
+
+    /**
+     * The host of the RMI client being served right now.
+     */
+    protected static String clientHost()
+    {
+        try {
+            return RemoteServer.getClientHost();
+        } catch (ServerNotActiveException e) {
+            // Not an RMI call, so a local one
+            return "localhost";
+        }
+    }
+
+    /**
+     * Returns the limiters for a new stream of the client (<code>null</code>
+     * if there are no limits), bringing them up to date with the
+     * configuration.
+     */
+    protected BandwidthLimiter[] limiters(String client)
+    {
+        BandwidthConfiguration bandwidth_ = bandwidth;
+
+        if (bandwidth_ == null)
+            return null;
+
+        int burst = bandwidth_.burstBytes.get();
+
+        synchronized (clients) {
+            Client client_ = clients.get(client);
+
+            if (client_ == null) {
+                client_ = new Client(new BandwidthLimiter(0, burst));
+                clients.put(client, client_);
+            }
+
+            client_.limiter.setBandwidth
+                (bandwidth_.clientBytesPerMilli.get(), burst);
+            totalLimiter.setBandwidth
+                (bandwidth_.totalBytesPerMilli.get(), burst);
+            client_.streams++;
+
+            return new BandwidthLimiter[] { client_.limiter, totalLimiter };
+        }
+    }
+
+    protected void released(String client)
+    {
+        synchronized (clients) {
+            Client client_ = clients.get(client);
+
+            if (client_ != null && --client_.streams == 0)
+                clients.remove(client);
+        }
+    }
+
+    /**
+     * Returns the metrics the root's streams and calls for the client are
+     * recorded to.
+     */
+    protected StreamMetrics[] metrics(Root root, String client)
+    {
+        StreamMetrics client_ = clientMetrics.get(client);
+
+        if (client_ == null) {
+            StreamMetrics new_ = new StreamMetrics();
+            client_ = clientMetrics.putIfAbsent(client, new_);
+            if (client_ == null) {
+                client_ = new_;
+                register("client", client, client_);
+            }
+        }
+
+        return (root == null) ? new StreamMetrics[] { metrics, client_ }
+            : new StreamMetrics[] { metrics, root.metrics, client_ };
+    }
+
+    /**
+     * Wraps a stream served to the client for the bandwidth limits and the
+     * metrics.
+     *
+     * @param upload whether the stream is the client's upload (the bytes are
+     * counted as received then, as sent otherwise)
+     */
+    protected InputStream served
+            (Root root, String client, InputStream in, final boolean upload)
+    {
+        final StreamMetrics[] metrics_ = metrics(root, client);
+        final long start = System.nanoTime();
+
+        for (StreamMetrics m : metrics_)
+            m.opened();
+
+        return new FilterInputStream(limit(client, in)) {
+            @Override public int read() throws IOException {
+                int b = in.read();
+                if (b != -1)
+                    counted(1);
+                return b;
+            }
+            @Override public int read(byte[] b, int off, int len)
+                    throws IOException {
+                int bytes = in.read(b, off, len);
+                if (bytes > 0)
+                    counted(bytes);
+                return bytes;
+            }
+            private void counted(int bytes) {
+                for (StreamMetrics m : metrics_)
+                    if (upload)
+                        m.received(bytes);
+                    else
+                        m.sent(bytes);
+            }
+            @Override public void close() throws IOException {
+                if (closed)
+                    return;
+                closed = true;
+                try {
+                    in.close();
+                } finally {
+                    long nanos = System.nanoTime() - start;
+                    for (StreamMetrics m : metrics_)
+                        m.closed(nanos);
+                }
+            }
+            boolean closed = false;
+        };
+    }
+
+    /**
+     * @see #served(Root, String, InputStream, boolean)
+     */
+    protected OutputStream served(Root root, String client, OutputStream out)
+    {
+        final StreamMetrics[] metrics_ = metrics(root, client);
+        final long start = System.nanoTime();
+
+        for (StreamMetrics m : metrics_)
+            m.opened();
+
+        return new FilterOutputStream(limit(client, out)) {
+            @Override public void write(int b) throws IOException {
+                out.write(b);
+                for (StreamMetrics m : metrics_)
+                    m.received(1);
+            }
+            @Override public void write(byte[] b, int off, int len)
+                    throws IOException {
+                out.write(b, off, len);
+                for (StreamMetrics m : metrics_)
+                    m.received(len);
+            }
+            @Override public void close() throws IOException {
+                if (closed)
+                    return;
+                closed = true;
+                try {
+                    super.close();
+                } finally {
+                    long nanos = System.nanoTime() - start;
+                    for (StreamMetrics m : metrics_)
+                        m.closed(nanos);
+                }
+            }
+            boolean closed = false;
+        };
+    }
+
+    protected void register(String key, String value, StreamMetrics bean)
+    {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean
+                (bean, objectName(key, value));
+        } catch (JMException e) {
+            // E.g. another server of the port in another class loader: the
+            // metrics are still there, just not published
+        }
+    }
+
+    protected void unregister(String key, String value)
+    {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean
+                (objectName(key, value));
+        } catch (JMException e) {
+            // Not registered, fine
+        }
+    }
+
+    protected ObjectName objectName(String key, String value)
+            throws MalformedObjectNameException
+    {
+        return new ObjectName
+            ( "x.java.net.io:type=RemoteFileServer,port=" + port
+              + ((key == null) ? ""
+                 : "," + key + "=" + ObjectName.quote(String.valueOf(value))));
+    }
+
+    protected InputStream limit(final String client, InputStream in)
+    {
+        BandwidthLimiter[] limiters_ = limiters(client);
+
+        if (limiters_ == null)
+            return in;
+
+        return new LimitedBandwidthInputStream
+                    (in, limiters_, limiters_[0].getBurstSize()) {
+            @Override public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    released(client);
+                }
+            }
+        };
+    }
+
+    protected OutputStream limit(final String client, OutputStream out)
+    {
+        BandwidthLimiter[] limiters_ = limiters(client);
+
+        if (limiters_ == null)
+            return out;
+
+        return new LimitedBandwidthOutputStream
+                    (out, limiters_, limiters_[0].getBurstSize()) {
+            @Override public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    released(client);
+                }
+            }
+        };
+    }
+
+    protected InputStream openInput(File file) throws IOException
+    {
+        FileCache cache_ = cache;
+
+        return (cache_ == null) ? new FileInputStream(file)
+                                : cache_.open(file);
+    }
+
+    protected OutputStream openOutput(File file) throws IOException
+    {
+        return openOutput(file, false);
+    }
+
+    /**
+     * Opens the file for writing. Unless appended to, the file is replaced
+     * with the one written once it is closed, rather than rewritten in place:
+     * the readers of the old content (e.g. the ones of a mapping of the
+     * {@link FileCache}) keep reading it.
+     */
+    protected OutputStream openOutput(final File file, boolean append)
+            throws IOException
+    {
+        writing(file);
+
+        final File tmp = append ? null : replacement(file);
+        OutputStream out;
+        try {
+            out = new FileOutputStream(append ? file : tmp, append);
+        } catch (IOException e) {
+            if (tmp != null)
+                tmp.delete();
+            throw e;
+        }
+
+        return new FilterOutputStream(out) {
+            @Override public void write(byte[] b, int off, int len)
+                    throws IOException {
+                out.write(b, off, len);
+            }
+            @Override public void close() throws IOException {
+                if (closed)
+                    return;
+                closed = true;
+                try {
+                    super.close();
+                    if (tmp != null)
+                        replace(tmp, file);
+                } finally {
+                    if (tmp != null)
+                        tmp.delete();
+                    written(file);
+                }
+            }
+
+            private boolean closed;
+        };
+    }
+
+    /**
+     * Opens the file for sparse writing, replacing it once closed (see
+     * {@link #openOutput(File, boolean)}).
+     */
+    protected SparseOutputStream openSparse(final File file)
+            throws IOException
+    {
+        writing(file);
+
+        final File tmp = replacement(file);
+        try {
+            return new SparseOutputStream(tmp) {
+                @Override public void close() throws IOException {
+                    if (closed)
+                        return;
+                    closed = true;
+                    try {
+                        super.close();
+                        replace(tmp, file);
+                    } finally {
+                        tmp.delete();
+                        written(file);
+                    }
+                }
+
+                private boolean closed;
+            };
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the (empty) file the new content of the file is written to,
+     * next to it.
+     */
+    protected static File replacement(File file) throws IOException
+    {
+        return File.createTempFile
+            (".write", ".tmp", file.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Puts the new content in place of the file.
+     */
+    protected static void replace(File tmp, File file) throws IOException
+    {
+        Files.move( tmp.toPath(), file.toPath()
+                  , StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Puts the content of the same hash (if the root has it) in place of
+     * the file, instead of having it sent.
+     *
+     * @return whether the content is in place
+     * @note The content is copied rather than hard-linked: the files are
+     * rewritten in place, so the links would change together.
+     * @note Only the root's own files (and only if it is readable) are
+     * copied: the ones of the other roots are none of its clients' business,
+     * whoever knows their hashes.
+     */
+    protected boolean link(Root root, File file, String hash, long length)
+            throws IOException
+    {
+        ContentIndex index_ = index;
+
+        if (index_ == null || !root.access.readable)
+            return false;
+
+        File source = null;
+        for (File candidate : index_.findAll(hash, length))
+            if (root.contains(candidate)) {
+                source = candidate;
+                break;
+            }
+
+        if (source == null)
+            return false;
+        if (source.equals(file.getAbsoluteFile()))
+            return true;
+
+        long lastModified = source.lastModified();
+        File parent = file.getAbsoluteFile().getParentFile();
+        File tmp_ = File.createTempFile(".link", ".tmp", parent);
+
+        try {
+            Files.copy( source.toPath(), tmp_.toPath()
+                      , StandardCopyOption.REPLACE_EXISTING);
+
+            // Changed while being copied?
+            if (source.lastModified() != lastModified
+                || source.length() != length || tmp_.length() != length)
+                return false;
+
+            writing(file);
+            Files.move( tmp_.toPath(), file.toPath()
+                      , StandardCopyOption.REPLACE_EXISTING);
+            FileCache cache_ = cache;
+            if (cache_ != null)
+                cache_.invalidate(file);
+            index_.put(hash, file);
+
+            return true;
+        } finally {
+            tmp_.delete();
+        }
+    }
+
+    /**
+     * Writes the zero-block encoded stream out leaving holes for the zero
+     * blocks, and closes both.
+     *
+     * @return the length written
+     * @see ZeroBlockEncodingInputStream
+     */
+    protected static long receiveSparse
+            (InputStream encoded, SparseOutputStream out) throws IOException
+    {
+        try {
+            return new ZeroBlockDecodingInputStream(encoded).copyTo(out);
+        } finally {
+            try {
+                out.close();
+            } finally {
+                encoded.close();
+            }
+        }
+    }
+
+    /**
+     * Called before the file is written, so that neither the cache nor the
+     * content index (if any) serves the file's old content.
+     */
+    protected void writing(File file) throws IOException
+    {
+        FileCache cache_ = cache;
+        ContentIndex index_ = index;
+
+        if (cache_ != null)
+            cache_.invalidate(file);
+        if (index_ != null)
+            index_.remove(file);
+    }
+
+    /**
+     * Called after the file is written: it's indexed (in the background)
+     * again.
+     */
+    protected void written(File file) throws IOException
+    {
+        FileCache cache_ = cache;
+        ContentIndex index_ = index;
+
+        if (cache_ != null)
+            cache_.invalidate(file);
+        if (index_ != null)
+            index_.addLater(file);
+    }
+
+    /**
+     * Opens the local file and the next replica in the chain (passing the
+     * rest of the chain to it). The next replica is written behind, so the
+     * hops of the chain work as a pipeline.
+     */
+    protected OutputStream openReplicated(File file, RemoteFile[] replicas)
+            throws IOException
+    {
+        OutputStream local_ = openOutput(file);
+
+        if (replicas == null || replicas.length == 0)
+            return local_;
+
+        RemoteFile[] rest = new RemoteFile[replicas.length - 1];
+        System.arraycopy(replicas, 1, rest, 0, rest.length);
+
+        try {
+            return new TeeOutputStream
+                ( local_
+                , new RemoteFileOutputStream
+                    (replicas[0], rest, REPLICATION_BUFFERS));
+        } catch (IOException e) {
+            local_.close();
+            throw e;
+        }
+    }
+
+    protected synchronized void accepted(MultiplexedConnection connection)
+    {
+        for (Iterator<MultiplexedConnection> i = connections.iterator();
+             i.hasNext(); )
+            if (!i.next().isOpen())
+                i.remove();
+
+        connections.add(connection);
+    }
+
+    protected synchronized Root root(String name, boolean write)
+    {
+        for (Root root : roots)
+            if ((name == null ? root.name == null : name.equals(root.name))
+                && (write ? root.access.writable : root.access.readable))
+                return root;
+
+        return null;
+    }
+
+    /**
+     * Serves a multiplexed channel: streams the requested file to it or
+     * from it.
+     *
+     * @see MultiplexedFileClient#request(byte, RemoteFile)
+     */
+    protected void pump(MultiplexedConnection.Channel channel, byte[] request)
+    {
+        String client = channel.getConnection().getRemoteHost();
+
+        try {
+            DataInputStream dis
+                = new DataInputStream(new ByteArrayInputStream(request));
+            final byte mode = dis.readByte();
+            String name = dis.readBoolean() ? dis.readUTF() : null;
+            final String pathname = dis.readUTF();
+
+            final Root root = root
+                ( name
+                , mode != MultiplexedFileClient.READ
+                  && mode != MultiplexedFileClient.READ_SPARSE);
+            if (root == null) {
+                for (StreamMetrics m : metrics(null, client))
+                    m.failed(true);
+                throw new DeniedException(pathname);
+            }
+
+            byte[] buffer = new byte[MultiplexedConnection.MAX_FRAME];
+
+            if (mode == MultiplexedFileClient.READ
+                || mode == MultiplexedFileClient.READ_SPARSE) {
+                InputStream in = root.served(client, root.open
+                    (client, new Callable<InputStream>() {
+                        public InputStream call() throws IOException {
+                            InputStream in_ = openInput(root.resolve(pathname));
+                            return (mode == MultiplexedFileClient.READ)
+                                ? in_ : new ZeroBlockEncodingInputStream(in_);
+                        }
+                    }));
+                OutputStream out = channel.getOutputStream();
+                try {
+                    for (int bytes = in.read(buffer); bytes != -1;
+                         bytes = in.read(buffer))
+                        out.write(buffer, 0, bytes);
+                } finally {
+                    in.close();
+                }
+                out.close();
+            } else if (mode == MultiplexedFileClient.LINK) {
+                final String hash = dis.readUTF();
+                final long length = dis.readLong();
+                boolean linked = root.open(client, new Callable<Boolean>() {
+                    public Boolean call() throws IOException {
+                        return link
+                            (root, root.resolve(pathname), hash, length);
+                    }
+                });
+                OutputStream out = channel.getOutputStream();
+                out.write(linked ? 1 : 0);
+                out.close();
+            } else if (mode == MultiplexedFileClient.INDEXED) {
+                OutputStream out = channel.getOutputStream();
+                out.write((index != null) ? 1 : 0);
+                out.close();
+            } else if (mode == MultiplexedFileClient.WRITE_SPARSE) {
+                SparseOutputStream out
+                    = root.open(client, new Callable<SparseOutputStream>() {
+                        public SparseOutputStream call() throws IOException {
+                            return openSparse(root.resolve(pathname));
+                        }
+                    });
+                receiveSparse
+                    (root.received(client, channel.getInputStream()), out);
+                channel.getOutputStream().close();
+            } else if (mode == MultiplexedFileClient.WRITE
+                       || mode == MultiplexedFileClient.APPEND) {
+                OutputStream out = root.served(client, root.open
+                    (client, new Callable<OutputStream>() {
+                        public OutputStream call() throws IOException {
+                            return openOutput
+                                ( root.resolve(pathname)
+                                , mode == MultiplexedFileClient.APPEND);
+                        }
+                    }));
+                InputStream in = channel.getInputStream();
+                try {
+                    for (int bytes = in.read(buffer); bytes != -1;
+                         bytes = in.read(buffer))
+                        out.write(buffer, 0, bytes);
+                } finally {
+                    out.close();
+                }
+                channel.getOutputStream().close();
+            } else
+                // Never taken for a write (e.g. a truncating one)
+                channel.reset("Unknown mode (" + mode + ")");
+        } catch (IOException e) {
+            channel.reset(e.getMessage() != null ? e.getMessage()
+                                                 : e.toString());
+        }
+    }
+
+    protected void bind(String regName, String root, Remote streamer)
+            throws RemoteException, AlreadyBoundException
+    {
+        Remote stub = UnicastRemoteObject.exportObject(streamer, exportPort);
+        try {
+            registry.bind(bindingName(regName, root), stub);
+        } catch (AlreadyBoundException e) {
+            UnicastRemoteObject.unexportObject(streamer, true);
+            throw e;
+        }
+    }
+
+    protected void unbind(String regName, String root, Remote streamer)
+            throws RemoteException
+    {
+        try {
+            registry.unbind(bindingName(regName, root));
+        } catch (NotBoundException e) {
+            // Someone beat us to it, fine
+        }
+        try {
+            UnicastRemoteObject.unexportObject(streamer, true);
+        } catch (NoSuchObjectException e) {
+            // Not exported, fine
+        }
+    }
+
+    protected void close(Root root) throws RemoteException
+    {
+        try {
+            if (root.input != null)
+                unbind(RemoteFileInputStream.Streamer.regName
+                      , root.name, root.input);
+            if (root.output != null)
+                unbind(RemoteFileOutputStream.Streamer.regName
+                      , root.name, root.output);
+        } finally {
+            root.executor.shutdown();
+        }
+    }
+
+
+    protected static final int REPLICATION_BUFFERS = 4;
+
+    protected static final Map<Integer, RemoteFileServer> instances
+        = new HashMap<Integer, RemoteFileServer>();
+
+    protected final int port;
+    /**
+     * The port the streamers are exported on (0 for an anonymous one)
+     */
+    protected final int exportPort;
+    protected final Registry registry;
+    protected final List<Root> roots;
+    protected volatile FileCache cache;
+    protected volatile ContentIndex index;
+    protected final StreamMetrics metrics;
+    protected final ConcurrentMap<String, StreamMetrics> clientMetrics;
+    protected volatile long followPollMillis;
+    protected volatile BandwidthConfiguration bandwidth;
+    protected final Map<String, Client> clients;
+    protected final BandwidthLimiter totalLimiter;
+    protected ServerSocket multiplexer;
+    protected ExecutorService pumps;
+    protected final List<MultiplexedConnection> connections;
+}
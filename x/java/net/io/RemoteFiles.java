@@ -0,0 +1,260 @@
+/**
+ *
+ */
+package x.java.net.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadPendingException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * The asynchronous client API for the remote files: nothing here blocks the
+ * caller, everything completes a {@link CompletableFuture}.
+ *
+ * The RMI streams ({@link RemoteFileInputStream}) are inherently blocking, so
+ * their lookups and reads are run on the {@link #getExecutor() executor},
+ * which may be a virtual thread one (see
+ * {@link #newVirtualThreadExecutor()}) to have as many transfers as needed
+ * without as many OS threads. The multiplexed streams
+ * ({@link MultiplexedFileClient}) don't occupy any thread while waiting for
+ * the data at all.
+ */
+public final class RemoteFiles
+{
+    /**
+     * A channel-like reader of a remote file
+     */
+    public interface AsyncReader extends Closeable
+    {
+        /**
+         * Reads some bytes (at least one, unless at the end) into the buffer.
+         * Only one read may be pending at a time.
+         *
+         * @return the future number of bytes read, or -1 at the end
+         * @throws ReadPendingException if the previous read is not completed
+         */
+        CompletableFuture<Integer> read(ByteBuffer dst);
+    }
+
+
+    /**
+     * Opens the file asynchronously (over RMI).
+     */
+    public static CompletableFuture<AsyncReader> openAsync
+            (final RemoteFile rfile)
+    {
+        return openAsync(rfile, false, 0);
+    }
+
+    /**
+     * Opens the file asynchronously (over RMI).
+     *
+     * @see RemoteFileInputStream#RemoteFileInputStream(RemoteFile, boolean, long)
+     */
+    public static CompletableFuture<AsyncReader> openAsync
+            (final RemoteFile rfile, final boolean follow, final long offset)
+    {
+        final Executor executor_ = executor;
+
+        return supply(new Callable<AsyncReader>() {
+            public AsyncReader call() throws IOException {
+                return new StreamReader
+                    ( new RemoteFileInputStream(rfile, follow, offset)
+                    , executor_);
+            }
+        }, executor_);
+    }
+
+    /**
+     * Opens the file asynchronously (over the client's multiplexed
+     * connection). The reads don't occupy any thread while waiting.
+     */
+    public static CompletableFuture<AsyncReader> openAsync
+            (final MultiplexedFileClient client, final RemoteFile rfile)
+    {
+        final Executor executor_ = executor;
+
+        return supply(new Callable<AsyncReader>() {
+            public AsyncReader call() throws IOException {
+                return new ChannelReader
+                    (client.openChannel(rfile), executor_);
+            }
+        }, executor_);
+    }
+
+
+    public static Executor getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * Sets the executor running the blocking parts of the asynchronous
+     * operations (and completing the futures).
+     */
+    public static void setExecutor(Executor _executor)
+    {
+        if (_executor == null)
+            throw new IllegalArgumentException("Executor is null!");
+
+        executor = _executor;
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor (on a Java runtime that has
+     * virtual threads).
+     *
+     * @throws UnsupportedOperationException if the runtime doesn't have them
+     */
+    public static ExecutorService newVirtualThreadExecutor()
+    {
+        try {
+            Method method = Executors.class.getMethod
+                                ("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)method.invoke(null);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException
+                ("Virtual threads are not available in this runtime", e);
+        }
+    }
+
+
+    /**
+     * The reader of a blocking stream, reading on the executor
+     */
+    protected static class StreamReader implements AsyncReader
+    {
+        public StreamReader(InputStream _in, Executor _executor)
+        {
+            in = _in;
+            executor = _executor;
+            pending = new AtomicBoolean();
+        }
+
+
+        public CompletableFuture<Integer> read(final ByteBuffer dst)
+        {
+            if (!pending.compareAndSet(false, true))
+                throw new ReadPendingException();
+
+            return supply(new Callable<Integer>() {
+                public Integer call() throws IOException {
+                    try {
+                        return read_(dst);
+                    } finally {
+                        pending.set(false);
+                    }
+                }
+            }, executor);
+        }
+
+        public void close() throws IOException
+        {
+            in.close();
+        }
+
+
+        protected int read_(ByteBuffer dst) throws IOException
+        {
+            if (!dst.hasRemaining())
+                return 0;
+
+            if (dst.hasArray()) {
+                int bytes = in.read( dst.array()
+                                   , dst.arrayOffset() + dst.position()
+                                   , dst.remaining());
+                if (bytes > 0)
+                    dst.position(dst.position() + bytes);
+                return bytes;
+            }
+
+            byte[] b = new byte[Math.min(dst.remaining(), BUFFER_SIZE)];
+            int bytes = in.read(b);
+            if (bytes > 0)
+                dst.put(b, 0, bytes);
+
+            return bytes;
+        }
+
+
+        protected static final int BUFFER_SIZE = 8192;
+
+        protected final InputStream in;
+        protected final Executor executor;
+        protected final AtomicBoolean pending;
+    }
+
+
+    /**
+     * The reader of a multiplexed channel
+     */
+    protected static class ChannelReader implements AsyncReader
+    {
+        public ChannelReader( MultiplexedConnection.Channel _channel
+                            , Executor _executor)
+        {
+            channel = _channel;
+            executor = _executor;
+        }
+
+
+        public CompletableFuture<Integer> read(ByteBuffer dst)
+        {
+            return channel.readAsync(dst, executor);
+        }
+
+        public void close() throws IOException
+        {
+            channel.getInputStream().close();
+            channel.getOutputStream().close();
+        }
+
+
+        protected final MultiplexedConnection.Channel channel;
+        protected final Executor executor;
+    }
+
+
+    protected static <T> CompletableFuture<T> supply
+            (final Callable<T> task, Executor executor)
+    {
+        return CompletableFuture.supplyAsync(new Supplier<T>() {
+            public T get() {
+                try {
+                    return task.call();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }, executor);
+    }
+
+
+    private RemoteFiles()
+    {
+    }
+
+
+    protected static volatile Executor executor
+        = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RemoteFiles");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+}
@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package x.java.net.io;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import x.java.util.Histogram;
+
+/**
+ * The counters of the streams served by a {@link RemoteFileServer} (as a
+ * whole, per root or per client), recorded without locking and published as
+ * an MBean.
+ *
+ * @see RemoteFileServer#getMetrics()
+ */
+public class StreamMetrics implements StreamMetricsMBean
+{
+    public StreamMetrics()
+    {
+        activeStreams = new LongAdder();
+        openedStreams = new LongAdder();
+        bytesOut = new LongAdder();
+        bytesIn = new LongAdder();
+        failedCalls = new LongAdder();
+        deniedAccesses = new LongAdder();
+        callLatency = new Histogram();
+        streamLifetime = new Histogram();
+    }
+
+
+    public void called(long nanos)
+    {
+        callLatency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void failed(boolean denied)
+    {
+        failedCalls.increment();
+        if (denied)
+            deniedAccesses.increment();
+    }
+
+    public void opened()
+    {
+        openedStreams.increment();
+        activeStreams.increment();
+    }
+
+    public void closed(long lifetimeNanos)
+    {
+        activeStreams.decrement();
+        streamLifetime.record(TimeUnit.NANOSECONDS.toMillis(lifetimeNanos));
+    }
+
+    public void sent(int bytes)
+    {
+        bytesOut.add(bytes);
+    }
+
+    public void received(int bytes)
+    {
+        bytesIn.add(bytes);
+    }
+
+
+    public long getActiveStreams()
+    {
+        return activeStreams.sum();
+    }
+
+    public long getOpenedStreams()
+    {
+        return openedStreams.sum();
+    }
+
+    public long getBytesOut()
+    {
+        return bytesOut.sum();
+    }
+
+    public long getBytesIn()
+    {
+        return bytesIn.sum();
+    }
+
+    public long getFailedCalls()
+    {
+        return failedCalls.sum();
+    }
+
+    public long getDeniedAccesses()
+    {
+        return deniedAccesses.sum();
+    }
+
+    public long getCalls()
+    {
+        return callLatency.getCount();
+    }
+
+    public long getCallLatencyMicrosMean()
+    {
+        return callLatency.getMean();
+    }
+
+    public long getCallLatencyMicrosP50()
+    {
+        return callLatency.getPercentile(50);
+    }
+
+    public long getCallLatencyMicrosP99()
+    {
+        return callLatency.getPercentile(99);
+    }
+
+    public long getStreamLifetimeMillisP50()
+    {
+        return streamLifetime.getPercentile(50);
+    }
+
+    public long getStreamLifetimeMillisP99()
+    {
+        return streamLifetime.getPercentile(99);
+    }
+
+    public Histogram getCallLatency()
+    {
+        return callLatency;
+    }
+
+    public Histogram getStreamLifetime()
+    {
+        return streamLifetime;
+    }
+
+
+    protected final LongAdder activeStreams;
+    protected final LongAdder openedStreams;
+    protected final LongAdder bytesOut;
+    protected final LongAdder bytesIn;
+    protected final LongAdder failedCalls;
+    protected final LongAdder deniedAccesses;
+    protected final Histogram callLatency;
+    protected final Histogram streamLifetime;
+}
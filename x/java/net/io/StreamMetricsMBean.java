@@ -0,0 +1,43 @@
+/**
+ *
+ */
+package x.java.net.io;
+
+/**
+ * The management interface of {@link StreamMetrics}
+ */
+public interface StreamMetricsMBean
+{
+    long getActiveStreams();
+
+    long getOpenedStreams();
+
+    /**
+     * The bytes sent to the clients (read by them)
+     */
+    long getBytesOut();
+
+    /**
+     * The bytes received from the clients (written by them)
+     */
+    long getBytesIn();
+
+    /**
+     * The streamer calls (and multiplexed requests) failed
+     */
+    long getFailedCalls();
+
+    long getDeniedAccesses();
+
+    long getCalls();
+
+    long getCallLatencyMicrosMean();
+
+    long getCallLatencyMicrosP50();
+
+    long getCallLatencyMicrosP99();
+
+    long getStreamLifetimeMillisP50();
+
+    long getStreamLifetimeMillisP99();
+}
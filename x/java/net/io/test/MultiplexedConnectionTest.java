@@ -0,0 +1,309 @@
+/**
+ *
+ */
+package x.java.net.io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import x.java.net.io.MultiplexedConnection;
+
+/**
+ *
+ */
+public class MultiplexedConnectionTest
+{
+    @Test
+    public void testOpenReadWriteClose() throws Exception
+    {
+        Acceptor acceptor = new Acceptor();
+        Socket[] sockets = connect();
+        MultiplexedConnection client
+            = new MultiplexedConnection(sockets[0], null, 1024);
+        MultiplexedConnection server
+            = new MultiplexedConnection(sockets[1], acceptor, 1024);
+
+        try {
+            MultiplexedConnection.Channel channel
+                = client.open("hello".getBytes("8859_1"));
+            MultiplexedConnection.Channel opened = acceptor.take();
+            assertEquals(new String(acceptor.requests.take(), "8859_1")
+                        , "hello");
+
+            // Way more than the window
+            byte[] data = pattern(100000);
+            Thread writer = writeLater(channel, data, true);
+            assertArrayEquals(readAll(opened.getInputStream()), data);
+            writer.join(5000);
+
+            opened.getOutputStream().write("bye".getBytes("8859_1"));
+            opened.getOutputStream().close();
+            assertEquals(new String(readAll(channel.getInputStream())
+                                   , "8859_1")
+                        , "bye");
+
+            // Forgotten once closed both ways
+            awaitNoChannels(client);
+            awaitNoChannels(server);
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testReset() throws Exception
+    {
+        Acceptor acceptor = new Acceptor();
+        Socket[] sockets = connect();
+        MultiplexedConnection client
+            = new MultiplexedConnection(sockets[0], null, 1024);
+        MultiplexedConnection server
+            = new MultiplexedConnection(sockets[1], acceptor, 1024);
+
+        try {
+            MultiplexedConnection.Channel channel = client.open(new byte[0]);
+            acceptor.take().reset("No such file");
+
+            try {
+                channel.getInputStream().read();
+                fail("A reset channel is read");
+            } catch (IOException e) {
+                assertEquals(e.getMessage(), "No such file");
+            }
+            try {
+                channel.getOutputStream().write(1);
+                fail("A reset channel is written");
+            } catch (IOException e) {
+                assertEquals(e.getMessage(), "No such file");
+            }
+
+            // The connection itself goes on
+            MultiplexedConnection.Channel other = client.open(new byte[0]);
+            other.getOutputStream().write(7);
+            assertEquals(acceptor.take().getInputStream().read(), 7);
+
+            // Closed, all of the channels are reset
+            server.close();
+            try {
+                other.getInputStream().read();
+                fail("A channel of a closed connection is read");
+            } catch (IOException e) {
+                // Expected
+            }
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testStalledChannel() throws Exception
+    {
+        Acceptor acceptor = new Acceptor();
+        Socket[] sockets = connect();
+        MultiplexedConnection client
+            = new MultiplexedConnection(sockets[0], null, 1024);
+        MultiplexedConnection server
+            = new MultiplexedConnection(sockets[1], acceptor, 1024);
+
+        try {
+            final MultiplexedConnection.Channel stalled
+                = client.open(new byte[0]);
+            MultiplexedConnection.Channel stalledOpened = acceptor.take();
+            final MultiplexedConnection.Channel flowing
+                = client.open(new byte[0]);
+            MultiplexedConnection.Channel flowingOpened = acceptor.take();
+
+            // The window is used up, the next write waits for the reader
+            stalled.getOutputStream().write(new byte[1024]);
+            Thread stalledWriter = writeLater(stalled, new byte[1], false);
+
+            final byte[] data = pattern(100000);
+            Thread flowingWriter = writeLater(flowing, data, false);
+            assertArrayEquals
+                (readFully(flowingOpened.getInputStream(), data.length), data);
+            flowingWriter.join(5000);
+            assertFalse(flowingWriter.isAlive());
+
+            assertTrue(stalledWriter.isAlive());
+            readFully(stalledOpened.getInputStream(), 1025);
+            stalledWriter.join(5000);
+            assertFalse(stalledWriter.isAlive());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testWindowExceeded() throws Exception
+    {
+        Acceptor acceptor = new Acceptor();
+        Socket[] sockets = connect();
+        Flooding client = new Flooding(sockets[0], 1024);
+        MultiplexedConnection server
+            = new MultiplexedConnection(sockets[1], acceptor, 1024);
+
+        try {
+            MultiplexedConnection.Channel channel = client.open(new byte[0]);
+            MultiplexedConnection.Channel opened = acceptor.take();
+
+            client.flood(channel, 1025);
+
+            try {
+                opened.getInputStream().read();
+                fail("A channel exceeding its window is read");
+            } catch (IOException e) {
+                // Expected
+            }
+            try {
+                channel.getInputStream().read();
+                fail("A channel exceeding its window is not reset");
+            } catch (IOException e) {
+                assertEquals( e.getMessage()
+                            , "Channel window is exceeded by the other side");
+            }
+
+            // The other channels go on
+            MultiplexedConnection.Channel other = client.open(new byte[0]);
+            other.getOutputStream().write(new byte[1024]);
+            readFully(acceptor.take().getInputStream(), 1024);
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+
+    /**
+     * Queues the channels opened by the other side.
+     */
+    protected static class Acceptor implements MultiplexedConnection.Handler
+    {
+        public void opened
+                (MultiplexedConnection.Channel channel, byte[] request)
+        {
+            channels.add(channel);
+            requests.add(request);
+        }
+
+        public MultiplexedConnection.Channel take() throws Exception
+        {
+            MultiplexedConnection.Channel channel
+                = channels.poll(5, TimeUnit.SECONDS);
+            assertNotNull("No channel is opened", channel);
+
+            return channel;
+        }
+
+
+        public final BlockingQueue<MultiplexedConnection.Channel> channels
+            = new LinkedBlockingQueue<MultiplexedConnection.Channel>();
+        public final BlockingQueue<byte[]> requests
+            = new LinkedBlockingQueue<byte[]>();
+    }
+
+
+    /**
+     * A connection sending data regardless of the credit
+     */
+    protected static class Flooding extends MultiplexedConnection
+    {
+        public Flooding(Socket socket, int window) throws IOException
+        {
+            super(socket, null, window);
+        }
+
+
+        public void flood(Channel channel, int bytes) throws IOException
+        {
+            send(DATA, channel.getId(), new byte[bytes], 0, bytes);
+        }
+    }
+
+
+    /**
+     * Returns a pair of connected (loopback) sockets.
+     */
+    protected static Socket[] connect() throws IOException
+    {
+        ServerSocket ss = new ServerSocket(0);
+        try {
+            Socket client = new Socket("localhost", ss.getLocalPort());
+            return new Socket[] { client, ss.accept() };
+        } finally {
+            ss.close();
+        }
+    }
+
+    protected static Thread writeLater
+            ( final MultiplexedConnection.Channel channel, final byte[] data
+            , final boolean close)
+    {
+        Thread thread = new Thread() {
+            @Override public void run() {
+                try {
+                    channel.getOutputStream().write(data);
+                    if (close)
+                        channel.getOutputStream().close();
+                } catch (IOException e) {
+                    // The test will fail then
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+
+        return thread;
+    }
+
+    protected static void awaitNoChannels(MultiplexedConnection connection)
+            throws InterruptedException
+    {
+        for (int i = 0; i < 50 && connection.getChannelCount() > 0; i++)
+            Thread.sleep(100);
+
+        assertEquals(connection.getChannelCount(), 0);
+    }
+
+    protected static byte[] pattern(int size)
+    {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+            data[i] = (byte)(i * 31);
+
+        return data;
+    }
+
+    protected static byte[] readAll(InputStream is) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+
+        for (int bytes = is.read(buffer); bytes != -1; bytes = is.read(buffer))
+            baos.write(buffer, 0, bytes);
+
+        return baos.toByteArray();
+    }
+
+    protected static byte[] readFully(InputStream is, int size)
+            throws IOException
+    {
+        byte[] data = new byte[size];
+        new DataInputStream(is).readFully(data);
+
+        return data;
+    }
+}
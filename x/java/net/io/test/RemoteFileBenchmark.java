@@ -0,0 +1,404 @@
+/**
+ *
+ */
+package x.java.net.io.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import x.java.net.io.MultiplexedFileClient;
+import x.java.net.io.RemoteFile;
+import x.java.net.io.RemoteFileInputStream;
+import x.java.net.io.RemoteFileOutputStream;
+import x.java.net.io.RemoteFileServer;
+
+/**
+ * A loopback benchmark of the remote file streaming: starts a
+ * {@link RemoteFileServer} in-process and measures, per transport (RMI and
+ * multiplexed):
+ * <ul>
+ * <li>the open latency (lookup and first byte included), p50/p99;</li>
+ * <li>the read and write throughput per buffer size;</li>
+ * <li>the aggregate read throughput and open latency with the concurrent
+ * streams;</li>
+ * <li>optionally, a long-running read reporting the throughput every
+ * second;</li>
+ * </ul>
+ * along with the heap allocated per GB transferred (where the JVM can tell).
+ *
+ * Run it with <code>name=value</code> arguments (all optional):
+ * <code>port=23499 size=256 opens=500 buffers=1024,8192,65536
+ * streams=1,10,100 seconds=0 transport=rmi,mux</code> (the size is in MB).
+ *
+ * @note A main rather than a JMH suite: it's all about the whole transport
+ * (threads, sockets, RMI) anyway, so the micro-benchmarking harness doesn't
+ * add much. The numbers of a single run are noisy: compare a few runs.
+ */
+public class RemoteFileBenchmark
+{
+    /**
+     * How a transport opens the files
+     */
+    protected static abstract class Transport
+    {
+        protected Transport(String _name)
+        {
+            name = _name;
+        }
+
+
+        public abstract InputStream openInput(RemoteFile rfile)
+            throws IOException;
+
+        public abstract OutputStream openOutput(RemoteFile rfile)
+            throws IOException;
+
+
+        public final String name;
+    }
+
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("port", "23499");
+        options.put("size", "256");
+        options.put("opens", "500");
+        options.put("buffers", "1024,8192,65536");
+        options.put("streams", "1,10,100");
+        options.put("seconds", "0");
+        options.put("transport", "rmi,mux");
+
+        for (String arg : args) {
+            int i = arg.indexOf('=');
+            if (i == -1 || !options.containsKey(arg.substring(0, i))) {
+                System.err.println("Unknown argument: " + arg);
+                System.err.println("Known ones (with defaults): " + options);
+                return;
+            }
+            options.put(arg.substring(0, i), arg.substring(i + 1));
+        }
+
+        new RemoteFileBenchmark
+            ( Integer.parseInt(options.get("port"))
+            , Long.parseLong(options.get("size")) * 1024 * 1024)
+                .run( Integer.parseInt(options.get("opens"))
+                    , ints(options.get("buffers"))
+                    , ints(options.get("streams"))
+                    , Integer.parseInt(options.get("seconds"))
+                    , options.get("transport").split(","));
+    }
+
+
+    public RemoteFileBenchmark(int _port, long _size) throws IOException
+    {
+        size = _size;
+
+        dir = File.createTempFile("RemoteFileBenchmark", "");
+        dir.delete();
+        dir.mkdir();
+
+        writeFile(new File(dir, "small"), 1024);
+        writeFile(new File(dir, "large"), size);
+
+        server = new RemoteFileServer(_port);
+        try {
+            server.serve(ROOT, dir, RemoteFileServer.Access.READ_WRITE, 16);
+        } catch (Exception e) {
+            throw new IOException("Cannot serve " + dir, e);
+        }
+        server.serveMultiplexed(0);
+
+        client = new MultiplexedFileClient
+            ("localhost", server.getMultiplexedPort());
+
+        transports = new HashMap<String, Transport>();
+        transports.put("rmi", new Transport("rmi") {
+            public InputStream openInput(RemoteFile rfile)
+                    throws IOException {
+                return new RemoteFileInputStream(rfile);
+            }
+            public OutputStream openOutput(RemoteFile rfile)
+                    throws IOException {
+                return new RemoteFileOutputStream(rfile);
+            }
+        });
+        transports.put("mux", new Transport("mux") {
+            public InputStream openInput(RemoteFile rfile)
+                    throws IOException {
+                return client.openInput(rfile);
+            }
+            public OutputStream openOutput(RemoteFile rfile)
+                    throws IOException {
+                return client.openOutput(rfile, false);
+            }
+        });
+
+        port = _port;
+    }
+
+
+    public void run( int opens, int[] buffers, int[] streams, int seconds
+                   , String[] names) throws Exception
+    {
+        try {
+            for (String name : names) {
+                Transport transport = transports.get(name);
+                if (transport == null)
+                    throw new IllegalArgumentException
+                        ("Unknown transport (" + name + ")!");
+
+                System.out.println("== " + transport.name);
+                openLatency(transport, opens);
+                for (int buffer : buffers) {
+                    readThroughput(transport, buffer);
+                    writeThroughput(transport, buffer);
+                }
+                for (int count : streams)
+                    concurrentReads(transport, count);
+                if (seconds > 0)
+                    sustainedRead(transport, seconds);
+            }
+        } finally {
+            client.close();
+            server.close();
+            for (File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+
+    protected void openLatency(Transport transport, int opens)
+            throws IOException
+    {
+        long[] nanos = new long[opens];
+        RemoteFile rfile = rfile("small");
+
+        for (int i = 0; i < opens; i++) {
+            long start = System.nanoTime();
+            InputStream in = transport.openInput(rfile);
+            in.read();
+            nanos[i] = System.nanoTime() - start;
+            in.close();
+        }
+
+        System.out.println("open+first byte: " + percentiles(nanos));
+    }
+
+    protected void readThroughput(Transport transport, int buffer)
+            throws IOException
+    {
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+
+        long bytes = read(transport, rfile("large"), buffer);
+
+        report("read  buffer=" + buffer, bytes, start, allocated);
+    }
+
+    protected void writeThroughput(Transport transport, int buffer)
+            throws IOException
+    {
+        byte[] b = new byte[buffer];
+        new Random(1).nextBytes(b);
+
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+
+        OutputStream out = transport.openOutput(rfile("written"));
+        long bytes = 0;
+        for (; bytes < size; bytes += buffer)
+            out.write(b);
+        out.close();
+
+        report("write buffer=" + buffer, bytes, start, allocated);
+    }
+
+    protected void concurrentReads(final Transport transport, int count)
+            throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        final long[] nanos = new long[count];
+        final long perStream = Math.max(size / count, 1024 * 1024);
+        List<Future<Long>> results = new ArrayList<Future<Long>>();
+
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            final int i_ = i;
+            results.add(executor.submit(new Callable<Long>() {
+                public Long call() throws IOException {
+                    long start_ = System.nanoTime();
+                    InputStream in = transport.openInput(rfile("large"));
+                    byte[] b = new byte[65536];
+                    long bytes = in.read(b);
+                    nanos[i_] = System.nanoTime() - start_;
+                    for (int n = 0; n != -1 && bytes < perStream;
+                         n = in.read(b))
+                        bytes += n;
+                    in.close();
+                    return bytes;
+                }
+            }));
+        }
+
+        long bytes = 0;
+        for (Future<Long> result : results)
+            bytes += result.get();
+        executor.shutdown();
+
+        report("read  streams=" + count, bytes, start, allocated);
+        System.out.println("  open+first byte: " + percentiles(nanos));
+    }
+
+    protected void sustainedRead(Transport transport, int seconds)
+            throws IOException
+    {
+        byte[] b = new byte[65536];
+        long end = System.currentTimeMillis() + seconds * 1000L;
+
+        while (System.currentTimeMillis() < end) {
+            long start = System.nanoTime();
+            long bytes = 0;
+            InputStream in = transport.openInput(rfile("large"));
+            try {
+                while (System.nanoTime() - start < 1000000000L) {
+                    int n = in.read(b);
+                    if (n == -1) {
+                        in.close();
+                        in = transport.openInput(rfile("large"));
+                    } else
+                        bytes += n;
+                }
+            } finally {
+                in.close();
+            }
+            report("read  sustained", bytes, start, -1);
+        }
+    }
+
+
+    protected RemoteFile rfile(String name)
+    {
+        return new RemoteFile("localhost", port, ROOT, name);
+    }
+
+    protected static long read
+            (Transport transport, RemoteFile rfile, int buffer)
+        throws IOException
+    {
+        InputStream in = transport.openInput(rfile);
+        byte[] b = new byte[buffer];
+        long bytes = 0;
+
+        try {
+            for (int n = in.read(b); n != -1; n = in.read(b))
+                bytes += n;
+        } finally {
+            in.close();
+        }
+
+        return bytes;
+    }
+
+    protected static void report
+            (String what, long bytes, long startNanos, long allocatedBefore)
+    {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        String line = String.format
+            ( "%-22s %8.1f MB/s", what
+            , bytes / seconds / (1024 * 1024));
+
+        long allocated = allocatedBytes();
+        if (allocatedBefore >= 0 && allocated >= 0)
+            line += String.format
+                ( ", %8.1f MB allocated/GB"
+                , (allocated - allocatedBefore) / (bytes / 1024.0));
+
+        System.out.println(line);
+    }
+
+    protected static String percentiles(long[] nanos)
+    {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+
+        return String.format
+            ( "p50 %.2f ms, p99 %.2f ms, max %.2f ms"
+            , sorted[sorted.length / 2] / 1e6
+            , sorted[(int)(sorted.length * 0.99)] / 1e6
+            , sorted[sorted.length - 1] / 1e6);
+    }
+
+    /**
+     * The bytes allocated by all of the live threads so far (-1 if the JVM
+     * cannot tell). The threads gone are not counted, so it's a lower bound.
+     */
+    protected static long allocatedBytes()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean)bean)
+                            .getThreadAllocatedBytes(bean.getAllThreadIds()))
+            if (bytes > 0)
+                total += bytes;
+
+        return total;
+    }
+
+    protected static void writeFile(File file, long size) throws IOException
+    {
+        byte[] b = new byte[65536];
+        new Random(0).nextBytes(b);
+
+        OutputStream out = new FileOutputStream(file);
+        try {
+            for (long togo = size; togo > 0; togo -= b.length)
+                out.write(b, 0, (int)Math.min(togo, b.length));
+        } finally {
+            out.close();
+        }
+    }
+
+    protected static int[] ints(String list)
+    {
+        String[] items = list.split(",");
+        int[] values = new int[items.length];
+
+        for (int i = 0; i < items.length; i++)
+            values[i] = Integer.parseInt(items[i].trim());
+
+        return values;
+    }
+
+
+    protected static final String ROOT = "bench";
+
+    protected final long size;
+    protected final File dir;
+    protected final RemoteFileServer server;
+    protected final MultiplexedFileClient client;
+    protected final Map<String, Transport> transports;
+    protected final int port;
+}
@@ -0,0 +1,439 @@
+package x.java.net.io.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.rmi.AlreadyBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Random;
+
+import org.junit.Test;
+
+import x.java.io.ContentIndex;
+import x.java.net.io.MultiplexedConnection;
+import x.java.net.io.MultiplexedFileClient;
+import x.java.net.io.RemoteFile;
+import x.java.net.io.RemoteFileOutputStream;
+import x.java.net.io.RemoteFileServer;
+
+/**
+ *
+ */
+public class RemoteFileServerTest
+{
+    @Test
+    public void testResolve() throws IOException, AlreadyBoundException
+    {
+        File dir = Files.createTempDirectory("root").toFile();
+        File local = new File(dir, "root").getCanonicalFile();
+        File sub = new File(local, "sub");
+        assertTrue(sub.mkdirs());
+        File file = new File(sub, "file");
+        new FileOutputStream(file).close();
+        // Sharing the root's name as a prefix
+        File sibling = new File(dir, "rootX");
+        assertTrue(sibling.mkdir());
+        File outside = new File(sibling, "file");
+        new FileOutputStream(outside).close();
+
+        RemoteFileServer server = new RemoteFileServer(freePort());
+        try {
+            RemoteFileServer.Root root = server.serve
+                ("test", local, RemoteFileServer.Access.READ);
+
+            // Relative pathnames are the root's, not the working directory's
+            assertEquals(root.resolve("sub/file"), file);
+            assertEquals(root.resolve("sub/../sub/./file"), file);
+            assertEquals(root.resolve(""), local);
+            assertEquals(root.resolve(file.getPath()), file);
+
+            assertDenied(root, "..");
+            assertDenied(root, "sub/../../rootX/file");
+            assertDenied(root, "../rootX/file");
+            assertDenied(root, outside.getPath());
+            assertDenied(root, File.separator);
+
+            File inLink = new File(local, "in");
+            File outLink = new File(local, "out");
+            try {
+                Files.createSymbolicLink(inLink.toPath(), sub.toPath());
+                Files.createSymbolicLink(outLink.toPath(), sibling.toPath());
+            } catch (UnsupportedOperationException e) {
+                return;
+            }
+            assertEquals(root.resolve("in/file"), file);
+            assertDenied(root, "out/file");
+            assertDenied(root, "out");
+        } finally {
+            server.close();
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testCloseForgetsInstance() throws IOException
+    {
+        int port = freePort();
+        RemoteFileServer server = RemoteFileServer.getInstance(port);
+
+        assertSame(RemoteFileServer.getInstance(port), server);
+        server.close();
+
+        RemoteFileServer again = RemoteFileServer.getInstance(port);
+        assertNotSame(again, server);
+        again.close();
+    }
+
+    @Test
+    public void testAppend() throws Exception
+    {
+        File dir = Files.createTempDirectory("root").toFile();
+        int port = freePort();
+        RemoteFileServer server = new RemoteFileServer(port);
+        try {
+            server.serve("test", dir, RemoteFileServer.Access.READ_WRITE);
+            // The registry is the server's own
+            assertEquals(server.getExportPort(), port);
+            RemoteFile rfile = new RemoteFile("localhost", port, "test", "f");
+
+            OutputStream out = new RemoteFileOutputStream(rfile);
+            out.write("abc".getBytes("8859_1"));
+            out.close();
+            out = new RemoteFileOutputStream(rfile, true);
+            out.write("def".getBytes("8859_1"));
+            out.close();
+            out = new RemoteFileOutputStream(rfile, true, 2);
+            out.write("ghi".getBytes("8859_1"));
+            out.close();
+            assertEquals(new String(Files.readAllBytes
+                                        (new File(dir, "f").toPath())
+                                   , "8859_1")
+                        , "abcdefghi");
+
+            // Not appended to, replaced
+            out = new RemoteFileOutputStream(rfile, false, 2);
+            out.write("jkl".getBytes("8859_1"));
+            out.close();
+            assertEquals(new String(Files.readAllBytes
+                                        (new File(dir, "f").toPath())
+                                   , "8859_1")
+                        , "jkl");
+        } finally {
+            server.close();
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testExistingRegistry() throws Exception
+    {
+        File dir = Files.createTempDirectory("root").toFile();
+        int port = freePort();
+        Registry registry = LocateRegistry.createRegistry(port);
+        RemoteFileServer server = new RemoteFileServer(port);
+        try {
+            // Not necessarily this process' one: not on its port
+            assertEquals(server.getExportPort(), 0);
+            server.serve("test", dir, RemoteFileServer.Access.READ_WRITE);
+
+            RemoteFile rfile = new RemoteFile("localhost", port, "test", "f");
+            OutputStream out = new RemoteFileOutputStream(rfile);
+            out.write("abc".getBytes("8859_1"));
+            out.close();
+            assertEquals(new String(Files.readAllBytes
+                                        (new File(dir, "f").toPath())
+                                   , "8859_1")
+                        , "abc");
+        } finally {
+            server.close();
+            UnicastRemoteObject.unexportObject(registry, true);
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testMultiplexed() throws Exception
+    {
+        File dir = Files.createTempDirectory("root").toFile();
+        int port = freePort();
+        RemoteFileServer server = new RemoteFileServer(port);
+        MultiplexedFileClient client = null;
+        try {
+            server.serve("test", dir, RemoteFileServer.Access.READ_WRITE);
+            server.serveMultiplexed(0);
+            client = new MultiplexedFileClient
+                ("localhost", server.getMultiplexedPort());
+
+            // Written and read back (more than a window of each)
+            RemoteFile rfile = new RemoteFile("localhost", port, "test", "f");
+            byte[] data = new byte[300000];
+            for (int i = 0; i < data.length; i++)
+                data[i] = (byte)(i * 31);
+            OutputStream out = client.openOutput(rfile, false);
+            out.write(data);
+            out.close();
+            assertArrayEquals(Files.readAllBytes(new File(dir, "f").toPath())
+                             , data);
+
+            // A stream not read doesn't stall the others
+            InputStream stalled = client.openInput(rfile);
+            assertEquals(stalled.read(), data[0] & 0xff);
+            assertArrayEquals(readAll(client.openInput(rfile)), data);
+            stalled.close();
+
+            // The server's failure is the stream's one
+            try {
+                readAll(client.openInput
+                    (new RemoteFile("localhost", port, "test", "none")));
+                fail("A missing file is read");
+            } catch (IOException e) {
+                // Expected
+            }
+
+            // The zero blocks are sent compactly, the content is the same
+            File local = File.createTempFile("sparse", ".bin");
+            RandomAccessFile raf = new RandomAccessFile(local, "rw");
+            raf.seek(1 << 20);
+            raf.write(data);
+            raf.close();
+            RemoteFile sparse
+                = new RemoteFile("localhost", port, "test", "sparse");
+            assertFalse(client.isIndexed(sparse));
+            long bytesIn = server.getMetrics().getBytesIn();
+            long bytesOut = server.getMetrics().getBytesOut();
+            long sent = client.upload(local, sparse);
+            assertTrue(sent < local.length());
+            // Counted as received, not as sent
+            assertEquals(server.getMetrics().getBytesIn() - bytesIn, sent);
+            assertEquals(server.getMetrics().getBytesOut() - bytesOut, 0);
+            assertArrayEquals
+                ( Files.readAllBytes(new File(dir, "sparse").toPath())
+                , Files.readAllBytes(local.toPath()));
+            File back = File.createTempFile("sparse", ".bin");
+            assertEquals(client.download(sparse, back), local.length());
+            assertArrayEquals( Files.readAllBytes(back.toPath())
+                             , Files.readAllBytes(local.toPath()));
+
+            // Indexed, the same content is not sent again
+            File store = File.createTempFile("index", ".txt");
+            ContentIndex index = new ContentIndex(store);
+            index.add(new File(dir, "sparse"));
+            server.setContentIndex(index);
+            RemoteFile copy = new RemoteFile("localhost", port, "test", "copy");
+            assertTrue(client.isIndexed(copy));
+            assertEquals(client.upload(local, copy), 0);
+            assertEquals(new File(dir, "copy").length(), local.length());
+            server.setContentIndex(null);
+            index.close();
+
+            store.delete();
+            local.delete();
+            back.delete();
+        } finally {
+            if (client != null)
+                client.close();
+            server.close();
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testLinkConfined() throws Exception
+    {
+        File dir = Files.createTempDirectory("root").toFile();
+        File secret = Files.createTempDirectory("secret").toFile();
+        File store = File.createTempFile("index", ".txt");
+        int port = freePort();
+        RemoteFileServer server = new RemoteFileServer(port);
+        MultiplexedFileClient client = null;
+        ContentIndex index = new ContentIndex(store);
+        try {
+            server.serve("test", dir, RemoteFileServer.Access.READ_WRITE);
+            server.serve("drop", secret, RemoteFileServer.Access.WRITE);
+            server.serveMultiplexed(0);
+            server.setContentIndex(index);
+            client = new MultiplexedFileClient
+                ("localhost", server.getMultiplexedPort());
+
+            byte[] data = new byte[100000];
+            new Random(1).nextBytes(data);
+            File local = File.createTempFile("local", ".bin");
+            Files.write(local.toPath(), data);
+            Files.write(new File(secret, "s").toPath(), data);
+            index.add(new File(secret, "s"));
+
+            // Another root's content is not copied in, but sent
+            RemoteFile copy = new RemoteFile("localhost", port, "test", "copy");
+            assertTrue(client.upload(local, copy) > 0);
+            assertArrayEquals
+                ( Files.readAllBytes(new File(dir, "copy").toPath())
+                , data);
+
+            // Nor the one of a root not readable
+            RemoteFile drop = new RemoteFile("localhost", port, "drop", "d");
+            assertTrue(client.upload(local, drop) > 0);
+
+            // The root's own content is
+            index.add(new File(dir, "copy"));
+            RemoteFile again
+                = new RemoteFile("localhost", port, "test", "again");
+            assertEquals(client.upload(local, again), 0);
+            assertArrayEquals
+                ( Files.readAllBytes(new File(dir, "again").toPath())
+                , data);
+
+            local.delete();
+        } finally {
+            if (client != null)
+                client.close();
+            server.setContentIndex(null);
+            index.close();
+            server.close();
+            store.delete();
+            delete(dir);
+            delete(secret);
+        }
+    }
+
+    @Test
+    public void testUnservedWhileOpening() throws Exception
+    {
+        File dir = Files.createTempDirectory("root").toFile();
+        Files.write(new File(dir, "f").toPath(), "abc".getBytes("8859_1"));
+        int port = freePort();
+        // Unserved as soon as found
+        RemoteFileServer server = new RemoteFileServer(port) {
+            @Override protected synchronized Root root
+                    (String name, boolean write) {
+                Root root = super.root(name, write);
+                if (root != null)
+                    try {
+                        root.unserve();
+                    } catch (RemoteException e) {
+                        throw new RuntimeException(e);
+                    }
+                return root;
+            }
+        };
+        MultiplexedFileClient client = null;
+        try {
+            server.serve("test", dir, RemoteFileServer.Access.READ);
+            server.serveMultiplexed(0);
+            client = new MultiplexedFileClient
+                ("localhost", server.getMultiplexedPort());
+
+            try {
+                readAll(client.openInput
+                    (new RemoteFile("localhost", port, "test", "f")));
+                fail("A file of a root no longer served is read");
+            } catch (IOException e) {
+                assertEquals(e.getMessage(), "Root is no longer served");
+            }
+        } finally {
+            if (client != null)
+                client.close();
+            server.close();
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testUnknownMode() throws Exception
+    {
+        File dir = Files.createTempDirectory("root").toFile();
+        File file = new File(dir, "f");
+        Files.write(file.toPath(), "abc".getBytes("8859_1"));
+        RemoteFileServer server = new RemoteFileServer(freePort());
+        MultiplexedConnection connection = null;
+        try {
+            server.serve("test", dir, RemoteFileServer.Access.READ_WRITE);
+            server.serveMultiplexed(0);
+            connection = new MultiplexedConnection
+                ( new Socket("localhost", server.getMultiplexedPort()), null
+                , MultiplexedConnection.DEFAULT_WINDOW);
+
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(request);
+            dos.writeByte(99);
+            dos.writeBoolean(true);
+            dos.writeUTF("test");
+            dos.writeUTF("f");
+            MultiplexedConnection.Channel channel
+                = connection.open(request.toByteArray());
+            try {
+                channel.getInputStream().read();
+                fail("A channel of an unknown mode is served");
+            } catch (IOException e) {
+                assertEquals(e.getMessage(), "Unknown mode (99)");
+            }
+
+            // Not written to
+            assertEquals(new String(Files.readAllBytes(file.toPath())
+                                   , "8859_1")
+                        , "abc");
+        } finally {
+            if (connection != null)
+                connection.close();
+            server.close();
+            delete(dir);
+        }
+    }
+
+
+    protected static byte[] readAll(InputStream is) throws IOException
+    {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int bytes = is.read(buffer); bytes != -1;
+                 bytes = is.read(buffer))
+                baos.write(buffer, 0, bytes);
+
+            return baos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    protected static void assertDenied
+            (RemoteFileServer.Root root, String pathname)
+    {
+        try {
+            fail(pathname + " is resolved to " + root.resolve(pathname));
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    protected static int freePort() throws IOException
+    {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    protected static void delete(File file)
+    {
+        // Not following the links
+        if (file.isDirectory() && !Files.isSymbolicLink(file.toPath()))
+            for (File child : file.listFiles())
+                delete(child);
+        file.delete();
+    }
+}
@@ -2,24 +2,37 @@
 package x.java.util;
 
 import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.rmi.AlreadyBoundException;
+import java.rmi.RemoteException;
 import java.util.AbstractCollection;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.InvalidPropertiesFormatException;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 
 /**
@@ -41,7 +54,16 @@ import java.util.Map.Entry;
  * totally restricted at the moment. This enforces the intended usage for this
  * class. However, this led to introducing a special "forgiving" method for
  * reading a file  ({@link #loadAny(InputStream)}.
- * @note And yes, this class is thought to be thread-safe, of course.
+ * @note And yes, this class is thought to be thread-safe, of course. The
+ * properties are read lock-free from an immutable {@link #snapshot()}, which is
+ * replaced (copy-on-write) by every change, or once per load.
+ * @note The defaults may come from several layers of sources (see
+ * {@link #addLayer(ConfigurationLayer)}), e.g. the files, the environment and
+ * the command line, resolved into the flat defaults table. The values set
+ * (or loaded) still take precedence over all of them.
+ * @note The configuration may follow its file as it changes (see
+ * {@link #watch(File)}), in which case the interested parties had better
+ * {@link #addListener(Listener) listen} to it.
  * 
  * {@todo 2.0} Create a(n external?) utility for static configuration browsing
  * or storage, or even one with some dynamic capabilities.
@@ -78,13 +100,87 @@ public abstract class Configuration extends Properties
         }
     }
     
+    /**
+     * A listener to the changes of the properties' values
+     */
+    public interface Listener
+    {
+        /**
+         * Notifies of the property's (string) value change.
+         * 
+         * @warn It's called with the configuration locked, so it had better be
+         * quick (and not wait for the other threads writing it).
+         */
+        void changed(Property _property, String _old, String _new);
+    }
+
+
+    /**
+     * The changes staged by an {@link Configuration#update(Consumer)}
+     * transaction
+     */
+    public class Editor
+    {
+        protected Editor()
+        {
+            changes = new LinkedHashMap<String, String>();
+        }
+
+
+        public Editor set(Property _property, String _value)
+        {
+            assert _value != null;
+
+            changes.put(_property.key, _value);
+            return this;
+        }
+
+        /**
+         * @throws UnknownPropertyException if there is no such property
+         */
+        public Editor set(String _key, String _value)
+        {
+            return set(property(_key), _value);
+        }
+
+        /**
+         * Resets the property to its default.
+         */
+        public Editor reset(Property _property)
+        {
+            changes.put(_property.key, null);
+            return this;
+        }
+
+        /**
+         * @throws UnknownPropertyException if there is no such property
+         */
+        public Editor reset(String _key)
+        {
+            return reset(property(_key));
+        }
+
+
+        /**
+         * The new values by the keys (<code>null</code> for the defaults)
+         */
+        protected final Map<String, String> changes;
+    }
+
+
     public abstract class Property
     {
         protected Property(String _key, String _sDescription)
         {
             assert _key != null;
             
-            mStringToProperty.put(_key, this);
+            synchronized (mStringToProperty) {
+                index = mStringToProperty.size();
+                mStringToProperty.put(_key, this);
+                // Rebuilt by the next snapshot, with all of the ones declared
+                keyIndex = null;
+            }
+            prefixed.put(prefix(_key), this);
             key = _key;
             description = _sDescription;
         }
@@ -96,10 +192,41 @@ public abstract class Configuration extends Properties
         }
 
         protected abstract void cache();
+
+        /**
+         * The value parsed by {@link #cache()} (for the snapshots)
+         */
+        protected abstract Object cached();
+
+        /**
+         * Caches the value parsed already (as returned by {@link #cached()}),
+         * e.g. by a {@link ConfigurationImage}.
+         */
+        protected void cache(Object _value)
+        {
+            cache();
+        }
+
+        /**
+         * Tells whether the value would be cached with no
+         * {@link IllegalPropertyValueException} (with no exception thrown
+         * either way).
+         */
+        protected boolean accepts(String _value)
+        {
+            return true;
+        }
         
         
         protected final String key;
         protected final String description;
+        protected final int index;
+        /**
+         * The property's part of the {@link #store(OutputStream, String)}
+         * output but the value, and its key escaped (built by the first one)
+         */
+        protected String layout;
+        protected String escapedKey;
     }
 
     
@@ -111,14 +238,14 @@ public abstract class Configuration extends Properties
             
             assert _default != null;
             
-            defaults.setProperty(key, _default);
-            cache();
+            declare(key, _default);
+            declared(this);
         }
 
         
         public String get()
         {
-            return sValue;
+            return snapshot().get(this);
         }
             
         public void set(String _sValue)
@@ -131,6 +258,11 @@ public abstract class Configuration extends Properties
             sValue = getStringProperty(key);
         }
 
+        protected Object cached()
+        {
+            return sValue;
+        }
+
         
         protected String sValue;
     }
@@ -142,13 +274,13 @@ public abstract class Configuration extends Properties
         {
             super(_key, _description);
             
-            defaults.setProperty(_key, Integer.toString(_default));
-            cache();
+            declare(_key, Integer.toString(_default));
+            declared(this);
         }
 
         public int get()
         {
-            return value;
+            return snapshot().get(this);
         }
         
         public void set(int _value)
@@ -157,258 +289,800 @@ public abstract class Configuration extends Properties
         }
 
 
+        protected boolean accepts(String _value)
+        {
+            return isInteger(_value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+
         protected void cache()
         {
             value = getIntegerProperty(key);
         }
+
+        protected Object cached()
+        {
+            return value;
+        }
+
+        protected void cache(Object _value)
+        {
+            value = (Integer)_value;
+        }
         
         
         protected int value;
     }
 
     
-    public class FormatProperty extends Property
+    public class LongProperty extends Property
     {
-        public FormatProperty(String _key, String _default, String _description)
+        public LongProperty(String _key, long _default, String _description)
         {
             super(_key, _description);
             
-            assert _default != null;
-            
-            defaults.setProperty(key, _default);
-            cache();
+            declare(_key, Long.toString(_default));
+            declared(this);
         }
 
+        public long get()
+        {
+            return snapshot().get(this);
+        }
         
-        public String get(Object ... _args)
+        public void set(long _value)
         {
-            return String.format(sValue, _args);
+            setProperty(key, Long.toString(_value));
         }
-            
-        public void set(String _sValue)
+
+
+        protected boolean accepts(String _value)
         {
-            setProperty(key, _sValue);
+            return isInteger(_value, Long.MIN_VALUE, Long.MAX_VALUE);
         }
 
         protected void cache()
         {
-            sValue = getStringProperty(key);
+            value = getLongProperty(key);
+        }
+
+        protected Object cached()
+        {
+            return value;
         }
 
+        protected void cache(Object _value)
+        {
+            value = (Long)_value;
+        }
         
-        protected String sValue;
-    }
         
+        protected long value;
+    }
 
-    /**
-     * Builds a {@link Configuration} object which prefixes its properties with
-     * the enclosing class name (if any) upon storage and removes the prefix
-     * upon loading.<br/>
-     * The properties are sorted in the creation order for output.
-     */
-    protected Configuration()
+    
+    public class BooleanProperty extends Property
     {
-        super(new Properties());
+        public BooleanProperty
+                (String _key, boolean _default, String _description)
+        {
+            super(_key, _description);
+            
+            declare(_key, Boolean.toString(_default));
+            declared(this);
+        }
+
+        public boolean get()
+        {
+            return snapshot().get(this);
+        }
         
-        mStringToProperty
-           = Collections.synchronizedMap(new LinkedHashMap<String, Property>());
+        public void set(boolean _value)
+        {
+            setProperty(key, Boolean.toString(_value));
+        }
 
-        Class<?> class_ = getClass().getEnclosingClass();
-        if (class_ != null)
-            propertyPrefix = class_.getName() + ".";
-        else
-            propertyPrefix = "";
-    }
 
-    /**
-     * Builds a {@link Configuration} object which prefixes its properties with
-     * the specified string (may be empty) upon storage and removes the prefix
-     * upon loading.<br/>
-     * The properties are sorted in the creation order for output.
-     */
-    protected Configuration(String _prefix)
-    {
-        super(new Properties());
-        
-        mStringToProperty
-           = Collections.synchronizedMap(new LinkedHashMap<String, Property>());
+        /**
+         * @see Properties#getBooleanProperty(String)
+         */
+        protected boolean accepts(String _value)
+        {
+            return isBoolean(_value);
+        }
 
-        assert(_prefix != null);
-        propertyPrefix = _prefix;
+        protected void cache()
+        {
+            value = getBooleanProperty(key);
+        }
+
+        protected Object cached()
+        {
+            return value;
+        }
+
+        protected void cache(Object _value)
+        {
+            value = (Boolean)_value;
+        }
+        
+        
+        protected boolean value;
     }
 
     
-    /**
-     * @see Hashtable#put(Object, Object)
-     */
-    @Override
-    public synchronized Object put(Object _key, Object _value)
+    public class DoubleProperty extends Property
     {
-        Object tmp_ = super.put(_key, _value);
+        public DoubleProperty(String _key, double _default, String _description)
+        {
+            super(_key, _description);
+            
+            declare(_key, Double.toString(_default));
+            declared(this);
+        }
+
+        public double get()
+        {
+            return snapshot().get(this);
+        }
+        
+        public void set(double _value)
+        {
+            setProperty(key, Double.toString(_value));
+        }
+
+
+        protected boolean accepts(String _value)
+        {
+            return isDouble(_value);
+        }
+
+        protected void cache()
+        {
+            value = getDoubleProperty(key);
+        }
+
+        protected Object cached()
+        {
+            return value;
+        }
+
+        protected void cache(Object _value)
+        {
+            value = (Double)_value;
+        }
         
-        property((String)_key).cache();
         
-        return tmp_;
+        protected double value;
     }
 
     
     /**
-     * Unprefixing load method
-     * 
-     * @see Properties#load(InputStream)
+     * A duration, e.g. <code>30s</code> (see
+     * {@link Properties#parseDuration(String)})
      */
-    @Override
-    public synchronized void load(InputStream _is) throws IOException
+    public class DurationProperty extends Property
     {
-        Properties tmp_ = new Properties();
-        tmp_.load(_is);
+        public DurationProperty
+                (String _key, String _default, String _description)
+        {
+            super(_key, _description);
+            
+            assert _default != null;
+            
+            declare(_key, _default);
+            declared(this);
+        }
 
-        for (Object key_ : tmp_.keySet())
-            setProperty(unprefix(key_), tmp_.getProperty((String)key_));
-    }
+        /**
+         * Returns the milliseconds.
+         */
+        public long get()
+        {
+            return snapshot().get(this, TimeUnit.MILLISECONDS);
+        }
 
-    /**
-     * Unprefixing load method
-     * 
-     * @see java.util.Properties#loadFromXML(InputStream)
-     */
-    @Override
-    public synchronized void loadFromXML(InputStream _is)
-            throws IOException, InvalidPropertiesFormatException
-    {
-        Properties tmp_ = new Properties();
-        tmp_.loadFromXML(_is);
+        public long get(TimeUnit _unit)
+        {
+            return snapshot().get(this, _unit);
+        }
+        
+        public void set(long _duration, TimeUnit _unit)
+        {
+            setProperty(key, Long.toString(_duration) + suffix(_unit));
+        }
+
+
+        protected boolean accepts(String _value)
+        {
+            return isDuration(_value);
+        }
+
+        protected void cache()
+        {
+            nanos = getDurationProperty(key, TimeUnit.NANOSECONDS);
+        }
+
+        protected Object cached()
+        {
+            return nanos;
+        }
 
-        for (Object key_ : tmp_.keySet())
-            setProperty(unprefix(key_), tmp_.getProperty((String)key_));
+        protected void cache(Object _value)
+        {
+            nanos = (Long)_value;
+        }
+        
+        
+        protected long nanos;
     }
 
+    
     /**
-     * A "forgiving" {@link #load(InputStream)} method.
-     * 
-     * @return A set of known properties that had illegal values up that stream
-     * or <code>null</code> if there were none as such.
-     * @throws IOException just like its original restricted version
+     * A data size in bytes, e.g. <code>64K</code> (see
+     * {@link Properties#parseDataSize(String)})
      */
-    public synchronized Set<String> loadAny(InputStream _is) throws IOException
+    public class DataSizeProperty extends Property
     {
-        TreeSet<String> sts_ = null;
+        public DataSizeProperty
+                (String _key, String _default, String _description)
+        {
+            super(_key, _description);
+            
+            assert _default != null;
+            
+            declare(_key, _default);
+            declared(this);
+        }
+
+        public long get()
+        {
+            return snapshot().get(this);
+        }
         
-        Properties tmp_ = new Properties();
-        tmp_.load(_is);
+        public void set(long _bytes)
+        {
+            setProperty(key, Long.toString(_bytes));
+        }
+
+
+        protected boolean accepts(String _value)
+        {
+            return isDataSize(_value);
+        }
+
+        protected void cache()
+        {
+            bytes = getDataSizeProperty(key);
+        }
+
+        protected Object cached()
+        {
+            return bytes;
+        }
+
+        protected void cache(Object _value)
+        {
+            bytes = (Long)_value;
+        }
         
-        for (Object key_ : tmp_.keySet())
-            try {
-                setProperty(unprefix(key_), tmp_.getProperty((String)key_));
-            } catch (UnknownPropertyException _) {
-                // We do nothing, dude. That's the whole idea!
-            } catch (IllegalPropertyValueException _) {
-                if (sts_ == null)
-                    sts_ = new TreeSet<String>();
-                sts_.add((String)key_);
-            }
         
-        return sts_;
+        protected long bytes;
     }
+
     
-    @Override @Deprecated
-    public synchronized void save(OutputStream _out, String _comments)
+    public class EnumProperty<E extends Enum<E>> extends Property
     {
-        // Just lazy for overriding a deprecated method..
-        throw new UnsupportedOperationException
-            ("java.util.Properties#save and the overrides are deprecated!");
-    }
-
-    /**
-     * An appropriate upgrade of the superclass method: it will store the
-     * descriptions (as comments), the default values (commented out)
-     * and the actual values (if set) in a hopefully nice form.
-     * The properties will be prefixed as specified.
-     * 
-     * @see java.util.Properties#store(OutputStream, String)
-     * @note This is an ugly hack, of course. I wish there were a standard
-     * method for Properties file encoding
-     * (see the original {@link java.util.Properties#store(OutputStream, String))
-     * @note The initial buffer size seem okay, but one may want to use
-     * a constant for it or even compute a more precise value (Naah).
+        public EnumProperty(String _key, E _default, String _description)
+        {
+            super(_key, _description);
+            
+            assert _default != null;
+            
+            enumClass = _default.getDeclaringClass();
+            declare(_key, _default.name());
+            declared(this);
+        }
+
+        public E get()
+        {
+            return snapshot().get(this);
+        }
+        
+        public void set(E _value)
+        {
+            setProperty(key, _value.name());
+        }
+
+
+        /**
+         * @see Properties#getEnumProperty(String, Class)
+         */
+        protected boolean accepts(String _value)
+        {
+            return isEnum(_value, enumClass);
+        }
+
+        protected void cache()
+        {
+            value = getEnumProperty(key, enumClass);
+        }
+
+        protected Object cached()
+        {
+            return value;
+        }
+        
+        
+        protected final Class<E> enumClass;
+        protected E value;
+    }
+
+    
+    public class FormatProperty extends Property
+    {
+        public FormatProperty(String _key, String _default, String _description)
+        {
+            super(_key, _description);
+            
+            assert _default != null;
+            
+            declare(key, _default);
+            declared(this);
+        }
+
+        
+        public String get(Object ... _args)
+        {
+            return snapshot().get(this, _args);
+        }
+
+        /**
+         * Formats the arguments right into the builder (see
+         * {@link FormatTemplate#appendTo(StringBuilder, Object...)}).
+         * 
+         * @return the builder
+         */
+        public StringBuilder appendTo(StringBuilder _sb, Object ... _args)
+        {
+            return snapshot().template(this).appendTo(_sb, _args);
+        }
+
+        /**
+         * Returns the current pattern compiled.
+         */
+        public FormatTemplate template()
+        {
+            return snapshot().template(this);
+        }
+            
+        public void set(String _sValue)
+        {
+            setProperty(key, _sValue);
+        }
+
+        protected void cache()
+        {
+            sValue = getStringProperty(key);
+            template = FormatTemplate.compile(sValue);
+        }
+
+        protected Object cached()
+        {
+            return template;
+        }
+
+        
+        protected String sValue;
+        protected FormatTemplate template;
+    }
+        
+
+    /**
+     * Builds a {@link Configuration} object which prefixes its properties with
+     * the enclosing class name (if any) upon storage and removes the prefix
+     * upon loading.<br/>
+     * The properties are sorted in the creation order for output.
+     */
+    protected Configuration()
+    {
+        super(new Properties());
+        
+        mStringToProperty
+           = Collections.synchronizedMap(new LinkedHashMap<String, Property>());
+        snapshot = new ConfigurationSnapshot
+            ( new Property[0], Collections.<String, Integer>emptyMap()
+            , new Object[0], new String[0], 0);
+        stale = false;
+        batch = 0;
+
+        Class<?> class_ = getClass().getEnclosingClass();
+        if (class_ != null)
+            propertyPrefix = class_.getName() + ".";
+        else
+            propertyPrefix = "";
+        listeners = new CopyOnWriteArrayList<Listener>();
+        declared = new Properties();
+        layers = new ArrayList<ConfigurationLayer>();
+        expansions = new ConcurrentHashMap<String, String>();
+        dependencies = new HashMap<String, Set<String>>();
+        dependents = new HashMap<String, Set<String>>();
+        prefixed = new ConcurrentHashMap<String, Property>();
+    }
+
+    /**
+     * Builds a {@link Configuration} object which prefixes its properties with
+     * the specified string (may be empty) upon storage and removes the prefix
+     * upon loading.<br/>
+     * The properties are sorted in the creation order for output.
+     */
+    protected Configuration(String _prefix)
+    {
+        super(new Properties());
+        
+        mStringToProperty
+           = Collections.synchronizedMap(new LinkedHashMap<String, Property>());
+        snapshot = new ConfigurationSnapshot
+            ( new Property[0], Collections.<String, Integer>emptyMap()
+            , new Object[0], new String[0], 0);
+        stale = false;
+        batch = 0;
+
+        assert(_prefix != null);
+        propertyPrefix = _prefix;
+        listeners = new CopyOnWriteArrayList<Listener>();
+        declared = new Properties();
+        layers = new ArrayList<ConfigurationLayer>();
+        expansions = new ConcurrentHashMap<String, String>();
+        dependencies = new HashMap<String, Set<String>>();
+        dependents = new HashMap<String, Set<String>>();
+        prefixed = new ConcurrentHashMap<String, Property>();
+    }
+
+    
+    /**
+     * @see Hashtable#put(Object, Object)
      */
     @Override
-    public synchronized void store(OutputStream _out, String _comments)
-            throws IOException
+    public synchronized Object put(Object _key, Object _value)
     {
-        String newLine = System.getProperty("line.separator");
-        BufferedWriter bw_
-            = new BufferedWriter(new OutputStreamWriter(_out, "8859_1"));
+        Object tmp_ = super.put(_key, _value);
+        
+        changed(property((String)_key));
         
+        return tmp_;
+    }
+
+    
+    /**
+     * Unprefixing load method
+     * 
+     * @see Properties#load(InputStream)
+     */
+    @Override
+    public synchronized void load(InputStream _is) throws IOException
+    {
+        PropertiesReader pr_ = new PropertiesReader(_is);
+
+        batch++;
+        try {
+            while (pr_.next())
+                setProperty(unprefix(pr_.getKey()), pr_.getValue());
+        } finally {
+            if (--batch == 0)
+                publish();
+        }
+    }
+
+    /**
+     * Unprefixing load method
+     * 
+     * @see java.util.Properties#loadFromXML(InputStream)
+     */
+    @Override
+    public synchronized void loadFromXML(InputStream _is)
+            throws IOException, InvalidPropertiesFormatException
+    {
         Properties tmp_ = new Properties();
-        ByteArrayOutputStream baos_ = new ByteArrayOutputStream(256);
+        tmp_.loadFromXML(_is);
+
+        loadPrefixed(tmp_);
+    }
+
+    /**
+     * A "forgiving" {@link #load(InputStream)} method.
+     * 
+     * @return A set of known properties that had illegal values up that stream
+     * (and kept their old values) or <code>null</code> if there were none as
+     * such.
+     * @throws IOException just like its original restricted version
+     * @see #loadForgiving(InputStream)
+     */
+    public Set<String> loadAny(InputStream _is) throws IOException
+    {
+        LoadReport report_ = loadForgiving(_is);
+
+        if (report_.getInvalid().isEmpty())
+            return null;
         
-        char lineCommentChar = 0;
+        return new TreeSet<String>(report_.getInvalid().keySet());
+    }
+
+    /**
+     * A "forgiving" {@link #load(InputStream)} method that tells the keys
+     * apart with no exceptions thrown: the unknown ones are looked up by the
+     * prefixed keys as they are, and the values are checked before they are
+     * set (see {@link Property#accepts(String)}), so the illegal ones are not
+     * even put into the table.
+     * 
+     * @return what was made of the stream's keys
+     * @throws IOException just like its original restricted version
+     */
+    public synchronized LoadReport loadForgiving(InputStream _is)
+            throws IOException
+    {
+        LoadReport report_ = new LoadReport();
+        PropertiesReader pr_ = new PropertiesReader(_is);
+        
+        batch++;
+        try {
+            while (pr_.next())
+                offer(report_, pr_.getKey(), pr_.getValue());
+        } finally {
+            if (--batch == 0)
+                publish();
+        }
         
+        return report_;
+    }
 
-        for (Property prop_ : mStringToProperty.values()) {
-            String tmpKey_ = prefix(prop_.key);
-            
-            tmp_.setProperty(tmpKey_, defaults.getProperty(prop_.key));
-            
-            // First, let's print it via the original method
-            tmp_.store(baos_, null);
-            
-            String sProp_ = baos_.toString("8859_1");
-
-            if (lineCommentChar == 0) {
-                lineCommentChar = sProp_.charAt(0);
-                
-                // Safe-print the comments..
-                if (_comments != null) {
-                    bw_.write(lineCommentChar);
-                    bw_.write(' ');
-                    bw_.write(_comments.replace( newLine
-                                               , newLine+lineCommentChar+' '));
-                    bw_.write(newLine);
+    /**
+     * A "forgiving" {@link #update(Consumer)}: sets the values of the
+     * (prefixed) keys as a single change, leaving out the unknown keys and
+     * the illegal values (just like {@link #loadForgiving(InputStream)} does).
+     * 
+     * @return what was made of the keys
+     */
+    public synchronized LoadReport updateForgiving(Map<String, String> _values)
+    {
+        LoadReport report_ = new LoadReport();
+
+        batch++;
+        try {
+            for (Map.Entry<String, String> entry_ : _values.entrySet())
+                offer(report_, entry_.getKey(), entry_.getValue());
+        } finally {
+            if (--batch == 0)
+                publish();
+        }
+
+        return report_;
+    }
+
+    /**
+     * Applies the changes staged by the transaction all at once: every
+     * property changed (or referring to one changed) is cached just once,
+     * the new state is published as a single snapshot (so the listeners are
+     * notified in one go), or nothing is changed at all.
+     * 
+     * @throws IllegalPropertyValueException if any of the values is illegal
+     * (or the references turn cyclic), in which case no value is changed
+     */
+    public synchronized void update(Consumer<Editor> _transaction)
+    {
+        Editor editor_ = new Editor();
+        _transaction.accept(editor_);
+
+        if (!editor_.changes.isEmpty())
+            apply(editor_.changes);
+    }
+
+    /**
+     * Brings the properties in line with the stream (the ones not there are
+     * reset to their defaults, the unknown ones are ignored) at once: only the
+     * properties changed are set (and their listeners notified).
+     * The stream is parsed before the configuration gets locked.
+     * 
+     * @return A set of known properties that had illegal values up that stream
+     * (and kept their old values) or <code>null</code> if there were none as
+     * such.
+     * @throws IOException just like {@link #load(InputStream)}
+     */
+    public Set<String> reload(InputStream _is) throws IOException
+    {
+        Properties tmp_ = new Properties();
+        PropertiesReader pr_ = new PropertiesReader(_is);
+        while (pr_.next())
+            tmp_.put(pr_.getKey(), pr_.getValue());
+
+        return reload(tmp_);
+    }
+
+    /**
+     * Follows the file: reloads it (see {@link #reload(InputStream)}) now and
+     * whenever it changes, 200 milliseconds after the last change.
+     * 
+     * @return the watcher to be closed when done
+     */
+    public ConfigurationWatcher watch(File _file) throws IOException
+    {
+        return watch(_file, 200);
+    }
+
+    /**
+     * Follows the file: reloads it (see {@link #reload(InputStream)}) now and
+     * whenever it changes, as soon as it stays unchanged for the delay (the
+     * editors tend to write the files in several steps).
+     * 
+     * @return the watcher to be closed when done
+     */
+    public ConfigurationWatcher watch(File _file, long _delayMillis)
+            throws IOException
+    {
+        return new ConfigurationWatcher(this, _file, _delayMillis);
+    }
+
+    /**
+     * Serves the properties' values over RMI (see
+     * {@link ConfigurationServer}) under the name (may be <code>null</code>)
+     * using the registry of the port.
+     * 
+     * @return the server to be closed when done
+     */
+    public ConfigurationServer serve(int _port, String _name)
+            throws RemoteException, AlreadyBoundException
+    {
+        return new ConfigurationServer(this, _port, _name);
+    }
+
+    /**
+     * Subscribes to the values served under the name (see
+     * {@link #serve(int, String)}), checking for the server every 5 seconds.
+     * 
+     * @return the client to be closed when done
+     * @see ConfigurationClient
+     */
+    public ConfigurationClient subscribe(String _host, int _port, String _name)
+            throws RemoteException
+    {
+        return new ConfigurationClient(this, _host, _port, _name, 5000);
+    }
+
+    /**
+     * Loads the properties from the image of the sources (see
+     * {@link ConfigurationImage}) unless it's stale, in which case the sources
+     * are loaded (in order, the <code>.xml</code> ones from XML) and the image
+     * is rewritten.
+     * 
+     * @return true if the image was fresh
+     */
+    public boolean load(File _image, File ... _sources) throws IOException
+    {
+        if (ConfigurationImage.read(this, _image, _sources))
+            return true;
+
+        // Stamped first: a source changed while parsed leaves the image stale
+        ConfigurationImage.Stamp[] stamps_ = ConfigurationImage.stamp(_sources);
+        Set<String> loaded_ = new HashSet<String>();
+
+        for (File source_ : _sources) {
+            Properties tmp_ = new Properties();
+            InputStream is_ = new FileInputStream(source_);
+            try {
+                if (source_.getName().endsWith(".xml"))
+                    tmp_.loadFromXML(is_);
+                else {
+                    PropertiesReader pr_ = new PropertiesReader(is_);
+                    while (pr_.next())
+                        tmp_.put(pr_.getKey(), pr_.getValue());
                 }
-                // ..and the date
-                bw_.write(lineCommentChar);
-                bw_.write(new Date().toString());
-                bw_.write(newLine);
+            } finally {
+                is_.close();
             }
+
+            loadPrefixed(tmp_);
+            for (Object key_ : tmp_.keySet())
+                loaded_.add((String)key_);
+        }
+
+        ConfigurationImage.write(this, _image, stamps_, loaded_);
+
+        return false;
+    }
+
+    /**
+     * Adds the layer of the defaults: the value of a key is the one of the
+     * layer of the highest precedence that has it, or the declared default.
+     * The layer's later changes are resolved as they come (just the keys
+     * changed), the illegal values being ignored.
+     * 
+     * @return A set of the layer's (prefixed) properties that had illegal
+     * values or <code>null</code> if there were none as such.
+     */
+    public synchronized Set<String> addLayer(ConfigurationLayer _layer)
+    {
+        int i = 0;
+        while (i < layers.size()
+               && layers.get(i).getPrecedence() > _layer.getPrecedence())
+            i++;
+        layers.add(i, _layer);
+        _layer.owners.add(this);
+
+        return resolve(prefixedKeys());
+    }
+
+    public synchronized void removeLayer(ConfigurationLayer _layer)
+    {
+        if (!layers.remove(_layer))
+            return;
+        _layer.owners.remove(this);
+
+        resolve(prefixedKeys());
+    }
+
+    public void addListener(Listener _listener)
+    {
+        // The properties declared are not changed
+        synchronized (this) {
+            snapshot();
+            listeners.add(_listener);
+        }
+    }
+
+    public void removeListener(Listener _listener)
+    {
+        listeners.remove(_listener);
+    }
+    
+    @Override @Deprecated
+    public synchronized void save(OutputStream _out, String _comments)
+    {
+        // Just lazy for overriding a deprecated method..
+        throw new UnsupportedOperationException
+            ("java.util.Properties#save and the overrides are deprecated!");
+    }
+
+    /**
+     * An appropriate upgrade of the superclass method: it will store the
+     * descriptions (as comments), the default values (commented out)
+     * and the actual values (if set) in a hopefully nice form.
+     * The properties will be prefixed as specified.
+     * 
+     * @see java.util.Properties#store(OutputStream, String)
+     * @note The properties are escaped straight into the stream (see
+     * {@link PropertiesWriter}) just the way the original method does.
+     */
+    @Override
+    public synchronized void store(OutputStream _out, String _comments)
+            throws IOException
+    {
+        String newLine = System.getProperty("line.separator");
+        PropertiesWriter pw_ = new PropertiesWriter
+            (new BufferedWriter(new OutputStreamWriter(_out, "8859_1")), true);
+        
+        // Safe-print the comments..
+        if (_comments != null) {
+            pw_.write("# ");
+            pw_.write(_comments.replace(newLine, newLine + "# "));
+            pw_.newLine();
+        }
+        // ..and the date
+        pw_.write('#');
+        pw_.write(new Date().toString());
+        pw_.newLine();
+
+        for (Property prop_ : properties()) {
+            // The description and the default..
+            layout(prop_);
+            pw_.write(prop_.layout);
             
-            bw_.write(newLine);
-
-            if (prop_.description != null) {
-                bw_.write(lineCommentChar);
-                bw_.write(' ');
-                bw_.write(prop_.description.replace
-                        (newLine, newLine + lineCommentChar + ' '));
-                bw_.write(newLine);
-            }
-            
-            // Then, let's get rid of the date comment the original method prints
-            sProp_ = sProp_.substring(sProp_.indexOf(newLine)+newLine.length());
-            
-            bw_.write(lineCommentChar);
-            bw_.write(sProp_);
-            
+            // ..and again for the actual value..
             if (containsKey(prop_.key)) {
-                baos_.reset();
-
-                tmp_.setProperty(tmpKey_, getProperty(prop_.key));
-                
-                // ..and again for the actual value..
-                tmp_.store(baos_, null);
-                
-                sProp_ = baos_.toString("8859_1");
-                sProp_
-                    = sProp_.substring(sProp_.indexOf(newLine)+newLine.length());
-                
-                bw_.write(sProp_);
+                pw_.write(prop_.escapedKey);
+                pw_.value(raw(prop_.key));
             }
-            
-            tmp_.remove(tmpKey_);
-            baos_.reset();
         }
         
-        bw_.flush();
+        pw_.flush();
     }
 
     /**
@@ -425,7 +1099,7 @@ public abstract class Configuration extends Properties
         Properties tmp_ = new Properties();
         
         for (Object key_ : keySet())
-            tmp_.setProperty(prefix(key_), getProperty(key_.toString()));
+            tmp_.setProperty(prefix(key_), raw(key_.toString()));
 
         tmp_.storeToXML(_os, _comment, _encoding);
     }
@@ -440,16 +1114,648 @@ public abstract class Configuration extends Properties
     }
 
 
-    protected synchronized Property property(String _key)
+    /**
+     * Returns the value with its references expanded: <code>${key}</code>
+     * stands for the (unprefixed) key's value, <code>${env:NAME}</code> for the
+     * environment variable's, both may be followed by a default
+     * (<code>${key:-default}</code>) and <code>$${</code> stands for
+     * <code>${</code>. The unresolved references are kept as they are.
+     * 
+     * @note The values are expanded when they change (or the values they
+     * refer to do, transitively), so the cyclic references are caught as the
+     * illegal values upon loading.
+     * @see java.util.Properties#getProperty(String)
+     */
+    @Override
+    public String getProperty(String _key)
+    {
+        String tmp_ = expansions.get(_key);
+
+        return (tmp_ != null) ? tmp_ : super.getProperty(_key);
+    }
+
+    /**
+     * Returns the current state of all of the properties (lock-free).
+     */
+    public ConfigurationSnapshot snapshot()
+    {
+        if (stale)
+            synchronized (this) {
+                if (stale)
+                    publish();
+            }
+
+        return snapshot;
+    }
+
+
+    /**
+     * Caches the changed property's value (and the ones of the properties
+     * referring to it) and publishes a new snapshot (unless in the middle of
+     * a batch of changes, e.g. a load).
+     */
+    protected synchronized void changed(Property _prop)
+    {
+        changed(_prop, null);
+    }
+
+    /**
+     * Caches the value of the property just declared. Unless there are
+     * listeners, no snapshot is published for it: the snapshot taken first
+     * after the declarations publishes them all at once (rather than each one
+     * copying all of the values declared so far).
+     */
+    protected synchronized void declared(Property _prop)
+    {
+        batch++;
+        try {
+            changed(_prop);
+        } finally {
+            batch--;
+        }
+
+        if (batch > 0)
+            return;
+
+        if (listeners.isEmpty())
+            stale = true;
+        else
+            publish();
+    }
+
+    /**
+     * Caches the changed property's value, parsed already (if not
+     * <code>null</code> and there are no references to expand), etc.
+     * 
+     * @throws IllegalPropertyValueException if the value is illegal or its
+     * references are cyclic
+     */
+    protected synchronized void changed(Property _prop, Object _value)
+    {
+        interpolate(_prop.key);
+        if (_value != null && !expansions.containsKey(_prop.key))
+            _prop.cache(_value);
+        else
+            _prop.cache();
+
+        for (String key_ : dependents(_prop.key)) {
+            interpolate(key_);
+
+            Property dependent_ = lookup(key_);
+            if (dependent_ != null)
+                dependent_.cache();
+        }
+
+        if (batch == 0)
+            publish();
+    }
+
+    /**
+     * Replaces the snapshot with the one of the properties' current values.
+     */
+    protected synchronized void publish()
+    {
+        ConfigurationSnapshot old_ = snapshot;
+        Property[] props_ = old_.properties;
+        Map<String, Integer> indices_ = old_.indices;
+
+        // The properties and their indices are shared unless added to
+        synchronized (mStringToProperty) {
+            if (mStringToProperty.size() != props_.length) {
+                props_ = properties();
+                indices_ = ConfigurationSnapshot.indices(props_);
+            }
+            if (keyIndex == null)
+                keyIndex = PerfectHash.build(mStringToProperty);
+        }
+
+        Object[] values_ = new Object[props_.length];
+        String[] strings_ = new String[props_.length];
+
+        for (int i = 0; i < props_.length; i++) {
+            values_[i] = props_[i].cached();
+            strings_[i] = getProperty(props_[i].key);
+        }
+
+        snapshot = new ConfigurationSnapshot
+            (props_, indices_, values_, strings_, old_.getVersion() + 1);
+        stale = false;
+
+        if (listeners.isEmpty())
+            return;
+
+        // The properties just created are not changed
+        for (int i = 0; i < old_.size(); i++) {
+            String sOld_ = old_.strings[i];
+
+            if (sOld_ == null ? strings_[i] == null : sOld_.equals(strings_[i]))
+                continue;
+
+            for (Listener listener_ : listeners)
+                listener_.changed(props_[i], sOld_, strings_[i]);
+        }
+    }
+
+    /**
+     * Applies the differences of the (prefixed) properties as a single change.
+     * 
+     * @see #reload(InputStream)
+     */
+    protected synchronized Set<String> reload(Properties _props)
+    {
+        TreeSet<String> sts_ = null;
+
+        batch++;
+        try {
+            for (Property prop_ : properties()) {
+                String old_ = (String)get(prop_.key);
+                String new_ = _props.getProperty(prefix(prop_.key));
+
+                if (new_ == null ? old_ == null : new_.equals(old_))
+                    continue;
+
+                try {
+                    if (new_ == null)
+                        remove(prop_.key);
+                    else
+                        setProperty(prop_.key, new_);
+                } catch (IllegalPropertyValueException _) {
+                    if (old_ == null)
+                        remove(prop_.key);
+                    else
+                        setProperty(prop_.key, old_);
+
+                    if (sts_ == null)
+                        sts_ = new TreeSet<String>();
+                    sts_.add(prefix(prop_.key));
+                }
+            }
+        } finally {
+            if (--batch == 0)
+                publish();
+        }
+
+        return sts_;
+    }
+
+    /**
+     * Sets the (prefixed) properties' values as a single change.
+     *
+     * @see #loadFromXML(InputStream)
+     */
+    protected synchronized void loadPrefixed(Properties _props)
+    {
+        batch++;
+        try {
+            for (Object key_ : _props.keySet())
+                setProperty(unprefix(key_), _props.getProperty((String)key_));
+        } finally {
+            if (--batch == 0)
+                publish();
+        }
+    }
+
+    /**
+     * Returns the unit's suffix as parsed by
+     * {@link Properties#parseDuration(String)}.
+     */
+    protected static String suffix(TimeUnit _unit)
+    {
+        switch (_unit) {
+        case NANOSECONDS:
+            return "ns";
+        case MICROSECONDS:
+            return "us";
+        case MILLISECONDS:
+            return "ms";
+        case SECONDS:
+            return "s";
+        case MINUTES:
+            return "m";
+        case HOURS:
+            return "h";
+        default:
+            return "d";
+        }
+    }
+
+    /**
+     * Resolves the (prefixed) keys' defaults anew.
+     * 
+     * @return A set of the keys that had illegal values (and kept their old
+     * ones) or <code>null</code> if there were none as such.
+     * @see #addLayer(ConfigurationLayer)
+     */
+    protected synchronized Set<String> resolve(Collection<String> _keys)
+    {
+        TreeSet<String> sts_ = null;
+        boolean changed_ = false;
+
+        batch++;
+        try {
+            for (String key_ : _keys) {
+                if (!key_.startsWith(propertyPrefix))
+                    continue;
+                String tmpKey_ = key_.substring(propertyPrefix.length());
+                Property prop_ = lookup(tmpKey_);
+                if (prop_ == null)
+                    continue;
+
+                String new_ = layered(tmpKey_);
+                String old_ = defaults.getProperty(tmpKey_);
+                if (new_.equals(old_))
+                    continue;
+
+                defaults.setProperty(tmpKey_, new_);
+                // Overridden by a value set?
+                if (containsKey(tmpKey_))
+                    continue;
+
+                try {
+                    changed(prop_);
+                    changed_ = true;
+                } catch (IllegalPropertyValueException _) {
+                    defaults.setProperty(tmpKey_, old_);
+                    prop_.cache();
+
+                    if (sts_ == null)
+                        sts_ = new TreeSet<String>();
+                    sts_.add(key_);
+                }
+            }
+        } finally {
+            if (--batch == 0 && changed_)
+                publish();
+        }
+
+        return sts_;
+    }
+
+    /**
+     * Returns the (unprefixed) key's value of the highest layer having it or
+     * the declared default.
+     */
+    protected synchronized String layered(String _key)
+    {
+        for (ConfigurationLayer layer_ : layers) {
+            String tmp_ = layer_.get(prefix(_key));
+            if (tmp_ != null)
+                return tmp_;
+        }
+
+        return declared.getProperty(_key);
+    }
+
+    /**
+     * Declares the property's default (resolved through the layers, if any).
+     */
+    protected synchronized void declare(String _key, String _default)
+    {
+        declared.setProperty(_key, _default);
+        defaults.setProperty(_key, layered(_key));
+    }
+
+    /**
+     * Sets the values (<code>null</code> to reset) at once.
+     * 
+     * @see #update(Consumer)
+     */
+    protected synchronized void apply(Map<String, String> _changes)
+    {
+        Map<String, String> old_ = new HashMap<String, String>();
+
+        for (Map.Entry<String, String> entry_ : _changes.entrySet()) {
+            old_.put(entry_.getKey(), (String)get(entry_.getKey()));
+            set(entry_.getKey(), entry_.getValue());
+        }
+
+        try {
+            recache(_changes.keySet());
+        } catch (IllegalPropertyValueException e_) {
+            for (Map.Entry<String, String> entry_ : old_.entrySet())
+                set(entry_.getKey(), entry_.getValue());
+            recache(_changes.keySet());
+
+            throw e_;
+        }
+
+        if (batch == 0)
+            publish();
+    }
+
+    /**
+     * Sets the value as it is (<code>null</code> to reset) with no caching.
+     */
+    protected void set(String _key, String _value)
+    {
+        if (_value == null)
+            super.remove(_key);
+        else
+            super.put(_key, _value);
+    }
+
+    /**
+     * Caches the keys' properties and their dependents' ones, each once.
+     */
+    protected synchronized void recache(Collection<String> _keys)
+    {
+        // The references of the keys first, for the dependents to be right
+        for (String key_ : _keys)
+            interpolate(key_);
+
+        Set<String> keys_ = new LinkedHashSet<String>(_keys);
+        for (String key_ : _keys)
+            for (String dependent_ : dependents(key_))
+                if (keys_.add(dependent_))
+                    interpolate(dependent_);
+
+        for (String key_ : keys_) {
+            Property prop_ = lookup(key_);
+            if (prop_ != null)
+                prop_.cache();
+        }
+    }
+
+    /**
+     * Expands the key's references anew and updates the dependency graph.
+     * 
+     * @see #getProperty(String)
+     */
+    protected synchronized void interpolate(String _key)
+    {
+        String raw_ = raw(_key);
+        Set<String> references_ = new LinkedHashSet<String>();
+        List<String> path_ = new ArrayList<String>();
+        path_.add(_key);
+
+        String tmp_ = expand(raw_, path_, references_);
+        if (tmp_ == raw_)
+            expansions.remove(_key);
+        else
+            expansions.put(_key, tmp_);
+
+        Set<String> old_ = (references_.isEmpty())
+                           ? dependencies.remove(_key)
+                           : dependencies.put(_key, references_);
+        if (old_ != null)
+            for (String reference_ : old_)
+                if (!references_.contains(reference_)) {
+                    Set<String> tmpDependents_ = dependents.get(reference_);
+                    tmpDependents_.remove(_key);
+                    if (tmpDependents_.isEmpty())
+                        dependents.remove(reference_);
+                }
+        for (String reference_ : references_) {
+            Set<String> tmpDependents_ = dependents.get(reference_);
+            if (tmpDependents_ == null) {
+                tmpDependents_ = new LinkedHashSet<String>();
+                dependents.put(reference_, tmpDependents_);
+            }
+            tmpDependents_.add(_key);
+        }
+
+        // The expansion (read by the typed getters) may have changed
+        modified();
+    }
+
+    /**
+     * Expands the references of the value (recursively).
+     * 
+     * @param _path the keys being expanded
+     * @param _references collects the direct references (if not
+     * <code>null</code>)
+     * @return the value itself if there is nothing to expand
+     * @throws IllegalPropertyValueException if the references are cyclic
+     */
+    protected String expand
+            (String _raw, List<String> _path, Set<String> _references)
+    {
+        if (_raw == null)
+            return null;
+
+        int i = _raw.indexOf("${");
+        if (i == -1)
+            return _raw;
+
+        StringBuilder sb_ = new StringBuilder(_raw.length() + 16);
+        int from_ = 0;
+
+        for (; i != -1; i = _raw.indexOf("${", from_)) {
+            // "$${" stands for "${"
+            if (i > from_ && _raw.charAt(i - 1) == '$') {
+                sb_.append(_raw, from_, i - 1).append("${");
+                from_ = i + 2;
+                continue;
+            }
+
+            int end_ = _raw.indexOf('}', i + 2);
+            if (end_ == -1)
+                break;
+            sb_.append(_raw, from_, i);
+            from_ = end_ + 1;
+
+            String reference_ = _raw.substring(i + 2, end_);
+            String default_ = null;
+            int j = reference_.indexOf(":-");
+            if (j != -1) {
+                default_ = reference_.substring(j + 2);
+                reference_ = reference_.substring(0, j);
+            }
+
+            String value_;
+            if (reference_.startsWith("env:"))
+                value_ = System.getenv(reference_.substring(4));
+            else {
+                if (_references != null)
+                    _references.add(reference_);
+                if (_path.contains(reference_))
+                    throw new IllegalPropertyValueException
+                        ( "Cyclic references: " + _path + " -> "
+                        + reference_);
+
+                _path.add(reference_);
+                value_ = expand(raw(reference_), _path, null);
+                _path.remove(_path.size() - 1);
+            }
+
+            if (value_ == null)
+                value_ = default_;
+            // Unresolved ones are kept as they are
+            sb_.append((value_ != null) ? value_ : _raw.substring(i, end_ + 1));
+        }
+
+        return sb_.append(_raw, from_, _raw.length()).toString();
+    }
+
+    /**
+     * Returns the keys referring to the key, transitively (in no particular
+     * order).
+     */
+    protected Set<String> dependents(String _key)
+    {
+        Set<String> tmp_ = dependents.get(_key);
+        if (tmp_ == null)
+            return Collections.emptySet();
+
+        Set<String> sts_ = new LinkedHashSet<String>(tmp_);
+        List<String> queue_ = new ArrayList<String>(tmp_);
+        for (int i = 0; i < queue_.size(); i++) {
+            tmp_ = dependents.get(queue_.get(i));
+            if (tmp_ != null)
+                for (String key_ : tmp_)
+                    if (!key_.equals(_key) && sts_.add(key_))
+                        queue_.add(key_);
+        }
+
+        return sts_;
+    }
+
+    /**
+     * Sets the (prefixed) key's value unless the key is unknown or the value
+     * is illegal, reporting which.
+     */
+    protected void offer(LoadReport _report, String _key, String _value)
+    {
+        Property prop_ = prefixed.get(_key);
+
+        if (prop_ == null)
+            _report.unknown(_key);
+        else if (offer(prop_, _value))
+            _report.loaded(_key);
+        else
+            _report.invalid(_key, _value);
+    }
+
+    /**
+     * Sets the property's value if it's legal, the old one kept otherwise.
+     * 
+     * @return false if the value is illegal
+     */
+    protected synchronized boolean offer(Property _prop, String _value)
+    {
+        // The references are expanded (and checked) upon caching only
+        boolean references_ = _value.indexOf("${") != -1;
+        if (!references_ && !_prop.accepts(_value))
+            return false;
+
+        String old_ = (String)get(_prop.key);
+        set(_prop.key, _value);
+        try {
+            changed(_prop);
+        } catch (IllegalPropertyValueException _) {
+            set(_prop.key, old_);
+            changed(_prop);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the key's value as it is (its references not expanded).
+     */
+    protected String raw(String _key)
+    {
+        return super.getProperty(_key);
+    }
+
+    protected List<String> prefixedKeys()
+    {
+        List<String> tmp_ = new ArrayList<String>();
+
+        for (Property prop_ : properties())
+            tmp_.add(prefix(prop_.key));
+
+        return tmp_;
+    }
+
+    /**
+     * Sets the values parsed already (see {@link Property#cache(Object)}) as a
+     * single change.
+     */
+    protected synchronized void restore
+            (Property[] _props, String[] _strings, Object[] _values)
+    {
+        batch++;
+        try {
+            for (int i = 0; i < _props.length; i++) {
+                super.put(_props[i].key, _strings[i]);
+                changed(_props[i], _values[i]);
+            }
+        } finally {
+            if (--batch == 0)
+                publish();
+        }
+    }
+
+    /**
+     * Returns the properties in the creation order.
+     */
+    protected Property[] properties()
+    {
+        synchronized (mStringToProperty) {
+            return mStringToProperty.values().toArray
+                                    (new Property[mStringToProperty.size()]);
+        }
+    }
+
+    /**
+     * @throws UnknownPropertyException if there is no such property
+     */
+    protected Property property(String _key)
     {
-        Property prop_ = mStringToProperty.get(_key);
+        Property prop_ = lookup(_key);
         
         if (prop_ == null)
-            throw new UnknownPropertyException((String)_key);
+            throw UnknownPropertyException.stackless(_key);
 
         return prop_;
     }
     
+    /**
+     * Returns the (unprefixed) key's property or <code>null</code>: by the
+     * perfect hash of the keys, or by the map while there are properties
+     * declared since the last snapshot (the hash is built once they all are,
+     * see {@link #publish()}).
+     */
+    protected Property lookup(String _key)
+    {
+        PerfectHash<Property> tmp_ = keyIndex;
+
+        return (tmp_ != null) ? tmp_.get(_key) : mStringToProperty.get(_key);
+    }
+
+    /**
+     * Builds the property's layout (see {@link Property#layout}) unless
+     * built already: the description, the default (commented out) and the
+     * key are escaped just once.
+     */
+    protected void layout(Property _prop) throws IOException
+    {
+        if (_prop.layout != null)
+            return;
+
+        String newLine = System.getProperty("line.separator");
+        String tmpKey_ = prefix(_prop.key);
+        StringWriter sw_ = new StringWriter();
+        PropertiesWriter pw_ = new PropertiesWriter(sw_, true);
+
+        pw_.newLine();
+        if (_prop.description != null) {
+            pw_.write("# ");
+            pw_.write(_prop.description.replace(newLine, newLine + "# "));
+            pw_.newLine();
+        }
+        pw_.write('#');
+        pw_.entry(tmpKey_, declared.getProperty(_prop.key));
+        String layout_ = sw_.toString();
+
+        sw_.getBuffer().setLength(0);
+        pw_.key(tmpKey_);
+        _prop.escapedKey = sw_.toString();
+        _prop.layout = layout_;
+    }
+
     protected String prefix(Object _key)
     {
         return propertyPrefix + _key.toString();
@@ -460,14 +1766,51 @@ public abstract class Configuration extends Properties
         String tmp_ = _key.toString();
         
         if (!tmp_.startsWith(propertyPrefix))
-            throw new UnknownPropertyException(tmp_);
+            throw UnknownPropertyException.stackless(tmp_);
         
         return tmp_.substring(propertyPrefix.length());
     }
 
     
     protected final Map<String, Property> mStringToProperty;
+    /**
+     * The properties by the keys, as of the last snapshot (<code>null</code>
+     * while there are properties declared since)
+     */
+    protected volatile PerfectHash<Property> keyIndex;
     protected final String propertyPrefix;
+    protected volatile ConfigurationSnapshot snapshot;
+    /**
+     * Whether there are properties declared since the snapshot was published
+     */
+    protected volatile boolean stale;
+    protected int batch;
+    protected final List<Listener> listeners;
+    /**
+     * The defaults as declared by the properties (the {@link #defaults} are
+     * the ones resolved through the layers)
+     */
+    protected final Properties declared;
+    /**
+     * In the order of precedence, the highest first
+     */
+    protected final List<ConfigurationLayer> layers;
+    /**
+     * The values with their references expanded (of the keys having any)
+     */
+    protected final Map<String, String> expansions;
+    /**
+     * The keys referred to by the keys (having any)
+     */
+    protected final Map<String, Set<String>> dependencies;
+    /**
+     * The keys referring to the keys (referred to)
+     */
+    protected final Map<String, Set<String>> dependents;
+    /**
+     * The properties by the prefixed keys (as they are in the files)
+     */
+    protected final Map<String, Property> prefixed;
     
     
     ///////////////////////////////////////////////////////////////////////////
@@ -496,7 +1839,7 @@ public abstract class Configuration extends Properties
         {
             i.remove();
             if (curr != null)
-                property((String)curr).cache();
+                changed(property((String)curr));
         }
 
         
@@ -575,7 +1918,7 @@ public abstract class Configuration extends Properties
         {
             i.remove();
             if (curr != null)
-                property((String)curr.getKey()).cache();
+                changed(property((String)curr.getKey()));
         }
 
         
@@ -628,7 +1971,7 @@ public abstract class Configuration extends Properties
     {
         Object tmp_ = super.remove(_key);
         
-        property((String)_key).cache();
+        changed(property((String)_key));
         
         return tmp_;
     }
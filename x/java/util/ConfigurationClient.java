@@ -0,0 +1,203 @@
+package x.java.util;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Collections;
+import java.util.Map;
+
+
+/**
+ * Subscribes a {@link Configuration} to a {@link ConfigurationServer}'s
+ * (of the same properties, most probably of the same class): the values
+ * changed are pushed to it and set as a single update (see
+ * {@link Configuration#updateForgiving(Map)}), while a daemon thread of its own
+ * checks every so often that the server is still there (getting anything
+ * missed, if so).
+ *
+ * Should the server go away, the configuration keeps the last values it got
+ * (as well as any of the later updates of its own) and the subscription is
+ * renewed as soon as the server is back: with the values changed since the
+ * version it had (or all of them, should it be another server's process).
+ *
+ * @see Configuration#subscribe(String, int, String)
+ * @note The values are set as they are served (their references expanded,
+ * their defaults resolved), the server's unknown properties left alone. The
+ * values this configuration finds illegal are left out (see
+ * {@link #getRejected()}) rather than holding the others back.
+ */
+public class ConfigurationClient implements Closeable
+{
+    public ConfigurationClient
+            ( Configuration _config, String _host, int _port, String _name
+            , long _checkMillis)
+        throws RemoteException
+    {
+        if (_checkMillis <= 0)
+            throw new IllegalArgumentException
+                ("Check period is not positive (" + _checkMillis + ")!");
+
+        config = _config;
+        host = _host;
+        port = _port;
+        name = _name;
+        period = _checkMillis;
+        epoch = 0;
+        version = -1;
+        rejected = Collections.emptyMap();
+        subscriber = new ConfigurationServer.Subscriber() {
+            public void changed(ConfigurationServer.Delta _delta)
+            {
+                apply(_delta);
+            }
+        };
+        UnicastRemoteObject.exportObject(subscriber, 0);
+
+        // The first values, right away (if the server is there)
+        check();
+
+        thread = new Thread("ConfigurationClient " + _host + ":" + _port) {
+            public void run() {
+                follow();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * @return true if the server was there as of the last check
+     */
+    public boolean isConnected()
+    {
+        return source != null;
+    }
+
+    /**
+     * @return the server's version as of the values set last
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return the values left out of the last update as illegal (by the
+     * prefixed keys), empty if none
+     */
+    public Map<String, String> getRejected()
+    {
+        return rejected;
+    }
+
+    /**
+     * @return the failure of the last check, or <code>null</code> if it
+     * succeeded
+     */
+    public Exception getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * Unsubscribes (the configuration keeps the values it has).
+     */
+    public void close() throws IOException
+    {
+        thread.interrupt();
+
+        ConfigurationServer.Source tmp_ = source;
+        source = null;
+        if (tmp_ != null)
+            try {
+                tmp_.unsubscribe(subscriber);
+            } catch (RemoteException _) {
+                // Gone already
+            }
+        try {
+            UnicastRemoteObject.unexportObject(subscriber, true);
+        } catch (NoSuchObjectException _) {
+            // Not exported, fine
+        }
+    }
+
+
+    protected void follow()
+    {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(period);
+                check();
+            }
+        } catch (InterruptedException _) {
+            // Closed
+        }
+    }
+
+    /**
+     * Subscribes (unless subscribed already) or checks for the changes.
+     */
+    protected void check()
+    {
+        try {
+            ConfigurationServer.Source tmp_ = source;
+            ConfigurationServer.Delta delta_;
+            if (tmp_ == null) {
+                Registry registry_ = LocateRegistry.getRegistry(host, port);
+                tmp_ = (ConfigurationServer.Source)registry_.lookup
+                    (ConfigurationServer.bindingName(name));
+                delta_ = tmp_.subscribe(subscriber, epoch, version);
+                source = tmp_;
+            } else
+                delta_ = tmp_.changes(epoch, version);
+
+            failure = null;
+            apply(delta_);
+        } catch (RemoteException _) {
+            // Gone (or not there yet): the values are kept
+            source = null;
+            failure = _;
+        } catch (NotBoundException _) {
+            source = null;
+            failure = _;
+        }
+    }
+
+    /**
+     * Sets the values unless they are older than the ones set already (the
+     * illegal ones left out: they are not tried again until changed).
+     */
+    protected synchronized void apply(ConfigurationServer.Delta _delta)
+    {
+        if (_delta.epoch == epoch && _delta.version <= version)
+            return;
+
+        rejected = config.updateForgiving(_delta.values).getInvalid();
+        epoch = _delta.epoch;
+        version = _delta.version;
+    }
+
+
+    protected final Configuration config;
+    protected final String host;
+    protected final int port;
+    protected final String name;
+    protected final long period;
+    protected final ConfigurationServer.Subscriber subscriber;
+    protected final Thread thread;
+    protected volatile ConfigurationServer.Source source;
+    /**
+     * The server's epoch and version as of the values set last
+     */
+    protected volatile long epoch;
+    protected volatile long version;
+    protected volatile Map<String, String> rejected;
+    protected volatile Exception failure;
+}
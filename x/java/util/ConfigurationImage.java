@@ -0,0 +1,390 @@
+package x.java.util;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A binary image of a {@link Configuration}'s values, for the short-lived
+ * processes to start without parsing the text (or XML) files: the image is
+ * memory-mapped and the values are taken as they were parsed.
+ *
+ * The image consists of:
+ * <ul>
+ * <li>the header (magic, version and the hash of the configuration's
+ * property set, i.e. the keys and the property classes);</li>
+ * <li>the sources' stamps (path, length, modification time and SHA-256);</li>
+ * <li>the string table (every key and value once);</li>
+ * <li>the entries (key and value indices into the table, and the parsed value
+ * tagged by its type).</li>
+ * </ul>
+ * An image is stale if any of the sources is gone or has changed (the content
+ * is hashed only if its modification time is not the stamped one), or if the
+ * property set has changed.
+ *
+ * The sources are stamped before they are parsed (a source changed meanwhile
+ * leaves the image stale rather than stamped as of its new content), and the
+ * image has just the values the sources set: the ones set otherwise (e.g. by
+ * the program before the load) are not taken for the sources' ones.
+ *
+ * @see Configuration#load(File, File...)
+ * @note The image is mapped, so it may not be replaced on some platforms
+ * while the mapping is alive (i.e. not garbage-collected yet).
+ */
+public final class ConfigurationImage
+{
+    public static final int MAGIC = 0x58434647; // "XCFG"
+    public static final short VERSION = 1;
+
+
+    /**
+     * A source's state as of a moment (before it's parsed)
+     */
+    public static final class Stamp
+    {
+        public Stamp(File _source) throws IOException
+        {
+            path = _source.getAbsolutePath();
+            length = _source.length();
+            lastModified = _source.lastModified();
+            hash = hash(_source);
+        }
+
+
+        protected final String path;
+        protected final long length;
+        protected final long lastModified;
+        protected final byte[] hash;
+    }
+
+
+    /**
+     * Stamps the sources as they are now.
+     */
+    public static Stamp[] stamp(File ... _sources) throws IOException
+    {
+        Stamp[] tmp_ = new Stamp[_sources.length];
+
+        for (int i = 0; i < _sources.length; i++)
+            tmp_[i] = new Stamp(_sources[i]);
+
+        return tmp_;
+    }
+
+
+    /**
+     * Writes the image of the configuration's (explicitly set) values, stamped
+     * with the sources' current state.
+     */
+    public static void write
+            (Configuration _config, File _image, File ... _sources)
+        throws IOException
+    {
+        write(_config, _image, stamp(_sources), null);
+    }
+
+    /**
+     * Writes the image of the configuration's values set by the sources,
+     * stamped as they were parsed.
+     *
+     * @param _loaded the (prefixed) keys the sources set (<code>null</code>
+     * for every value explicitly set)
+     */
+    public static void write
+            ( Configuration _config, File _image, Stamp[] _stamps
+            , Set<String> _loaded)
+        throws IOException
+    {
+        List<String> keys_ = new ArrayList<String>();
+        List<String> strings_ = new ArrayList<String>();
+        List<Object> values_ = new ArrayList<Object>();
+        long schema_;
+
+        synchronized (_config) {
+            schema_ = schema(_config);
+            for (Configuration.Property prop_ : _config.properties())
+                if (_config.containsKey(prop_.key)
+                    && (_loaded == null
+                        || _loaded.contains(_config.prefix(prop_.key)))) {
+                    keys_.add(_config.prefix(prop_.key));
+                    strings_.add(_config.raw(prop_.key));
+                    values_.add(prop_.cached());
+                }
+        }
+
+        File tmp_ = new File(_image.getPath() + ".tmp");
+        DataOutputStream dos_ = new DataOutputStream
+            (new BufferedOutputStream(new FileOutputStream(tmp_)));
+        try {
+            dos_.writeInt(MAGIC);
+            dos_.writeShort(VERSION);
+            dos_.writeLong(schema_);
+
+            dos_.writeInt(_stamps.length);
+            for (Stamp stamp_ : _stamps) {
+                write(dos_, stamp_.path);
+                dos_.writeLong(stamp_.length);
+                dos_.writeLong(stamp_.lastModified);
+                dos_.write(stamp_.hash);
+            }
+
+            // The string table
+            Map<String, Integer> indices_ = new HashMap<String, Integer>();
+            List<String> table_ = new ArrayList<String>();
+            int[] keyIndices_ = new int[keys_.size()];
+            int[] stringIndices_ = new int[keys_.size()];
+            for (int i = 0; i < keyIndices_.length; i++) {
+                keyIndices_[i] = intern(keys_.get(i), indices_, table_);
+                stringIndices_[i] = intern(strings_.get(i), indices_, table_);
+            }
+
+            dos_.writeInt(table_.size());
+            for (String string_ : table_)
+                write(dos_, string_);
+
+            dos_.writeInt(keyIndices_.length);
+            for (int i = 0; i < keyIndices_.length; i++) {
+                dos_.writeInt(keyIndices_[i]);
+                dos_.writeInt(stringIndices_[i]);
+
+                Object value_ = values_.get(i);
+                if (value_ instanceof Integer) {
+                    dos_.writeByte(INTEGER);
+                    dos_.writeInt((Integer)value_);
+                } else if (value_ instanceof Long) {
+                    dos_.writeByte(LONG);
+                    dos_.writeLong((Long)value_);
+                } else if (value_ instanceof Boolean) {
+                    dos_.writeByte(BOOLEAN);
+                    dos_.writeBoolean((Boolean)value_);
+                } else if (value_ instanceof Double) {
+                    dos_.writeByte(DOUBLE);
+                    dos_.writeDouble((Double)value_);
+                } else
+                    // To be parsed (cheaply) from the string
+                    dos_.writeByte(STRING);
+            }
+        } finally {
+            dos_.close();
+        }
+
+        try {
+            Files.move( tmp_.toPath(), _image.toPath()
+                      , StandardCopyOption.REPLACE_EXISTING
+                      , StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException _) {
+            Files.move( tmp_.toPath(), _image.toPath()
+                      , StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Sets the configuration's values from the image (at once) unless it's
+     * stale (or absent, or corrupt).
+     *
+     * @return false if the image is stale
+     */
+    public static boolean read
+            (Configuration _config, File _image, File ... _sources)
+        throws IOException
+    {
+        if (!_image.isFile())
+            return false;
+
+        ByteBuffer buffer_;
+        RandomAccessFile raf_ = new RandomAccessFile(_image, "r");
+        try {
+            FileChannel channel_ = raf_.getChannel();
+            buffer_ = channel_.map
+                (FileChannel.MapMode.READ_ONLY, 0, channel_.size());
+        } finally {
+            raf_.close();
+        }
+
+        try {
+            if (buffer_.getInt() != MAGIC || buffer_.getShort() != VERSION
+                || buffer_.getLong() != schema(_config))
+                return false;
+
+            if (buffer_.getInt() != _sources.length)
+                return false;
+            byte[] scratch_ = new byte[256];
+            byte[] hash_ = new byte[32];
+            for (File source_ : _sources) {
+                if (!read(buffer_, scratch_).equals(source_.getAbsolutePath()))
+                    return false;
+                long length_ = buffer_.getLong();
+                long lastModified_ = buffer_.getLong();
+                buffer_.get(hash_);
+
+                if (!source_.isFile() || source_.length() != length_)
+                    return false;
+                if (source_.lastModified() != lastModified_
+                    && !Arrays.equals(hash(source_), hash_))
+                    return false;
+            }
+
+            String[] table_ = new String[buffer_.getInt()];
+            for (int i = 0; i < table_.length; i++) {
+                int length_ = buffer_.getInt();
+                if (length_ > scratch_.length)
+                    scratch_ = new byte[Math.max(length_, scratch_.length * 2)];
+                table_[i] = read(buffer_, length_, scratch_);
+            }
+
+            int count_ = buffer_.getInt();
+            Configuration.Property[] props_
+                = new Configuration.Property[count_];
+            String[] strings_ = new String[count_];
+            Object[] values_ = new Object[count_];
+            for (int i = 0; i < count_; i++) {
+                props_[i] = _config.prefixed.get(table_[buffer_.getInt()]);
+                if (props_[i] == null)
+                    return false;
+                strings_[i] = table_[buffer_.getInt()];
+
+                byte tag_ = buffer_.get();
+                if (tag_ == INTEGER)
+                    values_[i] = buffer_.getInt();
+                else if (tag_ == LONG)
+                    values_[i] = buffer_.getLong();
+                else if (tag_ == BOOLEAN)
+                    values_[i] = buffer_.get() != 0;
+                else if (tag_ == DOUBLE)
+                    values_[i] = buffer_.getDouble();
+                else if (tag_ != STRING)
+                    return false;
+            }
+
+            _config.restore(props_, strings_, values_);
+        } catch (BufferUnderflowException _) {
+            return false;
+        } catch (IndexOutOfBoundsException _) {
+            return false;
+        } catch (NegativeArraySizeException _) {
+            return false;
+        }
+
+        return true;
+    }
+
+
+    private ConfigurationImage()
+    {
+    }
+
+
+    /**
+     * Hashes the configuration's property set (the prefixed keys and the
+     * property classes, in order).
+     */
+    protected static long schema(Configuration _config)
+    {
+        MessageDigest digest_ = digest();
+
+        for (Configuration.Property prop_ : _config.properties()) {
+            digest_.update(_config.prefix(prop_.key)
+                                    .getBytes(StandardCharsets.UTF_8));
+            digest_.update((byte)0);
+            digest_.update(prop_.getClass().getName()
+                                    .getBytes(StandardCharsets.UTF_8));
+            digest_.update((byte)0);
+        }
+
+        return ByteBuffer.wrap(digest_.digest()).getLong();
+    }
+
+    protected static byte[] hash(File _file) throws IOException
+    {
+        MessageDigest digest_ = digest();
+        byte[] buffer_ = new byte[8192];
+
+        InputStream is_ = new FileInputStream(_file);
+        try {
+            for (int n = is_.read(buffer_); n != -1; n = is_.read(buffer_))
+                digest_.update(buffer_, 0, n);
+        } finally {
+            is_.close();
+        }
+
+        return digest_.digest();
+    }
+
+    protected static MessageDigest digest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException _) {
+            // Every Java platform is required to have it
+            throw new IllegalStateException(_);
+        }
+    }
+
+    protected static int intern
+            (String _s, Map<String, Integer> _indices, List<String> _table)
+    {
+        Integer index_ = _indices.get(_s);
+
+        if (index_ == null) {
+            index_ = _table.size();
+            _indices.put(_s, index_);
+            _table.add(_s);
+        }
+
+        return index_;
+    }
+
+    protected static void write(DataOutputStream _dos, String _s)
+            throws IOException
+    {
+        byte[] bytes_ = _s.getBytes(StandardCharsets.UTF_8);
+
+        _dos.writeInt(bytes_.length);
+        _dos.write(bytes_);
+    }
+
+    protected static String read(ByteBuffer _buffer, byte[] _scratch)
+    {
+        int length_ = _buffer.getInt();
+
+        return read(_buffer, length_, (length_ > _scratch.length)
+                                      ? new byte[length_] : _scratch);
+    }
+
+    protected static String read
+            (ByteBuffer _buffer, int _length, byte[] _scratch)
+    {
+        _buffer.get(_scratch, 0, _length);
+
+        return new String(_scratch, 0, _length, StandardCharsets.UTF_8);
+    }
+
+
+    protected static final byte STRING = 0;
+    protected static final byte INTEGER = 1;
+    protected static final byte LONG = 2;
+    protected static final byte BOOLEAN = 3;
+    protected static final byte DOUBLE = 4;
+}
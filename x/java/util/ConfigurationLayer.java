@@ -0,0 +1,230 @@
+package x.java.util;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * A source of {@link Configuration} values (by the prefixed keys, just like
+ * in the files) of a certain precedence: the configurations resolve their
+ * layers (see {@link Configuration#addLayer(ConfigurationLayer)}) into a flat
+ * table once, and then again for just the keys a layer changes.
+ *
+ * The usual precedences are available as constants: the higher one wins (and
+ * the later added one, should they be equal).
+ */
+public class ConfigurationLayer
+{
+    public static final int FILE = 100;
+    public static final int ENVIRONMENT = 200;
+    public static final int SYSTEM = 300;
+    public static final int ARGUMENTS = 400;
+
+
+    /**
+     * A layer of the file's properties (empty if there is no such file).
+     */
+    public static ConfigurationLayer file(File _file, int _precedence)
+            throws IOException
+    {
+        ConfigurationLayer tmp_
+            = new ConfigurationLayer(_file.getPath(), _precedence);
+
+        if (_file.exists()) {
+            InputStream is_ = new FileInputStream(_file);
+            try {
+                tmp_.load(is_);
+            } finally {
+                is_.close();
+            }
+        }
+
+        return tmp_;
+    }
+
+    /**
+     * A layer of the system properties (as of now).
+     */
+    public static ConfigurationLayer systemProperties()
+    {
+        ConfigurationLayer tmp_ = new ConfigurationLayer("system", SYSTEM);
+        java.util.Properties props_ = System.getProperties();
+
+        synchronized (props_) {
+            for (String key_ : props_.stringPropertyNames())
+                tmp_.values.put(key_, props_.getProperty(key_));
+        }
+
+        return tmp_;
+    }
+
+    /**
+     * A layer of the environment variables named after the keys: upper-cased,
+     * with the dots (and dashes) replaced by the underscores, e.g.
+     * <code>SOME_KEY</code> for <code>some.key</code>.
+     */
+    public static ConfigurationLayer environment()
+    {
+        return new ConfigurationLayer("environment", ENVIRONMENT) {
+            public String get(String _key)
+            {
+                return System.getenv(variable(_key));
+            }
+        };
+    }
+
+    /**
+     * A layer of the command-line arguments like <code>key=value</code>
+     * (optionally preceded by <code>--</code> or <code>-D</code>), the other
+     * arguments are ignored.
+     */
+    public static ConfigurationLayer arguments(String ... _args)
+    {
+        ConfigurationLayer tmp_ = new ConfigurationLayer("arguments", ARGUMENTS);
+
+        for (String arg_ : _args) {
+            int i = arg_.indexOf('=');
+            if (i < 1)
+                continue;
+
+            String key_ = arg_.substring(0, i);
+            if (key_.startsWith("--"))
+                key_ = key_.substring(2);
+            else if (key_.startsWith("-D"))
+                key_ = key_.substring(2);
+
+            tmp_.values.put(key_, arg_.substring(i + 1));
+        }
+
+        return tmp_;
+    }
+
+    /**
+     * Returns the environment variable's name for the key.
+     */
+    public static String variable(String _key)
+    {
+        return _key.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_');
+    }
+
+
+    public ConfigurationLayer(String _name, int _precedence)
+    {
+        name = _name;
+        precedence = _precedence;
+        values = new HashMap<String, String>();
+        owners = new CopyOnWriteArrayList<Configuration>();
+    }
+
+
+    /**
+     * Returns the value of the (prefixed) key or <code>null</code> if the
+     * layer has none.
+     */
+    public synchronized String get(String _key)
+    {
+        return values.get(_key);
+    }
+
+    public void put(String _key, String _value)
+    {
+        synchronized (this) {
+            if (_value.equals(values.put(_key, _value)))
+                return;
+        }
+
+        changed(Collections.singleton(_key));
+    }
+
+    public void remove(String _key)
+    {
+        synchronized (this) {
+            if (values.remove(_key) == null)
+                return;
+        }
+
+        changed(Collections.singleton(_key));
+    }
+
+    /**
+     * Replaces all of the values at once: the configurations re-resolve just
+     * the keys changed.
+     */
+    public void replace(Map<String, String> _values)
+    {
+        Set<String> keys_ = new HashSet<String>();
+
+        synchronized (this) {
+            for (Map.Entry<String, String> entry_ : values.entrySet())
+                if (!entry_.getValue().equals(_values.get(entry_.getKey())))
+                    keys_.add(entry_.getKey());
+            for (String key_ : _values.keySet())
+                if (!values.containsKey(key_))
+                    keys_.add(key_);
+
+            values.clear();
+            values.putAll(_values);
+        }
+
+        if (!keys_.isEmpty())
+            changed(keys_);
+    }
+
+    /**
+     * Replaces the values with the stream's (see {@link #replace(Map)}).
+     */
+    public void load(InputStream _is) throws IOException
+    {
+        Map<String, String> tmp_ = new HashMap<String, String>();
+        PropertiesReader pr_ = new PropertiesReader(_is);
+
+        while (pr_.next())
+            tmp_.put(pr_.getKey(), pr_.getValue());
+
+        replace(tmp_);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getPrecedence()
+    {
+        return precedence;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " (" + precedence + ")";
+    }
+
+
+    protected void changed(Collection<String> _keys)
+    {
+        for (Configuration owner_ : owners)
+            owner_.resolve(_keys);
+    }
+
+
+    protected final String name;
+    protected final int precedence;
+    protected final Map<String, String> values;
+    /**
+     * The configurations the layer is added to
+     */
+    protected final List<Configuration> owners;
+}
@@ -0,0 +1,426 @@
+package x.java.util;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.rmi.AlreadyBoundException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Serves a {@link Configuration}'s values over RMI: the subscribers (see
+ * {@link ConfigurationClient}) get the values changed since the version they
+ * have (the configuration's snapshot version, see
+ * {@link ConfigurationSnapshot#getVersion()}) pushed to them as soon as they
+ * change, rather than polling the files.
+ *
+ * The values served are the ones the server's properties have (their
+ * references expanded, their defaults resolved through the server's layers),
+ * by the prefixed keys.
+ *
+ * Every subscriber is pushed to on its own (a slow one holding no other
+ * back), and a subscriber not done with a push within the push timeout is
+ * dropped (to get the changes once subscribed anew, see
+ * {@link ConfigurationClient}).
+ *
+ * @see Configuration#serve(int, String)
+ * @note The versions are the server's process' own: a server restarted has
+ * another epoch, and the subscribers of a former one get all of the values.
+ */
+public class ConfigurationServer implements Closeable
+{
+    /**
+     * The served configuration as bound in the registry
+     */
+    public interface Source extends Remote
+    {
+        public static final String regName = Source.class.getName();
+
+        /**
+         * Subscribes to the changes.
+         *
+         * @return the values changed since the version (all of them if the
+         * epoch is not the server's)
+         */
+        Delta subscribe(Subscriber _subscriber, long _epoch, long _version)
+            throws RemoteException;
+
+        void unsubscribe(Subscriber _subscriber) throws RemoteException;
+
+        /**
+         * @return the values changed since the version (all of them if the
+         * epoch is not the server's)
+         */
+        Delta changes(long _epoch, long _version) throws RemoteException;
+    }
+
+
+    /**
+     * A subscriber to the changes (exported by the subscribing process)
+     */
+    public interface Subscriber extends Remote
+    {
+        void changed(Delta _delta) throws RemoteException;
+    }
+
+
+    /**
+     * The values changed since a version
+     *
+     * @rem Re-generate {@link #serialVersionUID} when changing the class.
+     */
+    public static class Delta implements Serializable
+    {
+        private static final long serialVersionUID = 6183520712937461742L;
+
+
+        public Delta
+                (long _epoch, long _version, boolean _full
+                , Map<String, String> _values)
+        {
+            epoch = _epoch;
+            version = _version;
+            full = _full;
+            values = _values;
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return epoch + "/" + version + (full ? " (full) " : " ") + values;
+        }
+
+
+        public final long epoch;
+        /**
+         * The server's version as of the values
+         */
+        public final long version;
+        /**
+         * Whether all of the values are there (e.g. for another epoch)
+         */
+        public final boolean full;
+        /**
+         * The values by the prefixed keys
+         */
+        public final Map<String, String> values;
+    }
+
+
+    /**
+     * The registry name a configuration is bound under.
+     *
+     * @param _name the configuration's name (may be <code>null</code>)
+     */
+    public static String bindingName(String _name)
+    {
+        return (_name == null) ? Source.regName : Source.regName + '/' + _name;
+    }
+
+
+    /**
+     * Serves the configuration under the name (may be <code>null</code>)
+     * using the specified registry port (the registry is created if there is
+     * none). The source is exported on the same port.
+     */
+    public ConfigurationServer(Configuration _config, int _port, String _name)
+        throws RemoteException, AlreadyBoundException
+    {
+        this(_config, _port, _name, DEFAULT_PUSH_TIMEOUT);
+    }
+
+    /**
+     * @param _pushMillis the time a subscriber may take with a push before
+     * it is dropped
+     */
+    public ConfigurationServer
+            ( Configuration _config, int _port, String _name
+            , long _pushMillis)
+        throws RemoteException, AlreadyBoundException
+    {
+        if (_pushMillis <= 0)
+            throw new IllegalArgumentException
+                ("Push timeout is not positive (" + _pushMillis + ")!");
+
+        Registry reg_ = null;
+        try {
+            reg_ = LocateRegistry.getRegistry(_port);
+            reg_.list();
+        } catch (RemoteException _) {
+            reg_ = LocateRegistry.createRegistry(_port);
+        }
+
+        config = _config;
+        name = _name;
+        registry = reg_;
+        timeout = _pushMillis;
+        epoch = epochs.incrementAndGet();
+        changes = new ConcurrentHashMap<String, Long>();
+        subscriptions = new CopyOnWriteArrayList<Subscription>();
+        pusher = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable _r) {
+                Thread tmp_ = new Thread(_r, "ConfigurationServer " + name);
+                tmp_.setDaemon(true);
+                return tmp_;
+            }
+        });
+
+        listener = new Configuration.Listener() {
+            public void changed
+                    ( Configuration.Property _property, String _old
+                    , String _new)
+            {
+                // Called by the publishing, with the new snapshot in place
+                changes.put( config.prefix(_property.key)
+                           , config.snapshot().getVersion());
+                for (Subscription subscription_ : subscriptions)
+                    schedule(subscription_);
+            }
+        };
+        source = new Source() {
+            public Delta subscribe
+                    (Subscriber _subscriber, long _epoch, long _version)
+            {
+                // Once per subscriber (e.g. one subscribing anew)
+                unsubscribe(_subscriber);
+
+                synchronized (config) {
+                    Delta tmp_ = delta(_epoch, _version);
+                    subscriptions.add(new Subscription(_subscriber, tmp_));
+                    return tmp_;
+                }
+            }
+
+            public void unsubscribe(Subscriber _subscriber)
+            {
+                for (Subscription subscription_ : subscriptions)
+                    if (subscription_.subscriber.equals(_subscriber))
+                        subscriptions.remove(subscription_);
+            }
+
+            public Delta changes(long _epoch, long _version)
+            {
+                return delta(_epoch, _version);
+            }
+        };
+
+        synchronized (config) {
+            started = config.snapshot().getVersion();
+            config.addListener(listener);
+        }
+
+        Remote stub_ = UnicastRemoteObject.exportObject(source, _port);
+        try {
+            registry.bind(bindingName(name), stub_);
+        } catch (AlreadyBoundException e_) {
+            config.removeListener(listener);
+            UnicastRemoteObject.unexportObject(source, true);
+            pusher.shutdown();
+            throw e_;
+        }
+    }
+
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getEpoch()
+    {
+        return epoch;
+    }
+
+    /**
+     * @return the number of the subscribers
+     */
+    public int getSubscribers()
+    {
+        return subscriptions.size();
+    }
+
+    /**
+     * Stops serving (the subscribers keep the values they have).
+     */
+    public void close() throws IOException
+    {
+        config.removeListener(listener);
+        pusher.shutdownNow();
+        try {
+            registry.unbind(bindingName(name));
+        } catch (NotBoundException _) {
+            // Someone beat us to it, fine
+        }
+        try {
+            UnicastRemoteObject.unexportObject(source, true);
+        } catch (NoSuchObjectException _) {
+            // Not exported, fine
+        }
+        subscriptions.clear();
+    }
+
+
+    /**
+     * Returns the values changed since the version as of the current
+     * snapshot.
+     */
+    protected Delta delta(long _epoch, long _version)
+    {
+        // The changes are recorded with the configuration locked
+        synchronized (config) {
+            ConfigurationSnapshot snapshot_ = config.snapshot();
+            boolean full_ = _epoch != epoch;
+            Map<String, String> values_ = new HashMap<String, String>();
+
+            for (int i = 0; i < snapshot_.properties.length; i++) {
+                String key_ = config.prefix(snapshot_.properties[i].key);
+                Long changed_ = changes.get(key_);
+
+                if (full_ || (changed_ != null ? changed_ : started) > _version)
+                    values_.put(key_, snapshot_.strings[i]);
+            }
+
+            return new Delta( epoch, snapshot_.getVersion(), full_
+                            , Collections.unmodifiableMap(values_));
+        }
+    }
+
+    /**
+     * Has the changes pushed to the subscriber (on a pusher thread of its
+     * own, unless it is being pushed to already), dropping it if it has been
+     * pushed to for longer than the timeout.
+     */
+    protected void schedule(final Subscription _subscription)
+    {
+        long pushing_ = _subscription.pushing;
+        if (pushing_ != 0 && System.currentTimeMillis() - pushing_ > timeout) {
+            subscriptions.remove(_subscription);
+            return;
+        }
+
+        _subscription.dirty.set(true);
+        if (_subscription.running.compareAndSet(false, true))
+            try {
+                pusher.execute(new Runnable() {
+                    public void run() {
+                        push(_subscription);
+                    }
+                });
+            } catch (RejectedExecutionException _) {
+                // Closed
+                _subscription.running.set(false);
+            }
+    }
+
+    /**
+     * Pushes the changes to the subscriber until there are no more of them,
+     * dropping it if gone.
+     */
+    protected void push(Subscription _subscription)
+    {
+        do {
+            while (_subscription.dirty.getAndSet(false)) {
+                if (!subscriptions.contains(_subscription))
+                    break;
+
+                Delta delta_ = delta(epoch, _subscription.version);
+                if (delta_.values.isEmpty())
+                    continue;
+
+                _subscription.pushing = System.currentTimeMillis();
+                try {
+                    _subscription.subscriber.changed(delta_);
+                    _subscription.version = delta_.version;
+                } catch (RemoteException _) {
+                    subscriptions.remove(_subscription);
+                } finally {
+                    _subscription.pushing = 0;
+                }
+            }
+            _subscription.running.set(false);
+            // A change coming while done with the last one is not missed
+        } while (_subscription.dirty.get()
+                 && _subscription.running.compareAndSet(false, true));
+    }
+
+
+    protected static class Subscription
+    {
+        public Subscription(Subscriber _subscriber, Delta _delta)
+        {
+            subscriber = _subscriber;
+            version = _delta.version;
+            dirty = new AtomicBoolean();
+            running = new AtomicBoolean();
+        }
+
+
+        public final Subscriber subscriber;
+        /**
+         * The version the subscriber has
+         */
+        public volatile long version;
+        /**
+         * Whether there are changes to be pushed
+         */
+        public final AtomicBoolean dirty;
+        /**
+         * Whether a pusher thread is on it
+         */
+        public final AtomicBoolean running;
+        /**
+         * The time the push in progress started at (0 if none)
+         */
+        public volatile long pushing;
+    }
+
+
+    /**
+     * The epochs of the servers (a process' own, as of its start time)
+     */
+    protected static final AtomicLong epochs
+        = new AtomicLong(System.currentTimeMillis() << 10);
+    public static final long DEFAULT_PUSH_TIMEOUT = 30000;
+
+    protected final Configuration config;
+    protected final String name;
+    protected final Registry registry;
+    /**
+     * The time a subscriber may take with a push (in milliseconds)
+     */
+    protected final long timeout;
+    protected final long epoch;
+    /**
+     * The version the server started at (the one of the properties not
+     * changed since)
+     */
+    protected final long started;
+    /**
+     * The versions of the last changes by the prefixed keys
+     */
+    protected final Map<String, Long> changes;
+    protected final List<Subscription> subscriptions;
+    protected final ExecutorService pusher;
+    protected final Configuration.Listener listener;
+    protected final Source source;
+}
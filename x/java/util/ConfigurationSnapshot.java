@@ -0,0 +1,150 @@
+package x.java.util;
+
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * An immutable state of a {@link Configuration}: all of its properties' values
+ * as of a single moment, so the related properties read through it are always
+ * consistent (never half-way through a {@link Configuration#load}).
+ * 
+ * Taking one ({@link Configuration#snapshot()}) is just a volatile read, and
+ * reading it takes no locks at all.
+ */
+public final class ConfigurationSnapshot
+{
+    /**
+     * @param _indices the properties' indices by the keys (see
+     * {@link #indices(Configuration.Property[])}), shared by the snapshots of
+     * the same properties
+     */
+    protected ConfigurationSnapshot
+            ( Configuration.Property[] _properties
+            , Map<String, Integer> _indices, Object[] _values
+            , String[] _strings, long _version)
+    {
+        properties = _properties;
+        indices = _indices;
+        values = _values;
+        strings = _strings;
+        version = _version;
+    }
+
+
+    /**
+     * Returns the properties' indices by the keys.
+     */
+    protected static Map<String, Integer> indices
+            (Configuration.Property[] _properties)
+    {
+        Map<String, Integer> tmp_ = new HashMap<String, Integer>();
+
+        for (int i = 0; i < _properties.length; i++)
+            tmp_.put(_properties[i].key, i);
+
+        return Collections.unmodifiableMap(tmp_);
+    }
+
+
+    public String get(Configuration.StringProperty _property)
+    {
+        return (String)value(_property);
+    }
+
+    public int get(Configuration.IntegerProperty _property)
+    {
+        return (Integer)value(_property);
+    }
+
+    public long get(Configuration.LongProperty _property)
+    {
+        return (Long)value(_property);
+    }
+
+    public boolean get(Configuration.BooleanProperty _property)
+    {
+        return (Boolean)value(_property);
+    }
+
+    public double get(Configuration.DoubleProperty _property)
+    {
+        return (Double)value(_property);
+    }
+
+    public long get(Configuration.DurationProperty _property, TimeUnit _unit)
+    {
+        return _unit.convert((Long)value(_property), TimeUnit.NANOSECONDS);
+    }
+
+    public long get(Configuration.DataSizeProperty _property)
+    {
+        return (Long)value(_property);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <E extends Enum<E>> E get(Configuration.EnumProperty<E> _property)
+    {
+        return (E)value(_property);
+    }
+
+    public String get(Configuration.FormatProperty _property, Object ... _args)
+    {
+        return template(_property).format(_args);
+    }
+
+    public FormatTemplate template(Configuration.FormatProperty _property)
+    {
+        return (FormatTemplate)value(_property);
+    }
+
+    /**
+     * Returns the (unprefixed) property's value as a string.
+     * 
+     * @throws UnknownPropertyException if there is no such property
+     */
+    public String getProperty(String _key)
+    {
+        Integer index_ = indices.get(_key);
+
+        if (index_ == null)
+            throw UnknownPropertyException.stackless(_key);
+
+        return strings[index_];
+    }
+
+    public int size()
+    {
+        return properties.length;
+    }
+
+    /**
+     * The number of the changes published before this snapshot
+     * (a newer snapshot has a greater one)
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+
+    protected Object value(Configuration.Property _property)
+    {
+        int index_ = _property.index;
+
+        if (index_ >= properties.length || properties[index_] != _property)
+            throw UnknownPropertyException.stackless(_property.key);
+
+        return values[index_];
+    }
+
+
+    protected final Configuration.Property[] properties;
+    protected final Map<String, Integer> indices;
+    protected final Object[] values;
+    protected final String[] strings;
+    protected final long version;
+}
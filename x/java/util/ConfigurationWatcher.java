@@ -0,0 +1,168 @@
+package x.java.util;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Follows a {@link Configuration}'s file: reloads it (on a daemon thread of its
+ * own) as soon as it stays unchanged for the delay after a change.
+ * 
+ * @see Configuration#watch(File, long)
+ * @note The directory of the file is watched rather than the file itself, so
+ * the file may be replaced (by renaming) or even be absent for a while.
+ */
+public class ConfigurationWatcher implements Closeable
+{
+    public ConfigurationWatcher
+            (Configuration _config, File _file, long _delayMillis)
+        throws IOException
+    {
+        if (_delayMillis < 0)
+            throw new IllegalArgumentException
+                ("Delay is negative (" + _delayMillis + ")!");
+
+        config = _config;
+        file = _file.getAbsoluteFile();
+        delay = _delayMillis;
+
+        // Watched first, for a change while reloading not to be missed
+        service = FileSystems.getDefault().newWatchService();
+        try {
+            file.getParentFile().toPath().register
+                ( service
+                , StandardWatchEventKinds.ENTRY_CREATE
+                , StandardWatchEventKinds.ENTRY_MODIFY
+                , StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e_) {
+            service.close();
+            throw e_;
+        }
+
+        if (file.exists())
+            reload();
+
+        thread = new Thread("ConfigurationWatcher " + file) {
+            public void run() {
+                follow();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * @return the file's properties that had illegal values upon the last
+     * reload or <code>null</code> if there were none as such
+     */
+    public Set<String> getRejected()
+    {
+        return rejected;
+    }
+
+    /**
+     * @return the failure of the last reload (e.g. an
+     * {@link IllegalArgumentException} of a malformed file) or
+     * <code>null</code> if it succeeded
+     */
+    public Exception getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * @return the number of the reloads so far
+     */
+    public int getReloads()
+    {
+        return reloads;
+    }
+
+    public void close() throws IOException
+    {
+        thread.interrupt();
+        service.close();
+    }
+
+
+    protected void follow()
+    {
+        long deadline_ = 0;
+        Path name_ = file.toPath().getFileName();
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key_;
+                if (deadline_ == 0)
+                    key_ = service.take();
+                else {
+                    long togo_ = deadline_ - System.currentTimeMillis();
+                    key_ = (togo_ > 0)
+                           ? service.poll(togo_, TimeUnit.MILLISECONDS)
+                           : null;
+                }
+
+                if (key_ == null) {
+                    deadline_ = 0;
+                    if (file.exists())
+                        reload();
+                    continue;
+                }
+
+                for (WatchEvent<?> event_ : key_.pollEvents())
+                    if (event_.kind() == StandardWatchEventKinds.OVERFLOW
+                        || name_.equals(event_.context()))
+                        deadline_ = System.currentTimeMillis() + delay;
+                key_.reset();
+            }
+        } catch (InterruptedException _) {
+            // Closed
+        } catch (ClosedWatchServiceException _) {
+            // Closed
+        }
+    }
+
+    protected void reload()
+    {
+        try {
+            InputStream is_ = new FileInputStream(file);
+            try {
+                rejected = config.reload(is_);
+            } finally {
+                is_.close();
+            }
+            failure = null;
+        } catch (IOException _) {
+            // Most probably, the file is being written: there's more to come
+            failure = _;
+        } catch (RuntimeException _) {
+            // E.g. a malformed Unicode escape: the watching goes on anyway
+            failure = _;
+        }
+        reloads++;
+    }
+
+
+    protected final Configuration config;
+    protected final File file;
+    protected final long delay;
+    protected final WatchService service;
+    protected final Thread thread;
+    protected volatile Set<String> rejected;
+    protected volatile Exception failure;
+    protected volatile int reloads;
+}
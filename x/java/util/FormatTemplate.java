@@ -0,0 +1,248 @@
+package x.java.util;
+
+
+import java.io.IOException;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Formattable;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * A {@link String#format(String, Object...)} pattern parsed once: formatting
+ * with it is just appending the literal parts and the arguments, with no regex
+ * matching and no {@link java.util.Formatter} allocated.
+ *
+ * Only the plain <code>%s</code> and <code>%d</code> specifiers (with an
+ * optional explicit argument index, e.g. <code>%2$s</code>), <code>%%</code>
+ * and <code>%n</code> are compiled. A pattern with any other specifier (or
+ * flags, width, precision) is left to {@link String#format(String, Object...)},
+ * and so are the calls with the arguments <code>%s</code> or <code>%d</code>
+ * cannot handle as such ({@link Formattable}s, {@link java.math.BigInteger}s).
+ *
+ * @note The <code>%d</code> specifiers are compiled only if the default format
+ * locale's digits are the ASCII ones (as of the compilation).
+ */
+public final class FormatTemplate
+{
+    public static FormatTemplate compile(String _pattern)
+    {
+        assert _pattern != null;
+
+        List<String> literals_ = new ArrayList<String>();
+        List<Integer> indices_ = new ArrayList<Integer>();
+        StringBuilder sb_ = new StringBuilder();
+        boolean asciiDigits_ = DecimalFormatSymbols.getInstance
+            (Locale.getDefault(Locale.Category.FORMAT)).getZeroDigit() == '0';
+        int ordinary_ = 0;
+        int i = 0;
+
+        while (i < _pattern.length()) {
+            char c = _pattern.charAt(i++);
+
+            if (c != '%') {
+                sb_.append(c);
+                continue;
+            }
+
+            int start_ = i;
+            int index_ = 0;
+            while (i < _pattern.length()
+                   && Character.isDigit(_pattern.charAt(i))
+                   && index_ < 10000)
+                index_ = index_ * 10 + (_pattern.charAt(i++) - '0');
+            if (i > start_) {
+                if (i == _pattern.length() || _pattern.charAt(i) != '$'
+                    || index_ == 0)
+                    return new FormatTemplate(_pattern);
+                i++;
+            }
+            if (i == _pattern.length())
+                return new FormatTemplate(_pattern);
+
+            char conversion_ = _pattern.charAt(i++);
+            boolean indexed_ = i - 1 > start_;
+
+            if (conversion_ == '%' && !indexed_)
+                sb_.append('%');
+            else if (conversion_ == 'n' && !indexed_)
+                sb_.append(System.lineSeparator());
+            else if (conversion_ == 's'
+                     || (conversion_ == 'd' && asciiDigits_)) {
+                literals_.add(sb_.toString());
+                sb_.setLength(0);
+
+                int argument_ = indexed_ ? index_ - 1 : ordinary_++;
+                // The %d ones are negative (~index)
+                indices_.add((conversion_ == 's') ? argument_ : ~argument_);
+            } else
+                return new FormatTemplate(_pattern);
+        }
+        literals_.add(sb_.toString());
+
+        int[] tmp_ = new int[indices_.size()];
+        for (int j = 0; j < tmp_.length; j++)
+            tmp_[j] = indices_.get(j);
+
+        return new FormatTemplate
+            (_pattern, literals_.toArray(new String[literals_.size()]), tmp_);
+    }
+
+
+    protected FormatTemplate(String _pattern)
+    {
+        this(_pattern, null, null);
+    }
+
+    protected FormatTemplate(String _pattern, String[] _literals, int[] _indices)
+    {
+        pattern = _pattern;
+        literals = _literals;
+        indices = _indices;
+
+        int length_ = 0;
+        if (literals != null)
+            for (String literal_ : literals)
+                length_ += literal_.length();
+        length = length_;
+    }
+
+
+    public String format(Object ... _args)
+    {
+        if (!handles(_args))
+            return String.format(pattern, _args);
+
+        return append(new StringBuilder(length + 16 * indices.length), _args)
+                .toString();
+    }
+
+    /**
+     * Formats the arguments right into the builder.
+     *
+     * @return the builder
+     */
+    public StringBuilder appendTo(StringBuilder _sb, Object ... _args)
+    {
+        if (!handles(_args))
+            return _sb.append(String.format(pattern, _args));
+
+        return append(_sb, _args);
+    }
+
+    /**
+     * Formats the arguments right into the appendable.
+     *
+     * @return the appendable
+     */
+    public <A extends Appendable> A appendTo(A _a, Object ... _args)
+            throws IOException
+    {
+        if (!handles(_args)) {
+            _a.append(String.format(pattern, _args));
+            return _a;
+        }
+
+        for (int i = 0; i < indices.length; i++) {
+            _a.append(literals[i]);
+
+            Object arg_ = argument(i, _args);
+            if (arg_ instanceof String)
+                _a.append((String)arg_);
+            else
+                _a.append(String.valueOf(arg_));
+        }
+        _a.append(literals[indices.length]);
+
+        return _a;
+    }
+
+    public String getPattern()
+    {
+        return pattern;
+    }
+
+    /**
+     * @return false if the pattern is left to
+     * {@link String#format(String, Object...)} as a whole
+     */
+    public boolean isCompiled()
+    {
+        return literals != null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return pattern;
+    }
+
+
+    protected StringBuilder append(StringBuilder _sb, Object[] _args)
+    {
+        for (int i = 0; i < indices.length; i++) {
+            _sb.append(literals[i]);
+
+            Object arg_ = argument(i, _args);
+            if (arg_ instanceof Integer)
+                _sb.append(((Integer)arg_).intValue());
+            else if (arg_ instanceof Long)
+                _sb.append(((Long)arg_).longValue());
+            else
+                _sb.append(arg_);
+        }
+
+        return _sb.append(literals[indices.length]);
+    }
+
+    /**
+     * Checks whether the arguments can be formatted by the compiled pattern
+     * (the missing ones are left to {@link String#format(String, Object...)}
+     * to complain about).
+     */
+    protected boolean handles(Object[] _args)
+    {
+        if (literals == null)
+            return false;
+
+        for (int index_ : indices) {
+            boolean decimal_ = index_ < 0;
+            int i = decimal_ ? ~index_ : index_;
+
+            if (_args == null || i >= _args.length)
+                return false;
+
+            Object arg_ = _args[i];
+            if (decimal_) {
+                if (!(arg_ instanceof Integer || arg_ instanceof Long
+                      || arg_ instanceof Short || arg_ instanceof Byte
+                      || arg_ == null))
+                    return false;
+            } else if (arg_ instanceof Formattable)
+                return false;
+        }
+
+        return true;
+    }
+
+    protected Object argument(int _i, Object[] _args)
+    {
+        int index_ = indices[_i];
+
+        return _args[(index_ < 0) ? ~index_ : index_];
+    }
+
+
+    protected final String pattern;
+    /**
+     * The literal parts around the specifiers (<code>null</code> if the
+     * pattern isn't compiled)
+     */
+    protected final String[] literals;
+    /**
+     * The specifiers' argument indices (the <code>%d</code> ones are ~index)
+     */
+    protected final int[] indices;
+    protected final int length;
+}
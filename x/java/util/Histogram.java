@@ -0,0 +1,74 @@
+package x.java.util;
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values (e.g. latencies) in
+ * power-of-two buckets: recording is just a couple of atomic increments, the
+ * percentiles are accurate within a factor of two.
+ */
+public class Histogram
+{
+    public Histogram()
+    {
+        buckets = new AtomicLongArray(65);
+        count = new LongAdder();
+        sum = new LongAdder();
+    }
+
+
+    public void record(long value)
+    {
+        if (value < 0)
+            value = 0;
+
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+        count.increment();
+        sum.add(value);
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    public long getMean()
+    {
+        long count_ = count.sum();
+
+        return (count_ == 0) ? 0 : sum.sum() / count_;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the percentile.
+     *
+     * @param percentile from 0 to 100
+     */
+    public long getPercentile(double percentile)
+    {
+        long[] counts = new long[buckets.length()];
+        long total = 0;
+
+        for (int i = 0; i < counts.length; i++)
+            total += counts[i] = buckets.get(i);
+
+        long rank = (long)Math.ceil(total * percentile / 100);
+
+        for (int i = 0; i < counts.length; i++) {
+            rank -= counts[i];
+            if (rank <= 0 && counts[i] > 0)
+                return (i == 0) ? 0
+                     : (i == 64) ? Long.MAX_VALUE
+                     : (1L << i) - 1;
+        }
+
+        return 0;
+    }
+
+
+    protected final AtomicLongArray buckets;
+    protected final LongAdder count;
+    protected final LongAdder sum;
+}
@@ -24,4 +24,22 @@ public class IllegalPropertyValueException extends IllegalArgumentException
         super(_message, _cause);
     }
 
+
+    /**
+     * Returns an exception with no stack trace (cheap to throw, e.g. by the
+     * getters parsing the values): the cause (if any) has one.
+     */
+    public static IllegalPropertyValueException stackless
+            (String _message, Throwable _cause)
+    {
+        // IllegalArgumentException has no "writableStackTrace" constructor
+        return new IllegalPropertyValueException(_message, _cause) {
+            @Override
+            public synchronized Throwable fillInStackTrace()
+            {
+                return this;
+            }
+        };
+    }
+
 }
@@ -0,0 +1,83 @@
+package x.java.util;
+
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * What a forgiving load (see
+ * {@link Configuration#loadForgiving(java.io.InputStream)}) made of the
+ * stream's (prefixed) keys: the ones loaded, the unknown ones and the ones of
+ * the illegal values (kept out of the configuration), each in the order of the
+ * stream (a key repeated counts as its last occurrence).
+ */
+public class LoadReport
+{
+    public LoadReport()
+    {
+        loaded = new LinkedHashSet<String>();
+        unknown = new LinkedHashSet<String>();
+        invalid = new LinkedHashMap<String, String>();
+    }
+
+
+    public Set<String> getLoaded()
+    {
+        return Collections.unmodifiableSet(loaded);
+    }
+
+    public Set<String> getUnknown()
+    {
+        return Collections.unmodifiableSet(unknown);
+    }
+
+    /**
+     * Returns the illegal values by the keys.
+     */
+    public Map<String, String> getInvalid()
+    {
+        return Collections.unmodifiableMap(invalid);
+    }
+
+    /**
+     * Tells whether every key was loaded.
+     */
+    public boolean isClean()
+    {
+        return unknown.isEmpty() && invalid.isEmpty();
+    }
+
+    @Override
+    public String toString()
+    {
+        return loaded.size() + " loaded, unknown: " + unknown
+               + ", invalid: " + invalid;
+    }
+
+
+    protected void loaded(String _key)
+    {
+        invalid.remove(_key);
+        loaded.add(_key);
+    }
+
+    protected void unknown(String _key)
+    {
+        unknown.add(_key);
+    }
+
+    protected void invalid(String _key, String _value)
+    {
+        loaded.remove(_key);
+        invalid.put(_key, _value);
+    }
+
+
+    protected final Set<String> loaded;
+    protected final Set<String> unknown;
+    protected final Map<String, String> invalid;
+}
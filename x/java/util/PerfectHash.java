@@ -0,0 +1,208 @@
+package x.java.util;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * An immutable map of the string keys (e.g. of a {@link Configuration}'s
+ * properties) by a perfect hash function, built once (the "hash and
+ * displace" way): the keys' hash codes pick their buckets, and every bucket
+ * has its displacement picked for its keys to get slots of their own. A
+ * lookup is just two array reads and a {@link String#equals(Object)}, with no
+ * probing and no locking.
+ *
+ * The keys of the same hash code (which no displacement can tell apart) are
+ * kept in an ordinary map aside.
+ */
+public final class PerfectHash<V>
+{
+    public static <V> PerfectHash<V> build(Map<String, ? extends V> _map)
+    {
+        // Half full at most, for the displacements to be found quickly
+        for (int slots_ = capacity(2 * _map.size()); ; slots_ *= 2) {
+            PerfectHash<V> tmp_ = build(_map, slots_);
+            if (tmp_ != null)
+                return tmp_;
+        }
+    }
+
+
+    protected PerfectHash
+            ( int[] _displacements, String[] _keys, Object[] _values
+            , Map<String, V> _overflow)
+    {
+        displacements = _displacements;
+        keys = _keys;
+        values = _values;
+        overflow = _overflow;
+    }
+
+
+    /**
+     * @return the key's value or <code>null</code> if there is no such key
+     */
+    @SuppressWarnings("unchecked")
+    public V get(String _key)
+    {
+        int h = spread(_key.hashCode());
+        int slot_ = mix(h, displacements[h & (displacements.length - 1)])
+                    & (keys.length - 1);
+
+        if (_key.equals(keys[slot_]))
+            return (V)values[slot_];
+
+        return (overflow != null) ? overflow.get(_key) : null;
+    }
+
+    public int size()
+    {
+        int size_ = (overflow != null) ? overflow.size() : 0;
+
+        for (String key_ : keys)
+            if (key_ != null)
+                size_++;
+
+        return size_;
+    }
+
+
+    /**
+     * @return <code>null</code> if some bucket has no displacement for the
+     * number of the slots
+     */
+    protected static <V> PerfectHash<V> build
+            (Map<String, ? extends V> _map, int _slots)
+    {
+        int[] displacements_ = new int[capacity(_map.size() / 2)];
+        String[] keys_ = new String[_slots];
+        Object[] values_ = new Object[_slots];
+        Map<String, V> overflow_ = null;
+
+        // The buckets (of the keys of distinct hash codes)
+        final List<List<String>> buckets_ = new ArrayList<List<String>>();
+        for (int i = 0; i < displacements_.length; i++)
+            buckets_.add(new ArrayList<String>());
+        Map<Integer, String> hashes_ = new HashMap<Integer, String>();
+        for (Map.Entry<String, ? extends V> entry_ : _map.entrySet()) {
+            String key_ = entry_.getKey();
+            int h = spread(key_.hashCode());
+
+            if (hashes_.put(h, key_) != null) {
+                if (overflow_ == null)
+                    overflow_ = new HashMap<String, V>();
+                overflow_.put(key_, entry_.getValue());
+                continue;
+            }
+            buckets_.get(h & (displacements_.length - 1)).add(key_);
+        }
+
+        // The biggest buckets first, while there are plenty of free slots
+        Integer[] order_ = new Integer[buckets_.size()];
+        for (int i = 0; i < order_.length; i++)
+            order_[i] = i;
+        Arrays.sort(order_, new Comparator<Integer>() {
+            public int compare(Integer _a, Integer _b) {
+                return buckets_.get(_b).size() - buckets_.get(_a).size();
+            }
+        });
+
+        int[] slots_ = new int[0];
+        for (int index_ : order_) {
+            List<String> bucket_ = buckets_.get(index_);
+            if (bucket_.isEmpty())
+                break;
+            if (slots_.length < bucket_.size())
+                slots_ = new int[bucket_.size()];
+
+            int displacement_ = 0;
+            while (!place(bucket_, displacement_, keys_, slots_))
+                if (++displacement_ == MAX_DISPLACEMENT)
+                    return null;
+
+            displacements_[index_] = displacement_;
+            for (int i = 0; i < bucket_.size(); i++) {
+                keys_[slots_[i]] = bucket_.get(i);
+                values_[slots_[i]] = _map.get(bucket_.get(i));
+            }
+        }
+
+        return new PerfectHash<V>
+            (displacements_, keys_, values_, overflow_);
+    }
+
+    /**
+     * Finds the bucket's slots by the displacement.
+     *
+     * @return false if they are not all free and distinct
+     */
+    protected static boolean place
+            (List<String> _bucket, int _displacement, String[] _keys
+            , int[] _slots)
+    {
+        for (int i = 0; i < _bucket.size(); i++) {
+            int slot_ = mix(spread(_bucket.get(i).hashCode()), _displacement)
+                        & (_keys.length - 1);
+
+            if (_keys[slot_] != null)
+                return false;
+            for (int j = 0; j < i; j++)
+                if (_slots[j] == slot_)
+                    return false;
+            _slots[i] = slot_;
+        }
+
+        return true;
+    }
+
+    protected static int spread(int _h)
+    {
+        return _h ^ (_h >>> 16);
+    }
+
+    /**
+     * The slot hash of the displacement (a MurmurHash3 finalizer).
+     */
+    protected static int mix(int _h, int _displacement)
+    {
+        int h = _h ^ (_displacement * 0x9e3779b9);
+
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+
+        return h;
+    }
+
+    /**
+     * Returns the power of two no less than the number (1 at least).
+     */
+    protected static int capacity(int _n)
+    {
+        return (_n <= 1) ? 1 : Integer.highestOneBit(_n - 1) << 1;
+    }
+
+
+    protected static final int MAX_DISPLACEMENT = 1 << 16;
+
+    /**
+     * The displacements by the buckets (a power of two of them)
+     */
+    protected final int[] displacements;
+    /**
+     * The keys by the slots (a power of two of them)
+     */
+    protected final String[] keys;
+    protected final Object[] values;
+    /**
+     * The keys of the hash codes taken already (<code>null</code> if none)
+     */
+    protected final Map<String, V> overflow;
+}
@@ -1,11 +1,35 @@
 
 package x.java.util;
 
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
 import java.util.IllegalFormatException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 
 /**
  * The better {@link java.util.Properties}
+ *
+ * The typed getters memoize the values parsed (by the keys) until the
+ * properties (or their defaults) are modified: a repeated read is just a hash
+ * lookup.
+ *
+ * @note The modifications are tracked through all of the writing methods
+ * (the {@link Map} ones such as {@link #merge(Object, Object, BiFunction)}
+ * included, so the loads and {@link #setProperty(String, String)} as well)
+ * and the views (see {@link #keySet()}, {@link #values()} and
+ * {@link #entrySet()}), with nothing memoized over the defaults of another
+ * {@link java.util.Properties} class.
  */
 @SuppressWarnings("serial")
 public class Properties extends java.util.Properties
@@ -33,55 +57,203 @@ public class Properties extends java.util.Properties
 
     public int getIntegerProperty(String _key)
     {
+        long stamp_ = stamp();
+        Object memo_ = memo(_key, INTEGER, stamp_);
+        if (memo_ != null)
+            return (Integer)memo_;
+
         String sProp_ = getProperty(_key);
 
         if (sProp_ == null)
             throw new UnknownPropertyException(_key);
 
         try {
-            return Integer.decode(sProp_);
+            return (Integer)memoize
+                (_key, INTEGER, stamp_, Integer.decode(sProp_));
         } catch (NumberFormatException _) {
-            throw new IllegalPropertyValueException(_key + "=" + sProp_, _);
+            throw IllegalPropertyValueException.stackless
+                (_key + "=" + sProp_, _);
         }        
     }
 
     public int getIntegerProperty(String _key, int _default)
     {
+        long stamp_ = stamp();
+        Object memo_ = memo(_key, INTEGER, stamp_);
+        if (memo_ != null)
+            return (Integer)memo_;
+
         String sProp_ = getProperty(_key);
 
         if (sProp_ == null)
             return _default;
 
         try {
-            return Integer.decode(sProp_);
+            return (Integer)memoize
+                (_key, INTEGER, stamp_, Integer.decode(sProp_));
+        } catch (NumberFormatException _) {
+            throw IllegalPropertyValueException.stackless
+                (_key + "=" + sProp_, _);
+        }
+    }
+
+    public long getLongProperty(String _key)
+    {
+        long stamp_ = stamp();
+        Object memo_ = memo(_key, LONG, stamp_);
+        if (memo_ != null)
+            return (Long)memo_;
+
+        String sProp_ = getStringProperty(_key);
+
+        try {
+            return (Long)memoize(_key, LONG, stamp_, Long.decode(sProp_));
+        } catch (NumberFormatException _) {
+            throw IllegalPropertyValueException.stackless
+                (_key + "=" + sProp_, _);
+        }        
+    }
+
+    /**
+     * Accepts <code>true</code>/<code>false</code>, <code>yes</code>/
+     * <code>no</code> and <code>on</code>/<code>off</code> (in any case),
+     * unlike {@link Boolean#parseBoolean(String)} taking anything for false.
+     */
+    public boolean getBooleanProperty(String _key)
+    {
+        long stamp_ = stamp();
+        Object memo_ = memo(_key, BOOLEAN, stamp_);
+        if (memo_ != null)
+            return (Boolean)memo_;
+
+        String sProp_ = getStringProperty(_key);
+        String tmp_ = sProp_.trim().toLowerCase(Locale.ROOT);
+
+        if (tmp_.equals("true") || tmp_.equals("yes") || tmp_.equals("on"))
+            return (Boolean)memoize(_key, BOOLEAN, stamp_, Boolean.TRUE);
+        if (tmp_.equals("false") || tmp_.equals("no") || tmp_.equals("off"))
+            return (Boolean)memoize(_key, BOOLEAN, stamp_, Boolean.FALSE);
+
+        throw IllegalPropertyValueException.stackless
+            (_key + "=" + sProp_, null);
+    }
+
+    public double getDoubleProperty(String _key)
+    {
+        long stamp_ = stamp();
+        Object memo_ = memo(_key, DOUBLE, stamp_);
+        if (memo_ != null)
+            return (Double)memo_;
+
+        String sProp_ = getStringProperty(_key);
+
+        try {
+            return (Double)memoize
+                (_key, DOUBLE, stamp_, Double.parseDouble(sProp_));
         } catch (NumberFormatException _) {
-            throw new IllegalPropertyValueException(_key + "=" + sProp_, _);
+            throw IllegalPropertyValueException.stackless
+                (_key + "=" + sProp_, _);
+        }        
+    }
+
+    /**
+     * @see #parseDuration(String)
+     */
+    public long getDurationProperty(String _key, TimeUnit _unit)
+    {
+        long stamp_ = stamp();
+        Object memo_ = memo(_key, DURATION, stamp_);
+        if (memo_ != null)
+            return _unit.convert((Long)memo_, TimeUnit.NANOSECONDS);
+
+        String sProp_ = getStringProperty(_key);
+
+        try {
+            // The nanoseconds memoized, whatever the unit
+            Object nanos_ = memoize
+                (_key, DURATION, stamp_, parseDuration(sProp_));
+            return _unit.convert((Long)nanos_, TimeUnit.NANOSECONDS);
+        } catch (IllegalArgumentException _) {
+            throw IllegalPropertyValueException.stackless
+                (_key + "=" + sProp_, _);
+        }
+    }
+
+    /**
+     * @see #parseDataSize(String)
+     */
+    public long getDataSizeProperty(String _key)
+    {
+        long stamp_ = stamp();
+        Object memo_ = memo(_key, DATA_SIZE, stamp_);
+        if (memo_ != null)
+            return (Long)memo_;
+
+        String sProp_ = getStringProperty(_key);
+
+        try {
+            return (Long)memoize
+                (_key, DATA_SIZE, stamp_, parseDataSize(sProp_));
+        } catch (IllegalArgumentException _) {
+            throw IllegalPropertyValueException.stackless
+                (_key + "=" + sProp_, _);
         }
     }
 
+    /**
+     * Takes the constant's name (in any case, should it be unambiguous).
+     */
+    public <E extends Enum<E>> E getEnumProperty(String _key, Class<E> _class)
+    {
+        long stamp_ = stamp();
+        // The class is the kind
+        Object memo_ = memo(_key, _class, stamp_);
+        if (memo_ != null)
+            return _class.cast(memo_);
+
+        String sProp_ = getStringProperty(_key);
+        String tmp_ = sProp_.trim();
+        E found_ = null;
+
+        for (E constant_ : _class.getEnumConstants()) {
+            if (constant_.name().equals(tmp_))
+                return _class.cast(memoize(_key, _class, stamp_, constant_));
+            if (constant_.name().equalsIgnoreCase(tmp_))
+                found_ = (found_ == null) ? constant_ : null;
+        }
+        
+        if (found_ == null)
+            throw IllegalPropertyValueException.stackless
+                (_key + "=" + sProp_, null);
+
+        return _class.cast(memoize(_key, _class, stamp_, found_));
+    }
+
     public String getFormatProperty(String _key, Object ... _args)
     {
-        String sProp_ = getProperty(_key);
+        FormatTemplate template_ = template(_key);
 
-        if (sProp_ == null)
+        if (template_ == null)
             throw new UnknownPropertyException(_key);
         
         try {
-            return String.format(sProp_, _args);
+            return template_.format(_args);
         } catch (IllegalFormatException _) {
-            throw new IllegalPropertyValueException(_key, _);
+            throw IllegalPropertyValueException.stackless(_key, _);
         }
     }
 
     public String getFormatProperty
             (String _key, String _default, Object ... _args)
     {
-        String sProp_ = getProperty(_key);
+        FormatTemplate template_ = template(_key);
 
         try {
-            return String.format((sProp_ != null ? sProp_ : _default), _args);
+            if (template_ == null)
+                return String.format(_default, _args);
+            return template_.format(_args);
         } catch (IllegalFormatException _) {
-            throw new IllegalPropertyValueException(_key, _);
+            throw IllegalPropertyValueException.stackless(_key, _);
         }
     }
     
@@ -100,4 +272,796 @@ public class Properties extends java.util.Properties
         
         remove(_key);
     }
+    
+    @Override
+    public synchronized Object put(Object _key, Object _value)
+    {
+        Object tmp_ = super.put(_key, _value);
+        
+        modified();
+        
+        return tmp_;
+    }
+
+    @Override
+    public synchronized Object remove(Object _key)
+    {
+        Object tmp_ = super.remove(_key);
+        
+        modified();
+        
+        return tmp_;
+    }
+
+    @Override
+    public synchronized void putAll(Map<?, ?> _map)
+    {
+        super.putAll(_map);
+        
+        modified();
+    }
+
+    @Override
+    public synchronized void clear()
+    {
+        super.clear();
+        
+        modified();
+    }
+
+    @Override
+    public synchronized Object putIfAbsent(Object _key, Object _value)
+    {
+        Object tmp_ = super.putIfAbsent(_key, _value);
+        
+        modified();
+        
+        return tmp_;
+    }
+
+    @Override
+    public synchronized boolean remove(Object _key, Object _value)
+    {
+        boolean tmp_ = super.remove(_key, _value);
+        
+        modified();
+        
+        return tmp_;
+    }
+
+    @Override
+    public synchronized boolean replace
+            (Object _key, Object _oldValue, Object _newValue)
+    {
+        boolean tmp_ = super.replace(_key, _oldValue, _newValue);
+        
+        modified();
+        
+        return tmp_;
+    }
+
+    @Override
+    public synchronized Object replace(Object _key, Object _value)
+    {
+        Object tmp_ = super.replace(_key, _value);
+        
+        modified();
+        
+        return tmp_;
+    }
+
+    @Override
+    public synchronized void replaceAll
+            (BiFunction<? super Object, ? super Object, ?> _function)
+    {
+        super.replaceAll(_function);
+        
+        modified();
+    }
+
+    @Override
+    public synchronized Object computeIfAbsent
+            (Object _key, Function<? super Object, ?> _function)
+    {
+        Object tmp_ = super.computeIfAbsent(_key, _function);
+        
+        modified();
+        
+        return tmp_;
+    }
+
+    @Override
+    public synchronized Object computeIfPresent
+            ( Object _key
+            , BiFunction<? super Object, ? super Object, ?> _function)
+    {
+        Object tmp_ = super.computeIfPresent(_key, _function);
+        
+        modified();
+        
+        return tmp_;
+    }
+
+    @Override
+    public synchronized Object compute
+            ( Object _key
+            , BiFunction<? super Object, ? super Object, ?> _function)
+    {
+        Object tmp_ = super.compute(_key, _function);
+        
+        modified();
+        
+        return tmp_;
+    }
+
+    @Override
+    public synchronized Object merge
+            ( Object _key, Object _value
+            , BiFunction<? super Object, ? super Object, ?> _function)
+    {
+        Object tmp_ = super.merge(_key, _value, _function);
+        
+        modified();
+        
+        return tmp_;
+    }
+
+    /**
+     * The removals through the view are tracked.
+     */
+    @Override
+    public Set<Object> keySet()
+    {
+        return new TrackedSet<Object>(super.keySet(), false);
+    }
+
+    /**
+     * The removals through the view are tracked.
+     */
+    @Override
+    public Collection<Object> values()
+    {
+        return new TrackedCollection<Object>(super.values());
+    }
+
+    /**
+     * The removals and the values set through the view are tracked.
+     */
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet()
+    {
+        return new TrackedSet<Map.Entry<Object, Object>>
+            (super.entrySet(), true);
+    }
+
+
+    /**
+     * Parses a duration: a number followed by a unit (<code>ns</code>,
+     * <code>us</code>, <code>ms</code>, <code>s</code>, <code>m</code>,
+     * <code>h</code> or <code>d</code>; milliseconds if none), e.g.
+     * <code>250ms</code> or <code>1.5h</code>, or an ISO-8601 one
+     * (<code>PT1M30S</code>).
+     * 
+     * @return the nanoseconds (saturated)
+     * @throws IllegalArgumentException if it's not a duration
+     */
+    public static long parseDuration(String _s)
+    {
+        String tmp_ = _s.trim();
+
+        if (tmp_.startsWith("P") || tmp_.startsWith("-P"))
+            try {
+                Duration duration_ = Duration.parse(tmp_);
+
+                return TimeUnit.SECONDS.toNanos(duration_.getSeconds())
+                       + duration_.getNano();
+            } catch (DateTimeParseException _) {
+                throw new IllegalArgumentException
+                    ("Not a duration (" + _s + ")!", _);
+            }
+
+        int unit_ = unit(tmp_);
+        long nanos_ = nanos(tmp_.substring(unit_));
+        if (nanos_ == 0)
+            throw new IllegalArgumentException
+                ("Not a duration unit (" + _s + ")!");
+
+        return scale(_s, tmp_.substring(0, unit_), nanos_);
+    }
+
+    /**
+     * Parses a data size: a number followed by a (binary) unit
+     * (<code>K</code>, <code>M</code>, <code>G</code> or <code>T</code>,
+     * optionally followed by <code>B</code> or <code>iB</code>; bytes if
+     * none), e.g. <code>64K</code> or <code>1.5GiB</code>.
+     * 
+     * @return the bytes (saturated)
+     * @throws IllegalArgumentException if it's not a data size
+     */
+    public static long parseDataSize(String _s)
+    {
+        String tmp_ = _s.trim();
+        int unit_ = unit(tmp_);
+        long bytes_ = bytes(tmp_.substring(unit_));
+        if (bytes_ == 0)
+            throw new IllegalArgumentException
+                ("Not a data size unit (" + _s + ")!");
+
+        return scale(_s, tmp_.substring(0, unit_), bytes_);
+    }
+
+    /**
+     * Tells whether the string is an integer (see {@link Long#decode(String)})
+     * within the range, without throwing (nor catching) any exceptions
+     * unless it's a really odd one.
+     */
+    public static boolean isInteger(String _s, long _min, long _max)
+    {
+        return isInteger(_s, _min, _max, true);
+    }
+
+    /**
+     * Tells whether the string is a number (see
+     * {@link Double#parseDouble(String)}) without throwing (nor catching) any
+     * exceptions unless it's a really odd one (e.g. a hexadecimal one).
+     */
+    public static boolean isDouble(String _s)
+    {
+        String tmp_ = _s.trim();
+        int i = 0;
+        int length_ = tmp_.length();
+
+        if (i < length_ && (tmp_.charAt(i) == '+' || tmp_.charAt(i) == '-'))
+            i++;
+        if (tmp_.startsWith("NaN", i) || tmp_.startsWith("Infinity", i))
+            return tmp_.length() == i + (tmp_.charAt(i) == 'N' ? 3 : 8);
+        if (tmp_.startsWith("0x", i) || tmp_.startsWith("0X", i))
+            try {
+                Double.parseDouble(tmp_);
+                return true;
+            } catch (NumberFormatException _) {
+                return false;
+            }
+
+        int digits_ = 0;
+        while (i < length_ && isDigit(tmp_.charAt(i))) {
+            i++;
+            digits_++;
+        }
+        if (i < length_ && tmp_.charAt(i) == '.')
+            for (i++; i < length_ && isDigit(tmp_.charAt(i)); i++)
+                digits_++;
+        if (digits_ == 0)
+            return false;
+
+        if (i < length_ && (tmp_.charAt(i) == 'e' || tmp_.charAt(i) == 'E')) {
+            i++;
+            if (i < length_ && (tmp_.charAt(i) == '+' || tmp_.charAt(i) == '-'))
+                i++;
+            int exponent_ = i;
+            while (i < length_ && isDigit(tmp_.charAt(i)))
+                i++;
+            if (i == exponent_)
+                return false;
+        }
+        if (i < length_ && "fFdD".indexOf(tmp_.charAt(i)) != -1)
+            i++;
+
+        return i == length_;
+    }
+
+    /**
+     * @see #getBooleanProperty(String)
+     */
+    public static boolean isBoolean(String _s)
+    {
+        String tmp_ = _s.trim().toLowerCase(Locale.ROOT);
+
+        return tmp_.equals("true") || tmp_.equals("yes") || tmp_.equals("on")
+               || tmp_.equals("false") || tmp_.equals("no")
+               || tmp_.equals("off");
+    }
+
+    /**
+     * @see #parseDuration(String)
+     */
+    public static boolean isDuration(String _s)
+    {
+        String tmp_ = _s.trim();
+
+        if (tmp_.startsWith("P") || tmp_.startsWith("-P"))
+            try {
+                Duration.parse(tmp_);
+                return true;
+            } catch (DateTimeParseException _) {
+                return false;
+            }
+
+        int unit_ = unit(tmp_);
+
+        return nanos(tmp_.substring(unit_)) != 0
+               && isScalable(tmp_.substring(0, unit_));
+    }
+
+    /**
+     * @see #parseDataSize(String)
+     */
+    public static boolean isDataSize(String _s)
+    {
+        String tmp_ = _s.trim();
+        int unit_ = unit(tmp_);
+
+        return bytes(tmp_.substring(unit_)) != 0
+               && isScalable(tmp_.substring(0, unit_));
+    }
+
+    /**
+     * @see #getEnumProperty(String, Class)
+     */
+    public static boolean isEnum(String _s, Class<? extends Enum<?>> _class)
+    {
+        String tmp_ = _s.trim();
+        int found_ = 0;
+
+        for (Enum<?> constant_ : _class.getEnumConstants()) {
+            if (constant_.name().equals(tmp_))
+                return true;
+            if (constant_.name().equalsIgnoreCase(tmp_))
+                found_++;
+        }
+
+        return found_ == 1;
+    }
+
+
+    /**
+     * Returns the nanoseconds of the duration unit (0 if it's not one).
+     */
+    protected static long nanos(String _unit)
+    {
+        String tmp_ = _unit.trim().toLowerCase(Locale.ROOT);
+
+        if (tmp_.isEmpty() || tmp_.equals("ms"))
+            return 1000000L;
+        if (tmp_.equals("ns"))
+            return 1;
+        if (tmp_.equals("us"))
+            return 1000L;
+        if (tmp_.equals("s"))
+            return 1000000000L;
+        if (tmp_.equals("m") || tmp_.equals("min"))
+            return 60 * 1000000000L;
+        if (tmp_.equals("h"))
+            return 60 * 60 * 1000000000L;
+        if (tmp_.equals("d"))
+            return 24 * 60 * 60 * 1000000000L;
+
+        return 0;
+    }
+
+    /**
+     * Returns the bytes of the data size unit (0 if it's not one).
+     */
+    protected static long bytes(String _unit)
+    {
+        String tmp_ = _unit.trim().toUpperCase(Locale.ROOT);
+
+        if (tmp_.endsWith("IB"))
+            tmp_ = tmp_.substring(0, tmp_.length() - 2);
+        else if (tmp_.endsWith("B"))
+            tmp_ = tmp_.substring(0, tmp_.length() - 1);
+
+        int power_ = tmp_.isEmpty() ? 0 : " KMGT".indexOf(tmp_);
+        if (power_ <= 0 && !tmp_.isEmpty())
+            return 0;
+
+        return 1L << (power_ * 10);
+    }
+
+    /**
+     * @see #scale(String, String, long)
+     */
+    protected static boolean isScalable(String _number)
+    {
+        if (_number.indexOf('.') == -1 && _number.indexOf('e') == -1
+            && _number.indexOf('E') == -1)
+            return isInteger(_number, Long.MIN_VALUE, Long.MAX_VALUE, false);
+
+        return isDouble(_number);
+    }
+
+    /**
+     * @param _decode whether the hexadecimal and octal ones are allowed
+     */
+    protected static boolean isInteger
+            (String _s, long _min, long _max, boolean _decode)
+    {
+        int length_ = _s.length();
+        int i = 0;
+        boolean negative_ = false;
+
+        if (length_ > 0 && (_s.charAt(0) == '-' || _s.charAt(0) == '+')) {
+            negative_ = _s.charAt(0) == '-';
+            i++;
+        }
+
+        int radix_ = 10;
+        if (_decode) {
+            if (_s.startsWith("0x", i) || _s.startsWith("0X", i)) {
+                radix_ = 16;
+                i += 2;
+            } else if (_s.startsWith("#", i)) {
+                radix_ = 16;
+                i++;
+            } else if (_s.startsWith("0", i) && length_ > i + 1) {
+                radix_ = 8;
+                i++;
+            }
+        }
+        if (i == length_)
+            return false;
+
+        // Accumulated negatively (just like Long.parseLong)
+        long value_ = 0;
+        for (; i < length_; i++) {
+            int digit_ = Character.digit(_s.charAt(i), radix_);
+            if (digit_ < 0 || value_ < (Long.MIN_VALUE + digit_) / radix_)
+                return false;
+            value_ = value_ * radix_ - digit_;
+        }
+        if (!negative_) {
+            if (value_ == Long.MIN_VALUE)
+                return false;
+            value_ = -value_;
+        }
+
+        return value_ >= _min && value_ <= _max;
+    }
+
+    protected static boolean isDigit(char _c)
+    {
+        return _c >= '0' && _c <= '9';
+    }
+
+    /**
+     * Returns the unit's start in the string (i.e. the number's end).
+     */
+    protected static int unit(String _s)
+    {
+        int i = 0;
+
+        while (i < _s.length()) {
+            char c = _s.charAt(i);
+
+            if (Character.isDigit(c) || c == '.'
+                || (i == 0 && (c == '+' || c == '-')))
+                i++;
+            else if ((c == 'e' || c == 'E') && i + 1 < _s.length()
+                     && (Character.isDigit(_s.charAt(i + 1))
+                         || _s.charAt(i + 1) == '+' || _s.charAt(i + 1) == '-'))
+                // An exponent (with its sign)
+                i += 2;
+            else
+                break;
+        }
+
+        return i;
+    }
+
+    protected static long scale(String _s, String _number, long _unit)
+    {
+        if (_number.isEmpty())
+            throw new IllegalArgumentException("No number (" + _s + ")!");
+
+        try {
+            if (_number.indexOf('.') == -1 && _number.indexOf('e') == -1
+                && _number.indexOf('E') == -1) {
+                long tmp_ = Long.parseLong(_number);
+                long result_ = tmp_ * _unit;
+
+                // Saturated on overflow
+                if (tmp_ != 0 && result_ / tmp_ != _unit)
+                    return (tmp_ > 0) ? Long.MAX_VALUE : Long.MIN_VALUE;
+                return result_;
+            }
+
+            // Saturated by the cast
+            return (long)(Double.parseDouble(_number) * _unit);
+        } catch (NumberFormatException _) {
+            throw new IllegalArgumentException("Not a number (" + _s + ")!", _);
+        }
+    }
+
+    /**
+     * Returns the key's pattern compiled (once per value of the key) or
+     * <code>null</code> if there is no such key.
+     */
+    protected FormatTemplate template(String _key)
+    {
+        long stamp_ = stamp();
+        Object memo_ = memo(_key, FORMAT, stamp_);
+        if (memo_ != null)
+            return (FormatTemplate)memo_;
+
+        String sProp_ = getProperty(_key);
+        if (sProp_ == null)
+            return null;
+
+        return (FormatTemplate)memoize
+            (_key, FORMAT, stamp_, FormatTemplate.compile(sProp_));
+    }
+
+    /**
+     * Returns the modification stamp of the properties and their defaults
+     * (a greater one after any modification) or -1 if the defaults' ones are
+     * not tracked.
+     */
+    protected long stamp()
+    {
+        if (defaults == null)
+            return stamp;
+        if (!(defaults instanceof Properties))
+            return -1;
+
+        long tmp_ = ((Properties)defaults).stamp();
+
+        return (tmp_ < 0) ? -1 : stamp + tmp_;
+    }
+
+    /**
+     * Invalidates the values memoized (to be called after any modification
+     * of the values, e.g. of the ones the subclasses derive).
+     */
+    protected synchronized void modified()
+    {
+        stamp++;
+    }
+
+    /**
+     * Returns the key's value of the kind memoized as of the stamp or
+     * <code>null</code>.
+     */
+    protected Object memo(String _key, Object _kind, long _stamp)
+    {
+        ConcurrentHashMap<String, Memo> memos_ = memos;
+        if (memos_ == null || _stamp < 0)
+            return null;
+
+        Memo tmp_ = memos_.get(_key);
+        if (tmp_ == null || tmp_.stamp != _stamp || tmp_.kind != _kind)
+            return null;
+
+        return tmp_.value;
+    }
+
+    /**
+     * Memoizes the key's value of the kind, parsed from the string read
+     * as of the stamp (taken before the string was read, so a value read
+     * after a modification is never memoized as a current one).
+     * 
+     * @return the value
+     */
+    protected Object memoize
+            (String _key, Object _kind, long _stamp, Object _value)
+    {
+        if (_stamp < 0)
+            return _value;
+
+        ConcurrentHashMap<String, Memo> memos_ = memos;
+        if (memos_ == null)
+            memos = memos_ = new ConcurrentHashMap<String, Memo>();
+        memos_.put(_key, new Memo(_kind, _stamp, _value));
+
+        return _value;
+    }
+
+
+    /**
+     * An iterator of a view tracking the removals (and the values set through
+     * the entries, if of the entries) as modifications
+     */
+    protected class TrackedIterator<E> implements Iterator<E>
+    {
+        public TrackedIterator(Iterator<E> _i, boolean _entries)
+        {
+            i = _i;
+            entries = _entries;
+        }
+
+
+        public boolean hasNext()
+        {
+            return i.hasNext();
+        }
+
+        @SuppressWarnings("unchecked")
+        public E next()
+        {
+            E tmp_ = i.next();
+
+            if (!entries)
+                return tmp_;
+
+            return (E)new TrackedEntry((Map.Entry<Object, Object>)tmp_);
+        }
+
+        public void remove()
+        {
+            i.remove();
+            modified();
+        }
+
+
+        protected final Iterator<E> i;
+        protected final boolean entries;
+    }
+
+
+    protected class TrackedEntry implements Map.Entry<Object, Object>
+    {
+        public TrackedEntry(Map.Entry<Object, Object> _entry)
+        {
+            entry = _entry;
+        }
+
+
+        public Object getKey()
+        {
+            return entry.getKey();
+        }
+
+        public Object getValue()
+        {
+            return entry.getValue();
+        }
+
+        public Object setValue(Object _value)
+        {
+            Object tmp_ = entry.setValue(_value);
+
+            modified();
+
+            return tmp_;
+        }
+
+        @Override
+        public boolean equals(Object _o)
+        {
+            return entry.equals(_o);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return entry.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return entry.toString();
+        }
+
+
+        protected final Map.Entry<Object, Object> entry;
+    }
+
+
+    protected class TrackedSet<E> extends AbstractSet<E>
+    {
+        public TrackedSet(Set<E> _set, boolean _entries)
+        {
+            set = _set;
+            entries = _entries;
+        }
+
+
+        public Iterator<E> iterator()
+        {
+            return new TrackedIterator<E>(set.iterator(), entries);
+        }
+
+        public int size()
+        {
+            return set.size();
+        }
+
+        @Override
+        public boolean contains(Object _o)
+        {
+            return set.contains(_o);
+        }
+
+        @Override
+        public boolean remove(Object _o)
+        {
+            boolean tmp_ = set.remove(_o);
+
+            modified();
+
+            return tmp_;
+        }
+
+        @Override
+        public void clear()
+        {
+            set.clear();
+            modified();
+        }
+
+
+        protected final Set<E> set;
+        protected final boolean entries;
+    }
+
+
+    protected class TrackedCollection<E> extends AbstractCollection<E>
+    {
+        public TrackedCollection(Collection<E> _collection)
+        {
+            collection = _collection;
+        }
+
+
+        public Iterator<E> iterator()
+        {
+            return new TrackedIterator<E>(collection.iterator(), false);
+        }
+
+        public int size()
+        {
+            return collection.size();
+        }
+
+        @Override
+        public boolean contains(Object _o)
+        {
+            return collection.contains(_o);
+        }
+
+        @Override
+        public void clear()
+        {
+            collection.clear();
+            modified();
+        }
+
+
+        protected final Collection<E> collection;
+    }
+
+
+    /**
+     * A value parsed (of the kind, e.g. {@link #INTEGER} or an enum class)
+     */
+    protected static final class Memo
+    {
+        protected Memo(Object _kind, long _stamp, Object _value)
+        {
+            kind = _kind;
+            stamp = _stamp;
+            value = _value;
+        }
+
+
+        protected final Object kind;
+        protected final long stamp;
+        protected final Object value;
+    }
+
+
+    // The kinds of the values memoized
+    protected static final Object INTEGER = "integer";
+    protected static final Object LONG = "long";
+    protected static final Object BOOLEAN = "boolean";
+    protected static final Object DOUBLE = "double";
+    protected static final Object DURATION = "duration";
+    protected static final Object DATA_SIZE = "data size";
+    protected static final Object FORMAT = "format";
+
+    /**
+     * The values parsed by the keys (created lazily, not to be serialized)
+     */
+    protected transient volatile ConcurrentHashMap<String, Memo> memos;
+    protected transient volatile long stamp;
 }
@@ -0,0 +1,262 @@
+package x.java.util;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * A single-pass parser of the {@link java.util.Properties#load(Reader)}
+ * format: it yields the entries one by one (see {@link #next()}), in the
+ * order of the stream, with no intermediate table.
+ *
+ * The buffers are reused from line to line: parsing allocates just the keys
+ * and the values themselves.
+ */
+public class PropertiesReader implements Closeable
+{
+    /**
+     * Reads the stream as ISO 8859-1 (just like
+     * {@link java.util.Properties#load(InputStream)}).
+     */
+    public PropertiesReader(InputStream _is)
+    {
+        this(new InputStreamReader(_is, StandardCharsets.ISO_8859_1));
+    }
+
+    public PropertiesReader(Reader _reader)
+    {
+        reader = _reader;
+        buffer = new char[8192];
+        position = 0;
+        limit = 0;
+        line = new char[256];
+        sb = new StringBuilder();
+        skipLF = false;
+    }
+
+
+    /**
+     * Reads the next entry in.
+     *
+     * @return false at the end of the stream
+     * @throws IllegalArgumentException if there is a malformed \\uxxxx
+     * escape (just like the original)
+     */
+    public boolean next() throws IOException
+    {
+        int length_ = readLine();
+        if (length_ < 0)
+            return false;
+
+        int keyEnd_ = 0;
+        int valueStart_ = length_;
+        boolean separated_ = false;
+        boolean escaped_ = false;
+
+        while (keyEnd_ < length_) {
+            char c = line[keyEnd_];
+
+            if ((c == '=' || c == ':') && !escaped_) {
+                valueStart_ = keyEnd_ + 1;
+                separated_ = true;
+                break;
+            }
+            if ((c == ' ' || c == '\t' || c == '\f') && !escaped_) {
+                valueStart_ = keyEnd_ + 1;
+                break;
+            }
+            escaped_ = (c == '\\') && !escaped_;
+            keyEnd_++;
+        }
+
+        while (valueStart_ < length_) {
+            char c = line[valueStart_];
+
+            if (c != ' ' && c != '\t' && c != '\f') {
+                if (separated_ || (c != '=' && c != ':'))
+                    break;
+                separated_ = true;
+            }
+            valueStart_++;
+        }
+
+        key = convert(0, keyEnd_);
+        value = convert(valueStart_, length_);
+
+        return true;
+    }
+
+    public String getKey()
+    {
+        return key;
+    }
+
+    public String getValue()
+    {
+        return value;
+    }
+
+    public void close() throws IOException
+    {
+        reader.close();
+    }
+
+
+    /**
+     * Reads the next logical line (comments and blank lines skipped,
+     * continuations joined, leading whitespace dropped) into the line buffer.
+     *
+     * @return the length or -1 at the end of the stream
+     */
+    protected int readLine() throws IOException
+    {
+        int length_ = 0;
+        boolean leading_ = true;
+        boolean comment_ = false;
+        boolean continued_ = false;
+        int backslashes_ = 0;
+
+        for (int c = read(); ; c = read()) {
+            if (c == -1) {
+                if (comment_ || (length_ == 0 && !continued_))
+                    return -1;
+                if (backslashes_ % 2 == 1)
+                    length_--;
+                return length_;
+            }
+
+            if (c == '\n' || c == '\r') {
+                skipLF = (c == '\r');
+
+                // So is the blank line after an empty continued one
+                if (comment_ || length_ == 0) {
+                    comment_ = false;
+                    leading_ = true;
+                    continued_ = false;
+                    continue;
+                }
+                if (backslashes_ % 2 == 1) {
+                    length_--;
+                    backslashes_ = 0;
+                    leading_ = true;
+                    continued_ = true;
+                    continue;
+                }
+                return length_;
+            }
+
+            if (comment_)
+                continue;
+            if (leading_) {
+                if (c == ' ' || c == '\t' || c == '\f')
+                    continue;
+                leading_ = false;
+                if (length_ == 0 && !continued_ && (c == '#' || c == '!')) {
+                    comment_ = true;
+                    continue;
+                }
+            }
+
+            if (length_ == line.length) {
+                char[] tmp_ = new char[line.length * 2];
+                System.arraycopy(line, 0, tmp_, 0, length_);
+                line = tmp_;
+            }
+            line[length_++] = (char)c;
+            backslashes_ = (c == '\\') ? backslashes_ + 1 : 0;
+        }
+    }
+
+    /**
+     * Returns the next character (a '\n' right after a '\r' skipped) or -1.
+     */
+    protected int read() throws IOException
+    {
+        for (;;) {
+            if (position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+
+            char c = buffer[position++];
+            if (skipLF) {
+                skipLF = false;
+                if (c == '\n')
+                    continue;
+            }
+
+            return c;
+        }
+    }
+
+    /**
+     * Unescapes the line's part.
+     */
+    protected String convert(int _start, int _end)
+    {
+        int i = _start;
+        while (i < _end && line[i] != '\\')
+            i++;
+        if (i == _end)
+            return new String(line, _start, _end - _start);
+
+        sb.setLength(0);
+        sb.append(line, _start, i - _start);
+
+        while (i < _end) {
+            char c = line[i++];
+
+            if (c != '\\' || i == _end) {
+                sb.append(c);
+                continue;
+            }
+
+            c = line[i++];
+            if (c == 'u') {
+                if (i + 4 > _end)
+                    throw new IllegalArgumentException
+                        ("Malformed \\uxxxx encoding.");
+                int code_ = 0;
+                for (int j = 0; j < 4; j++) {
+                    int digit_ = Character.digit(line[i++], 16);
+                    if (digit_ == -1)
+                        throw new IllegalArgumentException
+                            ("Malformed \\uxxxx encoding.");
+                    code_ = (code_ << 4) | digit_;
+                }
+                sb.append((char)code_);
+            } else if (c == 't')
+                sb.append('\t');
+            else if (c == 'r')
+                sb.append('\r');
+            else if (c == 'n')
+                sb.append('\n');
+            else if (c == 'f')
+                sb.append('\f');
+            else
+                sb.append(c);
+        }
+
+        return sb.toString();
+    }
+
+
+    protected final Reader reader;
+    protected final char[] buffer;
+    protected int position;
+    protected int limit;
+    protected char[] line;
+    protected final StringBuilder sb;
+    protected boolean skipLF;
+    protected String key;
+    protected String value;
+}
@@ -0,0 +1,146 @@
+package x.java.util;
+
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+ * A single-pass writer of the {@link java.util.Properties#store(Writer, String)}
+ * format: the entries are escaped right into the underlying writer (which had
+ * better be a buffered one), with no intermediate table or strings.
+ */
+public class PropertiesWriter implements Flushable, Closeable
+{
+    /**
+     * @param _escapeUnicode whether the characters out of the printable ASCII
+     * should be written as \\uxxxx escapes (as for the ISO 8859-1 streams)
+     */
+    public PropertiesWriter(Writer _writer, boolean _escapeUnicode)
+    {
+        writer = _writer;
+        escapeUnicode = _escapeUnicode;
+    }
+
+
+    /**
+     * Writes the <code>key=value</code> line.
+     */
+    public void entry(String _key, String _value) throws IOException
+    {
+        key(_key);
+        value(_value);
+    }
+
+    /**
+     * Writes the key and the separator (to be followed by the value).
+     */
+    public void key(String _key) throws IOException
+    {
+        escape(_key, true);
+        writer.write('=');
+    }
+
+    /**
+     * Writes the value and ends the line.
+     */
+    public void value(String _value) throws IOException
+    {
+        escape(_value, false);
+        newLine();
+    }
+
+    /**
+     * Writes the text as it is.
+     */
+    public void write(String _s) throws IOException
+    {
+        writer.write(_s);
+    }
+
+    public void write(char _c) throws IOException
+    {
+        writer.write(_c);
+    }
+
+    public void newLine() throws IOException
+    {
+        writer.write(NEW_LINE);
+    }
+
+    public void flush() throws IOException
+    {
+        writer.flush();
+    }
+
+    public void close() throws IOException
+    {
+        writer.close();
+    }
+
+
+    /**
+     * Escapes just like the original (e.g. the spaces are escaped either in
+     * the keys or leading the values).
+     */
+    protected void escape(String _s, boolean _key) throws IOException
+    {
+        for (int i = 0, length_ = _s.length(); i < length_; i++) {
+            char c = _s.charAt(i);
+
+            // The most of them, let's get done with them at once
+            if (c > 61 && c < 127) {
+                if (c == '\\')
+                    writer.write('\\');
+                writer.write(c);
+                continue;
+            }
+
+            switch (c) {
+            case ' ':
+                if (i == 0 || _key)
+                    writer.write('\\');
+                writer.write(' ');
+                break;
+            case '\t':
+                writer.write("\\t");
+                break;
+            case '\n':
+                writer.write("\\n");
+                break;
+            case '\r':
+                writer.write("\\r");
+                break;
+            case '\f':
+                writer.write("\\f");
+                break;
+            case '=':
+            case ':':
+            case '#':
+            case '!':
+                writer.write('\\');
+                writer.write(c);
+                break;
+            default:
+                if ((c < 0x20 || c > 0x7e) && escapeUnicode) {
+                    writer.write('\\');
+                    writer.write('u');
+                    writer.write(HEX[(c >> 12) & 0xf]);
+                    writer.write(HEX[(c >> 8) & 0xf]);
+                    writer.write(HEX[(c >> 4) & 0xf]);
+                    writer.write(HEX[c & 0xf]);
+                } else
+                    writer.write(c);
+            }
+        }
+    }
+
+
+    protected static final String NEW_LINE = System.lineSeparator();
+    protected static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    protected final Writer writer;
+    protected final boolean escapeUnicode;
+}
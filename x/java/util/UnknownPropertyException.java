@@ -49,4 +49,24 @@ public class UnknownPropertyException extends RuntimeException
         // TODO Auto-generated constructor stub
     }
 
+
+    /**
+     * Returns an exception with no stack trace (cheap to throw, e.g. to be
+     * caught and dealt with right away).
+     * 
+     * @param _message
+     */
+    public static UnknownPropertyException stackless(String _message)
+    {
+        return new UnknownPropertyException(_message, null, false, false);
+    }
+
+
+    protected UnknownPropertyException
+            ( String _message, Throwable _cause, boolean _suppression
+            , boolean _stackTrace)
+    {
+        super(_message, _cause, _suppression, _stackTrace);
+    }
+
 }
@@ -0,0 +1,67 @@
+package x.java.util.test;
+
+
+import x.java.util.Configuration;
+
+
+/**
+ * Measures declaring a {@link Configuration} of many properties up to its
+ * first snapshot: with plain defaults, and with defaults referring to the
+ * properties declared next (<code>${...}</code>, so that every declaration
+ * has a dependent to recache).
+ *
+ * Run it with the number of the properties and of the runs (both optional):
+ * <code>20000 5</code>.
+ *
+ * @note The first runs warm the JVM up: compare the last ones.
+ */
+public class ConfigurationBenchmark
+{
+    @SuppressWarnings("serial")
+    protected static class Declared extends Configuration
+    {
+        public Declared(int _properties, boolean _references)
+        {
+            super("");
+
+            for (int i = 0; i < _properties; i++)
+                last = new StringProperty
+                    ( "key." + i
+                    , (_references && i % 2 == 0)
+                          ? "${key." + (i + 1) + "}x"
+                          : "v" + i
+                    , null);
+        }
+
+
+        public StringProperty last;
+    }
+
+
+    public static void main(String _args[])
+    {
+        int properties_ = (_args.length > 0) ? Integer.parseInt(_args[0])
+                                             : 20000;
+        int runs_ = (_args.length > 1) ? Integer.parseInt(_args[1]) : 5;
+
+        for (int i = 0; i < runs_; i++) {
+            run(properties_, false);
+            run(properties_, true);
+        }
+    }
+
+
+    protected static void run(int _properties, boolean _references)
+    {
+        long start_ = System.nanoTime();
+        Declared config_ = new Declared(_properties, _references);
+        long declared_ = System.nanoTime();
+        config_.last.get();
+        long published_ = System.nanoTime();
+
+        System.out.println(String.format
+            ( "%d properties%s: declared in %.1f ms, first snapshot in %.1f ms"
+            , _properties, _references ? " (references)" : ""
+            , (declared_ - start_) / 1e6, (published_ - declared_) / 1e6));
+    }
+}
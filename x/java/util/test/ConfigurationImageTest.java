@@ -0,0 +1,94 @@
+package x.java.util.test;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import x.java.util.ConfigurationImage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class ConfigurationImageTest
+{
+    @Test public void testImage() throws IOException
+    {
+        File dir_ = File.createTempFile("image", "");
+        dir_.delete();
+        dir_.mkdir();
+        File source_ = new File(dir_, "typed.properties");
+        File image_ = new File(dir_, "typed.image");
+
+        String prefix_ = ConfigurationTest.class.getName() + ".";
+        write(source_, prefix_ + "test.some.long=0x10\n"
+                     + prefix_ + "test.some.boolean=no\n"
+                     + prefix_ + "test.some.duration=2m\n"
+                     + prefix_ + "test.some.unit=DAYS\n");
+
+        try {
+            ConfigurationTest.TypedConfig config_
+                = new ConfigurationTest.TypedConfig();
+            config_.someDouble.set(0.25);
+            assertFalse(config_.load(image_, source_));
+            assertTrue(image_.isFile());
+            assertEquals(config_.someDouble.get(), 0.25, 0);
+
+            // Fresh: the same values, without parsing the source
+            config_ = new ConfigurationTest.TypedConfig();
+            assertTrue(config_.load(image_, source_));
+            assertEquals(config_.someLong.get(), 16);
+            assertFalse(config_.someBoolean.get());
+            assertEquals(config_.someDuration.get(TimeUnit.SECONDS), 120);
+            assertEquals(config_.someUnit.get(), TimeUnit.DAYS);
+            assertEquals(config_.someSize.get(), 65536);
+            assertEquals(config_.getProperty("test.some.long"), "0x10");
+            // Just the sources' values are in the image
+            assertEquals(config_.someDouble.get(), 0.5, 0);
+
+            // Touched, but the same content: still fresh
+            source_.setLastModified(source_.lastModified() - 10000);
+            assertTrue(ConfigurationImage.read
+                        (new ConfigurationTest.TypedConfig(), image_, source_));
+
+            // Another set of sources or a changed one: stale
+            assertFalse(ConfigurationImage.read
+                        (new ConfigurationTest.TypedConfig(), image_));
+            write(source_, prefix_ + "test.some.long=0x11\n"
+                         + prefix_ + "test.some.boolean=no\n"
+                         + prefix_ + "test.some.duration=2m\n"
+                         + prefix_ + "test.some.unit=DAYS\n");
+            config_ = new ConfigurationTest.TypedConfig();
+            assertFalse(config_.load(image_, source_));
+            assertEquals(config_.someLong.get(), 17);
+
+            // Another property set: stale
+            assertFalse(ConfigurationImage.read
+                        (new ConfigurationTest.Config(), image_, source_));
+
+            // Corrupt: stale
+            RandomAccessFile raf_ = new RandomAccessFile(image_, "rw");
+            raf_.setLength(raf_.length() - 5);
+            raf_.close();
+            assertFalse(ConfigurationImage.read
+                        (new ConfigurationTest.TypedConfig(), image_, source_));
+        } finally {
+            source_.delete();
+            image_.delete();
+            dir_.delete();
+        }
+    }
+
+
+    protected static void write(File _file, String _contents)
+            throws IOException
+    {
+        FileOutputStream fos_ = new FileOutputStream(_file);
+        fos_.write(_contents.getBytes("8859_1"));
+        fos_.close();
+    }
+}
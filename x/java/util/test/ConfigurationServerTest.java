@@ -0,0 +1,187 @@
+package x.java.util.test;
+
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.AlreadyBoundException;
+import java.rmi.NotBoundException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.CountDownLatch;
+
+import x.java.util.Configuration;
+import x.java.util.ConfigurationClient;
+import x.java.util.ConfigurationServer;
+import x.java.util.test.ConfigurationTest.TypedConfig;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class ConfigurationServerTest
+{
+    @Test public void testSubscribe()
+            throws IOException, AlreadyBoundException, InterruptedException
+    {
+        ServerSocket socket_ = new ServerSocket(0);
+        int port_ = socket_.getLocalPort();
+        socket_.close();
+
+        TypedConfig served_ = new TypedConfig();
+        served_.someLong.set(5);
+        ConfigurationServer server_ = served_.serve(port_, "test");
+
+        TypedConfig config_ = new TypedConfig();
+        ConfigurationClient client_ = new ConfigurationClient
+            (config_, "localhost", port_, "test", 50);
+        try {
+            // All of the values upon subscribing
+            assertTrue(client_.isConnected());
+            assertEquals(config_.someLong.get(), 5);
+            assertEquals(client_.getVersion(), served_.snapshot().getVersion());
+            assertEquals(server_.getSubscribers(), 1);
+
+            // Just the changes pushed
+            served_.someBoolean.set(false);
+            for (int i = 0; i < 100 && config_.someBoolean.get(); i++)
+                Thread.sleep(20);
+            assertFalse(config_.someBoolean.get());
+            assertEquals(client_.getVersion(), served_.snapshot().getVersion());
+
+            // The last values kept while the server is gone..
+            server_.close();
+            for (int i = 0; i < 100 && client_.isConnected(); i++)
+                Thread.sleep(20);
+            assertFalse(client_.isConnected());
+            assertEquals(config_.someLong.get(), 5);
+            assertFalse(config_.someBoolean.get());
+
+            // ..and brought up to date once it's back
+            served_.someLong.set(6);
+            server_ = served_.serve(port_, "test");
+            for (int i = 0; i < 100 && config_.someLong.get() != 6; i++)
+                Thread.sleep(20);
+            assertTrue(client_.isConnected());
+            assertEquals(config_.someLong.get(), 6);
+        } finally {
+            client_.close();
+            server_.close();
+        }
+    }
+
+    @Test public void testRejected()
+            throws IOException, AlreadyBoundException, InterruptedException
+    {
+        int port_ = freePort();
+        TypedConfig served_ = new TypedConfig();
+        served_.someBoolean.set(false);
+        ConfigurationServer server_ = served_.serve(port_, "test");
+
+        NarrowConfig config_ = new NarrowConfig();
+        ConfigurationClient client_ = new ConfigurationClient
+            (config_, "localhost", port_, "test", 50);
+        try {
+            // The served long (1 << 40) is no int, the rest is taken anyway
+            assertFalse(config_.someBoolean.get());
+            assertEquals(config_.someLong.get(), 1);
+            assertEquals(client_.getRejected().size(), 1);
+            assertTrue(client_.getRejected().keySet().iterator().next()
+                           .endsWith("test.some.long"));
+            assertEquals(client_.getVersion(), served_.snapshot().getVersion());
+
+            served_.someLong.set(7);
+            for (int i = 0; i < 100 && config_.someLong.get() != 7; i++)
+                Thread.sleep(20);
+            assertEquals(config_.someLong.get(), 7);
+            assertTrue(client_.getRejected().isEmpty());
+        } finally {
+            client_.close();
+            server_.close();
+        }
+    }
+
+    @Test public void testHungSubscriber()
+            throws IOException, AlreadyBoundException, InterruptedException
+            , NotBoundException
+    {
+        int port_ = freePort();
+        TypedConfig served_ = new TypedConfig();
+        ConfigurationServer server_
+            = new ConfigurationServer(served_, port_, "test", 200);
+
+        final CountDownLatch release_ = new CountDownLatch(1);
+        ConfigurationServer.Subscriber hung_
+            = new ConfigurationServer.Subscriber() {
+                public void changed(ConfigurationServer.Delta _delta)
+                {
+                    try {
+                        release_.await();
+                    } catch (InterruptedException _) {
+                        // Let go
+                    }
+                }
+            };
+        UnicastRemoteObject.exportObject(hung_, 0);
+        ((ConfigurationServer.Source)LocateRegistry.getRegistry(port_).lookup
+             (ConfigurationServer.bindingName("test"))).subscribe(hung_, 0, -1);
+
+        TypedConfig config_ = new TypedConfig();
+        ConfigurationClient client_ = new ConfigurationClient
+            (config_, "localhost", port_, "test", 60000);
+        try {
+            assertEquals(server_.getSubscribers(), 2);
+
+            // Pushed to the others while one hangs..
+            served_.someBoolean.set(false);
+            for (int i = 0; i < 100 && config_.someBoolean.get(); i++)
+                Thread.sleep(20);
+            assertFalse(config_.someBoolean.get());
+
+            // ..which is dropped once past the timeout
+            Thread.sleep(300);
+            served_.someLong.set(7);
+            for (int i = 0; i < 100 && config_.someLong.get() != 7; i++)
+                Thread.sleep(20);
+            assertEquals(config_.someLong.get(), 7);
+            assertEquals(server_.getSubscribers(), 1);
+        } finally {
+            release_.countDown();
+            client_.close();
+            server_.close();
+            UnicastRemoteObject.unexportObject(hung_, true);
+        }
+    }
+
+
+    /**
+     * Some of {@link TypedConfig}'s properties (of its prefix), of narrower
+     * types
+     */
+    @SuppressWarnings("serial")
+    public static class NarrowConfig extends Configuration
+    {
+        public NarrowConfig()
+        {
+            super(ConfigurationTest.class.getName() + ".");
+        }
+
+
+        public final IntegerProperty someLong
+            = new IntegerProperty("test.some.long", 1, "Some int...");
+
+        public final BooleanProperty someBoolean
+            = new BooleanProperty("test.some.boolean", true, "Some boolean...");
+    }
+
+
+    protected static int freePort() throws IOException
+    {
+        ServerSocket socket_ = new ServerSocket(0);
+        try {
+            return socket_.getLocalPort();
+        } finally {
+            socket_.close();
+        }
+    }
+}
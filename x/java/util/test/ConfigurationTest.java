@@ -2,12 +2,23 @@
 package x.java.util.test;
 
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import x.java.util.Configuration;
+import x.java.util.ConfigurationLayer;
+import x.java.util.ConfigurationSnapshot;
+import x.java.util.ConfigurationWatcher;
+import x.java.util.IllegalPropertyValueException;
+import x.java.util.LoadReport;
+import x.java.util.Properties;
 
 import org.junit.Test;
 
@@ -34,6 +45,29 @@ public class ConfigurationTest
                                 , "This is some pattern...");
     }
 
+    @SuppressWarnings("serial")
+    public static class TypedConfig extends Configuration
+    {
+        public final LongProperty someLong
+            = new LongProperty("test.some.long", 1L << 40, "Some long...");
+
+        public final BooleanProperty someBoolean
+            = new BooleanProperty("test.some.boolean", true, "Some boolean...");
+
+        public final DoubleProperty someDouble
+            = new DoubleProperty("test.some.double", 0.5, "Some double...");
+
+        public final DurationProperty someDuration
+            = new DurationProperty("test.some.duration", "1.5s", "Some time...");
+
+        public final DataSizeProperty someSize
+            = new DataSizeProperty("test.some.size", "64K", "Some size...");
+
+        public final EnumProperty<TimeUnit> someUnit
+            = new EnumProperty<TimeUnit>
+                ("test.some.unit", TimeUnit.SECONDS, "Some unit...");
+    }
+
     protected final static Config config = new Config();
     
     public static void main(String args[])
@@ -88,4 +122,378 @@ public class ConfigurationTest
         assertEquals(config.someInt.get(), 33);
         assertEquals( config.someFormat.get("some"), "something goes");
     }
+
+    @Test public void testSnapshot() throws IOException
+    {
+        Config config_ = new Config();
+        ConfigurationSnapshot before_ = config_.snapshot();
+
+        // The declarations are published at once
+        assertEquals(before_.getVersion(), 1);
+        assertSame(config_.snapshot(), before_);
+
+        File fProps_ = File.createTempFile("config", ".properties");
+        FileOutputStream fos_ = new FileOutputStream(fProps_);
+        String prefix_ = ConfigurationTest.class.getName() + ".";
+        fos_.write(( prefix_ + "test.some.string=other\n"
+                   + prefix_ + "test.some.int=5\n").getBytes());
+        fos_.close();
+
+        FileInputStream fis_ = new FileInputStream(fProps_);
+        config_.load(fis_);
+        fis_.close();
+        fProps_.delete();
+
+        ConfigurationSnapshot after_ = config_.snapshot();
+
+        assertEquals(before_.get(config_.someString), "some string");
+        assertEquals(before_.get(config_.someInt), 17);
+        assertEquals(after_.get(config_.someString), "other");
+        assertEquals(after_.get(config_.someInt), 5);
+        assertEquals(after_.getProperty("test.some.int"), "5");
+        assertEquals(after_.getVersion(), before_.getVersion() + 1);
+        assertEquals(after_.size(), 3);
+
+        config_.someInt.set(6);
+        assertEquals(config_.someInt.get(), 6);
+        assertEquals(after_.get(config_.someInt), 5);
+    }
+
+    @Test public void testWatch() throws IOException, InterruptedException
+    {
+        Config config_ = new Config();
+        final List<String> changes_ = new ArrayList<String>();
+
+        config_.addListener(new Configuration.Listener() {
+            public void changed
+                    (Configuration.Property _property, String _old, String _new)
+            {
+                changes_.add(_old + "->" + _new);
+            }
+        });
+
+        File fProps_ = File.createTempFile("config", ".properties");
+        String prefix_ = ConfigurationTest.class.getName() + ".";
+        write(fProps_, prefix_ + "test.some.int=5\n");
+
+        ConfigurationWatcher watcher_ = config_.watch(fProps_, 50);
+        try {
+            assertEquals(config_.someInt.get(), 5);
+            assertEquals(changes_.toString(), "[17->5]");
+
+            // Illegal values are rejected, the defaults are back if not set
+            write(fProps_, prefix_ + "test.some.int=five\n"
+                         + prefix_ + "test.some.string=other\n");
+            for (int i = 0; i < 100 && watcher_.getReloads() < 2; i++)
+                Thread.sleep(50);
+
+            assertEquals(config_.someString.get(), "other");
+            assertEquals(config_.someInt.get(), 5);
+            assertEquals(watcher_.getRejected().toString()
+                        , "[" + prefix_ + "test.some.int]");
+            assertEquals(changes_.toString(), "[17->5, some string->other]");
+
+            // A malformed file is a failure, the watching goes on
+            write(fProps_, prefix_ + "test.some.string=\\u00zz\n");
+            for (int i = 0; i < 100 && watcher_.getReloads() < 3; i++)
+                Thread.sleep(50);
+
+            assertTrue( watcher_.getFailure()
+                        instanceof IllegalArgumentException);
+            assertEquals(config_.someString.get(), "other");
+
+            write(fProps_, "");
+            for (int i = 0; i < 100 && watcher_.getReloads() < 4; i++)
+                Thread.sleep(50);
+
+            assertNull(watcher_.getFailure());
+
+            assertEquals(config_.someString.get(), "some string");
+            assertEquals(config_.someInt.get(), 17);
+        } finally {
+            watcher_.close();
+            fProps_.delete();
+        }
+    }
+
+
+    @Test public void testTypes()
+    {
+        TypedConfig config_ = new TypedConfig();
+
+        assertEquals(config_.someLong.get(), 1L << 40);
+        assertTrue(config_.someBoolean.get());
+        assertEquals(config_.someDouble.get(), 0.5, 0);
+        assertEquals(config_.someDuration.get(), 1500);
+        assertEquals(config_.someDuration.get(TimeUnit.MICROSECONDS), 1500000);
+        assertEquals(config_.someSize.get(), 65536);
+        assertEquals(config_.someUnit.get(), TimeUnit.SECONDS);
+
+        config_.setProperty("test.some.boolean", "Off");
+        config_.setProperty("test.some.duration", "PT2M");
+        config_.setProperty("test.some.size", "1.5 MiB");
+        config_.setProperty("test.some.unit", "hours");
+        config_.someLong.set(-3);
+
+        assertFalse(config_.someBoolean.get());
+        assertEquals(config_.someDuration.get(TimeUnit.SECONDS), 120);
+        assertEquals(config_.someSize.get(), 1536 * 1024);
+        assertEquals(config_.someUnit.get(), TimeUnit.HOURS);
+        assertEquals(config_.someLong.get(), -3);
+
+        config_.someDuration.set(250, TimeUnit.MILLISECONDS);
+        assertEquals(config_.getProperty("test.some.duration"), "250ms");
+        assertEquals(config_.someDuration.get(), 250);
+
+        String[][] illegal_ = { { "test.some.boolean", "maybe" }
+                              , { "test.some.duration", "5 parsecs" }
+                              , { "test.some.size", "12Q" }
+                              , { "test.some.unit", "fortnights" }
+                              , { "test.some.double", "half" } };
+        for (String[] entry_ : illegal_)
+            try {
+                config_.setProperty(entry_[0], entry_[1]);
+                fail(entry_[0] + "=" + entry_[1]);
+            } catch (IllegalPropertyValueException _) {
+                // Expected
+            }
+    }
+
+    @Test public void testParse()
+    {
+        assertEquals(Properties.parseDuration("100"), 100000000L);
+        assertEquals(Properties.parseDuration("2m"), 120000000000L);
+        assertEquals(Properties.parseDuration(" 1e3 us "), 1000000L);
+        assertEquals(Properties.parseDuration("1d"), 86400000000000L);
+        assertEquals(Properties.parseDuration("1000000d"), Long.MAX_VALUE);
+        assertEquals(Properties.parseDataSize("512"), 512);
+        assertEquals(Properties.parseDataSize("2kb"), 2048);
+        assertEquals(Properties.parseDataSize("1T"), 1L << 40);
+    }
+
+    @Test public void testLayers()
+    {
+        Config config_ = new Config();
+        final List<String> changes_ = new ArrayList<String>();
+        config_.addListener(new Configuration.Listener() {
+            public void changed
+                    (Configuration.Property _property, String _old, String _new)
+            {
+                changes_.add(_old + "->" + _new);
+            }
+        });
+
+        String prefix_ = ConfigurationTest.class.getName() + ".";
+        ConfigurationLayer file_
+            = new ConfigurationLayer("file", ConfigurationLayer.FILE);
+        file_.put(prefix_ + "test.some.int", "1");
+        file_.put(prefix_ + "test.some.string", "file");
+        ConfigurationLayer args_ = ConfigurationLayer.arguments
+            ("--" + prefix_ + "test.some.int=2", "-verbose", "other=3");
+
+        assertNull(config_.addLayer(args_));
+        assertNull(config_.addLayer(file_));
+
+        // The arguments' over the file's
+        assertEquals(config_.someInt.get(), 2);
+        assertEquals(config_.someString.get(), "file");
+        assertEquals(config_.size(), 0);
+
+        // Just the keys changed are resolved
+        long version_ = config_.snapshot().getVersion();
+        file_.put(prefix_ + "test.some.int", "10");
+        assertEquals(config_.snapshot().getVersion(), version_);
+        args_.remove(prefix_ + "test.some.int");
+        assertEquals(config_.someInt.get(), 10);
+
+        // The values set are over all of the layers
+        config_.someString.set("set");
+        file_.put(prefix_ + "test.some.string", "file again");
+        assertEquals(config_.someString.get(), "set");
+        config_.someString.reset();
+        assertEquals(config_.someString.get(), "file again");
+
+        // The illegal values are ignored
+        file_.put(prefix_ + "test.some.int", "ten");
+        assertEquals(config_.someInt.get(), 10);
+
+        config_.removeLayer(file_);
+        assertEquals(config_.someInt.get(), 17);
+        assertEquals(config_.someString.get(), "some string");
+
+        assertEquals( changes_.toString()
+                    , "[17->2, some string->file, 2->10, file->set"
+                     + ", set->file again, file again->some string, 10->17]");
+        assertEquals( ConfigurationLayer.variable("a.b-c.D"), "A_B_C_D");
+    }
+
+    @Test public void testInterpolation()
+    {
+        TypedConfig config_ = new TypedConfig();
+
+        config_.someLong.set(2);
+        config_.setProperty("test.some.size", "${test.some.long}K");
+        assertEquals(config_.someSize.get(), 2048);
+
+        // The dependents follow (transitively)
+        config_.setProperty("test.some.double", "${test.some.long}.5");
+        config_.setProperty("test.some.duration", "${test.some.double}s");
+        assertEquals(config_.someDuration.get(), 2500);
+        config_.someLong.set(3);
+        assertEquals(config_.someSize.get(), 3072);
+        assertEquals(config_.someDouble.get(), 3.5, 0);
+        assertEquals(config_.someDuration.get(), 3500);
+        assertEquals(config_.snapshot().getProperty("test.some.duration")
+                    , "3.5s");
+        assertEquals(config_.get("test.some.duration"), "${test.some.double}s");
+
+        // Cycles are illegal
+        try {
+            config_.setProperty("test.some.long", "${test.some.duration}");
+            fail("A cycle is not detected");
+        } catch (IllegalPropertyValueException _) {
+            // Expected
+        }
+
+        config_.setProperty
+            ("test.some.unit", "${env:SURELY_NOT_SET_ANYWHERE:-MINUTES}");
+        assertEquals(config_.someUnit.get(), TimeUnit.MINUTES);
+
+        Config other_ = new Config();
+        other_.someString.set("$${test.some.int} is ${test.some.int}"
+                             + ", ${no.such.key} is ${no.such.key:-none}");
+        assertEquals( other_.someString.get()
+                    , "${test.some.int} is 17, ${no.such.key} is none");
+        other_.someInt.set(18);
+        assertEquals( other_.someString.get()
+                    , "${test.some.int} is 18, ${no.such.key} is none");
+    }
+
+    @Test public void testUpdate()
+    {
+        final TypedConfig config_ = new TypedConfig();
+        final List<String> changes_ = new ArrayList<String>();
+        config_.addListener(new Configuration.Listener() {
+            public void changed
+                    (Configuration.Property _property, String _old, String _new)
+            {
+                changes_.add(_new + "@" + config_.snapshot().getVersion());
+            }
+        });
+        long version_ = config_.snapshot().getVersion();
+
+        config_.update(new Consumer<Configuration.Editor>() {
+            public void accept(Configuration.Editor _editor)
+            {
+                _editor.set(config_.someLong, "5")
+                       .set("test.some.size", "${test.some.long}K")
+                       .set(config_.someBoolean, "off");
+            }
+        });
+
+        assertEquals(config_.snapshot().getVersion(), version_ + 1);
+        assertEquals(config_.someLong.get(), 5);
+        assertEquals(config_.someSize.get(), 5120);
+        assertFalse(config_.someBoolean.get());
+        assertEquals( changes_.toString()
+                    , "[5@" + (version_ + 1) + ", off@" + (version_ + 1)
+                     + ", 5K@" + (version_ + 1) + "]");
+
+        // All or nothing
+        try {
+            config_.update(new Consumer<Configuration.Editor>() {
+                public void accept(Configuration.Editor _editor)
+                {
+                    _editor.set(config_.someLong, "6")
+                           .reset(config_.someBoolean)
+                           .set(config_.someDouble, "NaN?");
+                }
+            });
+            fail("An illegal value is taken");
+        } catch (IllegalPropertyValueException _) {
+            // Expected
+        }
+
+        assertEquals(config_.snapshot().getVersion(), version_ + 1);
+        assertEquals(config_.someLong.get(), 5);
+        assertEquals(config_.someSize.get(), 5120);
+        assertFalse(config_.someBoolean.get());
+        assertEquals(config_.get("test.some.long"), "5");
+        assertEquals(changes_.size(), 3);
+    }
+
+    @Test public void testLoadForgiving() throws IOException
+    {
+        TypedConfig config_ = new TypedConfig();
+        String prefix_ = ConfigurationTest.class.getName() + ".";
+        String contents_
+            = prefix_ + "test.some.long=0x7fffffffffffffff\n"
+            + prefix_ + "test.some.boolean=maybe\n"
+            + prefix_ + "test.some.double=1e3\n"
+            + prefix_ + "test.some.duration=5 fortnights\n"
+            + prefix_ + "test.some.size=${test.some.long}K\n"
+            + prefix_ + "test.some.unit=minutes\n"
+            + prefix_ + "test.no.such=1\n"
+            + "test.some.long=2\n";
+
+        LoadReport report_ = config_.loadForgiving
+            (new ByteArrayInputStream(contents_.getBytes("8859_1")));
+
+        assertFalse(report_.isClean());
+        assertEquals( report_.getLoaded().toString()
+                    , "[" + prefix_ + "test.some.long, "
+                     + prefix_ + "test.some.double, "
+                     + prefix_ + "test.some.unit]");
+        assertEquals( report_.getUnknown().toString()
+                    , "[" + prefix_ + "test.no.such, test.some.long]");
+        assertEquals(report_.getInvalid().size(), 3);
+        assertEquals( report_.getInvalid().get(prefix_ + "test.some.boolean")
+                    , "maybe");
+        // Not a data size once expanded (a hexadecimal one)
+        assertTrue
+            (report_.getInvalid().containsKey(prefix_ + "test.some.size"));
+
+        // The illegal values are not taken at all
+        assertEquals(config_.someLong.get(), Long.MAX_VALUE);
+        assertTrue(config_.someBoolean.get());
+        assertNull(config_.get("test.some.boolean"));
+        assertNull(config_.get("test.some.size"));
+        assertEquals(config_.someSize.get(), 64 * 1024);
+        assertEquals(config_.someDouble.get(), 1000.0, 0.0);
+        assertEquals(config_.someUnit.get(), TimeUnit.MINUTES);
+    }
+
+    @Test public void testValidators()
+    {
+        assertTrue(Properties.isInteger("-0x80000000", Integer.MIN_VALUE, 0));
+        assertFalse(Properties.isInteger("0x80000000", 0, Integer.MAX_VALUE));
+        assertTrue(Properties.isInteger("-9223372036854775808"
+                                       , Long.MIN_VALUE, Long.MAX_VALUE));
+        assertFalse(Properties.isInteger("9223372036854775808"
+                                        , Long.MIN_VALUE, Long.MAX_VALUE));
+        assertTrue(Properties.isInteger("#ff", 0, 255));
+        assertTrue(Properties.isInteger("017", 15, 15));
+        assertFalse(Properties.isInteger("08", 0, 10));
+        assertFalse(Properties.isInteger("-", 0, 10));
+        assertTrue(Properties.isDouble(" -.5e-3d "));
+        assertTrue(Properties.isDouble("0x1p3"));
+        assertTrue(Properties.isDouble("-Infinity"));
+        assertFalse(Properties.isDouble("1.2.3"));
+        assertFalse(Properties.isDouble("1e"));
+        assertTrue(Properties.isDuration("1.5h"));
+        assertTrue(Properties.isDuration("PT1M"));
+        assertFalse(Properties.isDuration("1 week"));
+        assertTrue(Properties.isDataSize("2KiB"));
+        assertFalse(Properties.isDataSize("12Q"));
+        assertTrue(Properties.isEnum("seconds", TimeUnit.class));
+        assertFalse(Properties.isEnum("weeks", TimeUnit.class));
+    }
+
+    protected static void write(File _file, String _contents)
+            throws IOException
+    {
+        FileOutputStream fos_ = new FileOutputStream(_file);
+        fos_.write(_contents.getBytes("8859_1"));
+        fos_.close();
+    }
 }
@@ -0,0 +1,66 @@
+package x.java.util.test;
+
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+
+import x.java.util.FormatTemplate;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class FormatTemplateTest
+{
+    @Test public void testCompiled()
+    {
+        String[] patterns_ = { "", "plain", "%s", "a %s b %d c", "%2$s %1$s %s"
+                             , "100%% %n%s", "%2$d%2$d", "%s%%%s" };
+        Object[] args_ = { "x", 42 };
+
+        for (String pattern_ : patterns_) {
+            FormatTemplate template_ = FormatTemplate.compile(pattern_);
+
+            assertTrue(pattern_, template_.isCompiled());
+            assertEquals(template_.format(args_), String.format(pattern_, args_));
+        }
+
+        assertEquals( FormatTemplate.compile("%s|%d|%s").format(null, -7L, null)
+                    , "null|-7|null");
+    }
+
+    @Test public void testFallback()
+    {
+        String[] patterns_ = { "%5s", "%-3d|", "%x", "%.2f", "%<s", "%S" };
+
+        for (String pattern_ : patterns_)
+            assertFalse(pattern_, FormatTemplate.compile(pattern_).isCompiled());
+
+        assertEquals(FormatTemplate.compile("%.2f").format(1.5), "1.50");
+        // Compiled, but not for such an argument
+        assertEquals( FormatTemplate.compile("%d").format(BigInteger.TEN)
+                    , "10");
+    }
+
+    @Test(expected = java.util.MissingFormatArgumentException.class)
+    public void testMissingArgument()
+    {
+        FormatTemplate.compile("%s %s").format("one");
+    }
+
+    @Test public void testAppend() throws IOException
+    {
+        FormatTemplate template_ = FormatTemplate.compile("[%s=%d]");
+        StringBuilder sb_ = new StringBuilder("x");
+
+        assertSame(template_.appendTo(sb_, "a", 1), sb_);
+        template_.appendTo(sb_, "b", 2);
+        assertEquals(sb_.toString(), "x[a=1][b=2]");
+
+        StringWriter sw_ = new StringWriter();
+        template_.appendTo(sw_, "c", 3);
+        assertEquals(sw_.toString(), "[c=3]");
+    }
+}
@@ -0,0 +1,54 @@
+package x.java.util.test;
+
+
+import x.java.util.Histogram;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class HistogramTest
+{
+    @Test
+    public void testPercentiles()
+    {
+        Histogram histogram = new Histogram();
+
+        assertEquals(histogram.getPercentile(50), 0);
+
+        for (int i = 1; i <= 100; i++)
+            histogram.record(i);
+
+        assertEquals(histogram.getCount(), 100);
+        assertEquals(histogram.getMean(), 50);
+        // 50 is in the [32, 63] bucket, 99 in the [64, 127] one
+        assertEquals(histogram.getPercentile(50), 63);
+        assertEquals(histogram.getPercentile(99), 127);
+        assertEquals(histogram.getPercentile(1), 1);
+
+        histogram.record(0);
+        assertEquals(histogram.getPercentile(0), 0);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException
+    {
+        final Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[4];
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override public void run() {
+                    for (int j = 0; j < 100000; j++)
+                        histogram.record(j);
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(histogram.getCount(), 400000);
+    }
+}
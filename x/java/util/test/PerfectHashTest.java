@@ -0,0 +1,50 @@
+package x.java.util.test;
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+import x.java.util.PerfectHash;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class PerfectHashTest
+{
+    @Test public void testLookup()
+    {
+        for (int n : new int[] { 0, 1, 2, 3, 17, 1000, 5000 }) {
+            Map<String, Integer> map_ = new HashMap<String, Integer>();
+            for (int i = 0; i < n; i++)
+                map_.put("some.config.key." + i, i);
+
+            PerfectHash<Integer> hash_ = PerfectHash.build(map_);
+
+            assertEquals(hash_.size(), n);
+            for (int i = 0; i < n; i++)
+                assertEquals(hash_.get("some.config.key." + i), (Integer)i);
+            assertNull(hash_.get("some.config.key." + n));
+            assertNull(hash_.get(""));
+        }
+    }
+
+    @Test public void testSameHashCodes()
+    {
+        Map<String, String> map_ = new HashMap<String, String>();
+        // "Aa", "BB" and the like have the same hash codes
+        map_.put("Aa", "1");
+        map_.put("BB", "2");
+        map_.put("AaAa", "3");
+        map_.put("BBBB", "4");
+        map_.put("AaBB", "5");
+
+        PerfectHash<String> hash_ = PerfectHash.build(map_);
+
+        assertEquals(hash_.size(), 5);
+        for (Map.Entry<String, String> entry_ : map_.entrySet())
+            assertEquals(hash_.get(entry_.getKey()), entry_.getValue());
+        assertNull(hash_.get("BBAa "));
+    }
+}
@@ -0,0 +1,89 @@
+package x.java.util.test;
+
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import x.java.util.PropertiesReader;
+import x.java.util.PropertiesWriter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class PropertiesReaderTest
+{
+    @Test public void testLikeOriginal() throws IOException
+    {
+        String in_ = "  # comment \\\n k1 = v1 \\\n    cont\\\\\r\nk2:v2\r\n\r\n"
+                   + "!x\nk\\ 3\tv\\u0041\\t\nk4\\\nk5\n"
+                   + "k7 = = b\nk8\n\\#k9=#\nk6=a\\\n";
+
+        java.util.Properties original_ = new java.util.Properties();
+        original_.load(new StringReader(in_));
+
+        Map<String, String> parsed_ = read(in_);
+
+        assertEquals(parsed_, original_);
+        assertEquals(parsed_.get("k7"), "= b");
+        assertEquals(parsed_.get("#k9"), "#");
+    }
+
+    @Test public void testEmptyContinued() throws IOException
+    {
+        // The blank line after an empty continued one is skipped
+        for (String in_ : new String[] { "\\\n\nk=v\n", "\\\n  \r\nk=v"
+                                       , "\\\n" }) {
+            java.util.Properties original_ = new java.util.Properties();
+            original_.load(new StringReader(in_));
+
+            assertEquals(read(in_), original_);
+        }
+        assertEquals(read("\\\n\nk=v\n").toString(), "{k=v}");
+    }
+
+    @Test public void testRoundTrip() throws IOException
+    {
+        Map<String, String> entries_ = new LinkedHashMap<String, String>();
+        entries_.put("a key", " lead=ing:#!\\ \u00e9\u4e2d\t\n");
+        entries_.put("", "");
+        entries_.put("c:x", "trailing ");
+        entries_.put("\u0001", "\r\f");
+
+        for (boolean escape_ : new boolean[] { true, false }) {
+            StringWriter sw_ = new StringWriter();
+            PropertiesWriter pw_ = new PropertiesWriter(sw_, escape_);
+            for (Map.Entry<String, String> entry_ : entries_.entrySet())
+                pw_.entry(entry_.getKey(), entry_.getValue());
+            pw_.flush();
+
+            java.util.Properties original_ = new java.util.Properties();
+            original_.load(new StringReader(sw_.toString()));
+
+            assertEquals(read(sw_.toString()), entries_);
+            assertEquals(original_, entries_);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformed() throws IOException
+    {
+        read("k=\\u12x4");
+    }
+
+
+    protected static Map<String, String> read(String _s) throws IOException
+    {
+        Map<String, String> tmp_ = new LinkedHashMap<String, String>();
+        PropertiesReader pr_ = new PropertiesReader(new StringReader(_s));
+
+        while (pr_.next())
+            tmp_.put(pr_.getKey(), pr_.getValue());
+
+        return tmp_;
+    }
+}
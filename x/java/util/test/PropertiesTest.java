@@ -0,0 +1,157 @@
+package x.java.util.test;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import x.java.util.IllegalPropertyValueException;
+import x.java.util.Properties;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class PropertiesTest
+{
+    @Test public void testMemoized() throws IOException
+    {
+        Properties defaults_ = new Properties();
+        defaults_.setProperty("int", "0x10");
+        Properties props_ = new Properties(defaults_);
+        props_.setProperty("unit", "minutes");
+
+        assertEquals(props_.getIntegerProperty("int"), 16);
+        assertEquals(props_.getIntegerProperty("int", 5), 16);
+        assertEquals(props_.getEnumProperty("unit", TimeUnit.class)
+                    , TimeUnit.MINUTES);
+        assertSame( props_.getEnumProperty("unit", TimeUnit.class)
+                  , TimeUnit.MINUTES);
+
+        // Every kind of modification (of the defaults too) is seen
+        defaults_.setProperty("int", "17");
+        assertEquals(props_.getIntegerProperty("int"), 17);
+        props_.setProperty("int", "18");
+        assertEquals(props_.getIntegerProperty("int"), 18);
+        props_.load(new ByteArrayInputStream("int=19".getBytes("8859_1")));
+        assertEquals(props_.getIntegerProperty("int"), 19);
+        props_.putAll(Collections.singletonMap("int", "20"));
+        assertEquals(props_.getIntegerProperty("int"), 20);
+        props_.resetProperty("int");
+        assertEquals(props_.getIntegerProperty("int"), 17);
+        props_.clear();
+        assertEquals(props_.getIntegerProperty("int"), 17);
+        defaults_.remove("int");
+        assertEquals(props_.getIntegerProperty("int", 5), 5);
+
+        // The same key read as another kind
+        props_.setProperty("size", "2");
+        assertEquals(props_.getIntegerProperty("size"), 2);
+        assertEquals(props_.getDataSizeProperty("size"), 2);
+        assertEquals(props_.getDurationProperty("size", TimeUnit.MICROSECONDS)
+                    , 2000);
+        assertEquals(props_.getDurationProperty("size", TimeUnit.NANOSECONDS)
+                    , 2000000);
+        assertEquals(props_.getFormatProperty("size"), "2");
+
+        // The illegal values are not memoized
+        props_.setProperty("size", "2X");
+        for (int i = 0; i < 2; i++)
+            try {
+                props_.getDataSizeProperty("size");
+                fail("An illegal value is taken");
+            } catch (IllegalPropertyValueException _) {
+                // Expected
+            }
+    }
+
+    @Test public void testMapModifications()
+    {
+        Properties props_ = new Properties();
+        props_.setProperty("int", "1");
+        assertEquals(props_.getIntegerProperty("int"), 1);
+
+        // Every Map way of writing is seen
+        props_.replace("int", "2");
+        assertEquals(props_.getIntegerProperty("int"), 2);
+        props_.replace("int", "2", "3");
+        assertEquals(props_.getIntegerProperty("int"), 3);
+        props_.merge("int", "4", new BiFunction<Object, Object, Object>() {
+            public Object apply(Object _old, Object _new)
+            {
+                return _new;
+            }
+        });
+        assertEquals(props_.getIntegerProperty("int"), 4);
+        props_.compute("int", new BiFunction<Object, Object, Object>() {
+            public Object apply(Object _key, Object _old)
+            {
+                return "5";
+            }
+        });
+        assertEquals(props_.getIntegerProperty("int"), 5);
+        props_.computeIfPresent
+            ("int", new BiFunction<Object, Object, Object>() {
+                public Object apply(Object _key, Object _old)
+                {
+                    return "6";
+                }
+            });
+        assertEquals(props_.getIntegerProperty("int"), 6);
+        props_.replaceAll(new BiFunction<Object, Object, Object>() {
+            public Object apply(Object _key, Object _old)
+            {
+                return "7";
+            }
+        });
+        assertEquals(props_.getIntegerProperty("int"), 7);
+        props_.remove("int", "7");
+        assertEquals(props_.getIntegerProperty("int", 8), 8);
+        props_.putIfAbsent("int", "9");
+        assertEquals(props_.getIntegerProperty("int"), 9);
+
+        // So are the views
+        for (Map.Entry<Object, Object> entry_ : props_.entrySet())
+            entry_.setValue("10");
+        assertEquals(props_.getIntegerProperty("int"), 10);
+        props_.keySet().remove("int");
+        assertEquals(props_.getIntegerProperty("int", 11), 11);
+        props_.setProperty("int", "12");
+        assertEquals(props_.getIntegerProperty("int"), 12);
+        props_.values().clear();
+        assertEquals(props_.getIntegerProperty("int", 13), 13);
+        props_.computeIfAbsent("int", new Function<Object, Object>() {
+            public Object apply(Object _key)
+            {
+                return "14";
+            }
+        });
+        assertEquals(props_.getIntegerProperty("int"), 14);
+        Iterator<Map.Entry<Object, Object>> i = props_.entrySet().iterator();
+        i.next();
+        i.remove();
+        assertEquals(props_.getIntegerProperty("int", 15), 15);
+    }
+
+    @Test public void testUntrackedDefaults()
+    {
+        final java.util.Properties defaults_ = new java.util.Properties();
+        defaults_.setProperty("long", "1");
+        @SuppressWarnings("serial")
+        Properties props_ = new Properties() {
+            {
+                defaults = defaults_;
+            }
+        };
+
+        assertEquals(props_.getLongProperty("long"), 1);
+        defaults_.setProperty("long", "2");
+        assertEquals(props_.getLongProperty("long"), 2);
+    }
+}